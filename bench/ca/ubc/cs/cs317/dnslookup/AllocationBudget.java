@@ -0,0 +1,116 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/** Checks that the hot paths of the resolver stay within a budget of bytes allocated per
+ * operation: query encoding, response parsing (a referral and an answer, the packets of
+ * {@link HotPathBenchmark}), a cache hit, and whole lookups against a {@link FakeDNSHierarchy}:
+ * of a cached name, and of a new name asked to the servers of a cached zone, which sends one
+ * query. The process exits with status 1 if any check is over its budget, so it can guard a
+ * build against allocations creeping back, e.g. hex string round trips through
+ * {@link Bytehelper}, more objects per parsed record or a socket per query.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.AllocationBudget [-budget name=bytes]... [regex]
+ * </pre>
+ *
+ * Allocations are read from the allocation counter of the current thread
+ * ({@code com.sun.management.ThreadMXBean}), before and after a run of operations, once the
+ * operation was warmed up long enough for the JIT compiler to remove what escape analysis can.
+ * The lowest of several runs is kept, as the other runs may include allocations of the compiler
+ * or of a deoptimization. The default budgets leave about 25% of room over the bytes measured on a
+ * 64-bit JVM with compressed references; {@code -budget} replaces one of them.
+ */
+public class AllocationBudget {
+
+    private static final int WARMUP = 50000;
+    private static final int OPERATIONS = 10000;
+    private static final int RUNS = 5;
+
+    private static final Map<String, Long> BUDGETS = new LinkedHashMap<>();
+    static {
+        BUDGETS.put("query.encode", 240L);
+        BUDGETS.put("response.parse.referral", 16000L);
+        BUDGETS.put("response.parse.answer", 1900L);
+        BUDGETS.put("cache.get", 72L);
+        BUDGETS.put("lookup.cached", 600L);
+        BUDGETS.put("lookup.upstream", 5800L);
+    }
+
+    private static Object sink; // last result, so that computing it cannot be optimized away
+
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-budget")) {
+                String[] budget = args[++i].split("=", 2);
+                if (!BUDGETS.containsKey(budget[0]))
+                    throw new IllegalArgumentException("No check named " + budget[0] + ", checks are " + BUDGETS.keySet());
+                BUDGETS.put(budget[0], Long.parseLong(budget[1]));
+            } else {
+                filter = args[i];
+            }
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not count the bytes allocated by a thread");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] referral = HotPathBenchmark.referral();
+        byte[] answer = HotPathBenchmark.answer();
+        DNSNode question = new DNSNode("www.example.com", RecordType.A);
+        DNSCache cache = new DNSCache();
+        cache.addResult(new ResourceRecord("www.example.com", RecordType.A, 86400, new byte[]{10, 0, 0, 1}));
+        FakeDNSHierarchy hierarchy = FakeDNSHierarchy.start(FakeDNSHierarchy.scenario("basic"));
+        hierarchy.useForResolver();
+        DNSLookupService.setServing(true);
+        InetAddress root = hierarchy.getRoot();
+
+        Map<String, Callable<Object>> checks = new LinkedHashMap<>();
+        checks.put("query.encode", () -> new DNSQuery(question).message);
+        checks.put("response.parse.referral", () -> new DNSResponse(referral));
+        checks.put("response.parse.answer", () -> new DNSResponse(answer));
+        checks.put("cache.get", () -> cache.getCachedResults(question));
+        checks.put("lookup.cached", () -> DNSLookupService.lookup("www.example.test", RecordType.A, root));
+        String[] names = new String[WARMUP + RUNS * OPERATIONS];
+        for (int i = 0; i < names.length; i++)
+            names[i] = "host" + i + ".example.test";
+        int[] next = {0};
+        checks.put("lookup.upstream", () -> DNSLookupService.lookup(names[next[0]++], RecordType.A, root));
+
+        boolean failed = false;
+        System.out.printf("%-28s %12s %12s  %s%n", "Check", "Bytes/op", "Budget", "Result");
+        for (Map.Entry<String, Callable<Object>> check : checks.entrySet()) {
+            String name = check.getKey();
+            if (filter != null && !name.matches(".*" + filter + ".*")) continue;
+            double bytes = measure(threads, check.getValue());
+            long budget = BUDGETS.get(name);
+            boolean over = bytes > budget;
+            failed |= over;
+            System.out.printf("%-28s %12.1f %12d  %s%n", name, bytes, budget, over ? "OVER BUDGET" : "ok");
+        }
+        hierarchy.close();
+        System.exit(failed ? 1 : 0);
+    }
+
+    /** @return The fewest bytes allocated per operation over the measured runs. */
+    private static double measure(com.sun.management.ThreadMXBean threads, Callable<Object> operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++)
+            sink = operation.call();
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < OPERATIONS; i++)
+                sink = operation.call();
+            long after = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min(best, (double) (after - before) / OPERATIONS);
+        }
+        return best;
+    }
+}
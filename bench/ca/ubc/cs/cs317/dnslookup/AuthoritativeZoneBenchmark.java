@@ -0,0 +1,75 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Benchmark for {@link AuthoritativeZone}: writes a zone file with the given number of records
+ * (mostly A records, with a CNAME for every tenth name), then measures the load time, the heap
+ * retained by the loaded zone, and the cost of a lookup for names in the zone.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.AuthoritativeZoneBenchmark [records]
+ * </pre>
+ *
+ * The retained heap is the drop of the used heap, after full collections, once the zone is released.
+ */
+public class AuthoritativeZoneBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path file = Files.createTempFile("dns-zone", ".zone");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("$ORIGIN corp.internal.\n$TTL 3600\n");
+                writer.write("@ IN SOA ns1 hostmaster 1 3600 600 86400 300\n@ IN NS ns1\nns1 IN A 10.0.0.53\n");
+                for (int i = 0; i < count - 3; i++) {
+                    if (i % 10 == 9)
+                        writer.write("alias" + i + " IN CNAME host" + (i - 1) + "\n");
+                    else
+                        writer.write("host" + i + " IN A 10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF) + "\n");
+                }
+            }
+            System.out.printf("zone file: %.1f MB%n", Files.size(file) / 1e6);
+
+            long start = System.nanoTime();
+            AuthoritativeZone zone = AuthoritativeZone.load(file);
+            long load = System.nanoTime() - start;
+            System.out.printf("load: %.1f ms, %d names, %d records%n", load / 1e6, zone.getNameCount(), zone.getRecordCount());
+
+            DNSNode[] nodes = new DNSNode[1024];
+            for (int i = 0; i < nodes.length; i++) {
+                int n = i * 7919 % (count - 3);
+                nodes[i] = new DNSNode((n % 10 == 9 ? "alias" : "host") + n + ".corp.internal", RecordType.A);
+            }
+            timeLookups(zone, nodes); // warm-up
+            System.out.printf("lookup: %.1f ns per lookup%n", timeLookups(zone, nodes));
+
+            int records = zone.getRecordCount();
+            long held = usedHeap();
+            zone = null;
+            long retained = held - usedHeap();
+            System.out.printf("heap: %.1f MB retained, %.1f bytes per record%n", retained / 1e6, (double) retained / records);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static double timeLookups(AuthoritativeZone zone, DNSNode[] nodes) {
+        int iterations = 2000000;
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            found += zone.lookup(nodes[i & (nodes.length - 1)]).size();
+        long elapsed = System.nanoTime() - start;
+        if (found < 0) System.out.println(found); // keeps the loop from being optimized away
+        return (double) elapsed / iterations;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
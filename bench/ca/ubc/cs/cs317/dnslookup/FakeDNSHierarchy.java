@@ -0,0 +1,564 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Name servers on the loopback interface playing the root, TLD and authoritative roles of a DNS
+ * hierarchy, so the resolver can be run end to end offline and reproducibly. Each server listens
+ * on its own loopback address, all on the same UDP port, which the resolver is pointed at with
+ * {@link DNSLookupService#setUpstreamPort(int)}.
+ *
+ * <p>The hierarchy is described in master file format, a {@code $SERVER address} line starting
+ * the data of each server:</p>
+ * <pre>
+ *   $SERVER 127.0.0.1
+ *   .                 SOA   a.root. admin. 1 3600 600 86400 300
+ *   test.             NS    ns.test.
+ *   ns.test.          A     127.0.0.2
+ *   $SERVER 127.0.0.2
+ *   test.             SOA   ns.test. admin. 1 3600 600 86400 300
+ *   example.test.     NS    ns.example.test.
+ *   ns.example.test.  A     127.0.0.3
+ *   $SERVER 127.0.0.3
+ *   example.test.     SOA   ns.example.test. admin. 1 3600 600 86400 300
+ *   *.example.test.   A     10.0.0.1
+ * </pre>
+ *
+ * <p>A server is authoritative for the zones whose SOA record it holds. It answers a name of its
+ * zones with the records of the name, following CNAME records within its data, or with those of a
+ * matching wildcard ({@code *.zone}). For a name below a delegation (NS records below the apex)
+ * it returns a referral, with the addresses it holds for the name servers as glue, so a
+ * delegation to servers it holds no address for is glueless. Other names get NXDOMAIN, and names
+ * outside its zones REFUSED; negative answers carry the SOA record of the zone, with its TTL
+ * capped by the SOA minimum.</p>
+ *
+ * <p>Options after the address of a {@code $SERVER} line make the server less well behaved:</p>
+ * <pre>
+ *   latency=millis   delays every response
+ *   jitter=millis    adds a random delay of up to this to the latency
+ *   loss=fraction    drops this fraction of the queries, e.g. 0.1
+ *   maxsize=bytes    truncates (TC bit) the responses that do not fit, e.g. 512
+ * </pre>
+ * The random draws are seeded, by default with 0 or by a {@code $SEED number} line, so a run can
+ * be repeated. {@link #scenario(String)} returns ready-made descriptions, and {@link #main} runs
+ * one in the foreground, for load tests of the resolver or its server mode.
+ */
+public class FakeDNSHierarchy implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_CNAMES = 8;
+
+    private static final String SOA = " SOA ns. admin. 1 3600 600 86400 300";
+    private static final Map<String, String> SCENARIOS = new LinkedHashMap<>();
+
+    static {
+        // root -> test -> example.test, with glue at every step and a wildcard at the bottom
+        String basic = String.join("\n",
+                "$SERVER 127.0.0.1",
+                "." + SOA,
+                "test. NS ns.test.",
+                "ns.test. A 127.0.0.2",
+                "$SERVER 127.0.0.2",
+                "test." + SOA,
+                "example.test. NS ns.example.test.",
+                "ns.example.test. A 127.0.0.3",
+                "$SERVER 127.0.0.3",
+                "example.test." + SOA,
+                "*.example.test. A 10.0.0.1");
+        SCENARIOS.put("basic", basic);
+        // example.test is served by ns.example.net, whose address the test servers do not have
+        SCENARIOS.put("glueless", String.join("\n",
+                "$SERVER 127.0.0.1",
+                "." + SOA,
+                "test. NS ns.test.",
+                "ns.test. A 127.0.0.2",
+                "net. NS ns.net.",
+                "ns.net. A 127.0.0.4",
+                "$SERVER 127.0.0.2",
+                "test." + SOA,
+                "example.test. NS ns.example.net.",
+                "$SERVER 127.0.0.4",
+                "net." + SOA,
+                "ns.example.net. A 127.0.0.3",
+                "$SERVER 127.0.0.3",
+                "example.test." + SOA,
+                "*.example.test. A 10.0.0.1"));
+        // glueless, with ns.example.net reachable over IPv6 only: it has an AAAA record and no A record
+        SCENARIOS.put("glueless-v6", String.join("\n",
+                "$SERVER 127.0.0.1",
+                "." + SOA,
+                "test. NS ns.test.",
+                "ns.test. A 127.0.0.2",
+                "net. NS ns.net.",
+                "ns.net. A 127.0.0.4",
+                "$SERVER 127.0.0.2",
+                "test." + SOA,
+                "example.test. NS ns.example.net.",
+                "$SERVER 127.0.0.4",
+                "net." + SOA,
+                "ns.example.net. AAAA ::1",
+                "$SERVER ::1",
+                "example.test." + SOA,
+                "*.example.test. A 10.0.0.1"));
+        // www.example.test -> www.cdn.test -> edge.cdn.net, each alias in a zone of another server,
+        // and a chain within example.test: a -> b -> c
+        SCENARIOS.put("cname-chain", String.join("\n",
+                "$SERVER 127.0.0.1",
+                "." + SOA,
+                "test. NS ns.test.",
+                "ns.test. A 127.0.0.2",
+                "net. NS ns.net.",
+                "ns.net. A 127.0.0.4",
+                "$SERVER 127.0.0.2",
+                "test." + SOA,
+                "example.test. NS ns.example.test.",
+                "ns.example.test. A 127.0.0.3",
+                "cdn.test. NS ns.cdn.test.",
+                "ns.cdn.test. A 127.0.0.5",
+                "$SERVER 127.0.0.3",
+                "example.test." + SOA,
+                "www.example.test. CNAME www.cdn.test.",
+                "a.example.test. CNAME b.example.test.",
+                "b.example.test. CNAME c.example.test.",
+                "c.example.test. A 10.0.0.3",
+                "$SERVER 127.0.0.5",
+                "cdn.test." + SOA,
+                "www.cdn.test. CNAME edge.cdn.net.",
+                "$SERVER 127.0.0.4",
+                "net." + SOA,
+                "edge.cdn.net. A 10.0.0.2"));
+        // the basic hierarchy over a slow, lossy network: 10 to 30 ms per response, 10% loss
+        SCENARIOS.put("lossy", basic.replace("$SERVER 127.0.0.1", "$SERVER 127.0.0.1 latency=10 jitter=20 loss=0.1")
+                .replace("$SERVER 127.0.0.2", "$SERVER 127.0.0.2 latency=10 jitter=20 loss=0.1")
+                .replace("$SERVER 127.0.0.3", "$SERVER 127.0.0.3 latency=10 jitter=20 loss=0.1"));
+        // 64 addresses for many.example.test, more than fit in the 512 bytes of plain UDP
+        StringBuilder many = new StringBuilder(basic.replace("$SERVER 127.0.0.3", "$SERVER 127.0.0.3 maxsize=512"));
+        for (int i = 1; i <= 64; i++)
+            many.append("\nmany.example.test. A 10.0.1.").append(i);
+        SCENARIOS.put("truncated", many.toString());
+    }
+
+    /** A record held by a server. */
+    private static final class Record {
+        final DNSName owner;
+        final RecordType type;
+        final long ttl;
+        final byte[] address; // for A and AAAA
+        final DNSName target; // for NS and CNAME
+        final String[] soa; // for SOA, with its times in seconds
+
+        Record(ZoneFileParser.Entry entry) {
+            this.owner = entry.getOwner();
+            this.type = entry.getType();
+            this.ttl = entry.getTTL();
+            this.address = type == RecordType.A || type == RecordType.AAAA ? entry.getAddress() : null;
+            this.target = type == RecordType.NS || type == RecordType.CNAME ? DNSName.of(entry.getText()) : null;
+            this.soa = type == RecordType.SOA ? entry.getRdata() : null;
+        }
+
+        boolean write(DNSMessageWriter writer, DNSMessageWriter.Section section, DNSName owner) {
+            if (address != null) return writer.writeAddress(section, owner, ttl, address);
+            if (soa != null)
+                return writer.writeSOA(section, owner, Math.min(ttl, Long.parseLong(soa[6])), DNSName.of(soa[0]),
+                        DNSName.of(soa[1]), Long.parseLong(soa[2]), Long.parseLong(soa[3]), Long.parseLong(soa[4]),
+                        Long.parseLong(soa[5]), Long.parseLong(soa[6]));
+            return writer.writeNameRecord(section, owner, type, ttl, target);
+        }
+    }
+
+    /** One fake name server. */
+    private final class Server extends Thread {
+        final InetAddress address;
+        final Map<DNSName, List<Record>> records = new HashMap<>();
+        final List<DNSName> apexes = new ArrayList<>();
+        final AtomicLong queries = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final DNSMessageWriter writer = new DNSMessageWriter(DNSServer.MAX_UDP_SIZE);
+        long latency;
+        long jitter;
+        double loss;
+        int maxSize = DNSServer.MAX_UDP_SIZE;
+        Random random;
+        DatagramSocket socket;
+
+        Server(InetAddress address) {
+            super("fake-dns-" + address.getHostAddress());
+            setDaemon(true);
+            this.address = address;
+        }
+
+        void configure(String option) {
+            String[] pair = option.split("=", 2);
+            if (pair.length != 2)
+                throw new IllegalArgumentException("Invalid server option " + option);
+            switch (pair[0]) {
+                case "latency": latency = Long.parseLong(pair[1]); break;
+                case "jitter": jitter = Long.parseLong(pair[1]); break;
+                case "loss": loss = Double.parseDouble(pair[1]); break;
+                case "maxsize": maxSize = Integer.parseInt(pair[1]); break;
+                default: throw new IllegalArgumentException("Unknown server option " + pair[0]);
+            }
+        }
+
+        void add(Record record) {
+            records.computeIfAbsent(record.owner, k -> new ArrayList<>()).add(record);
+            if (record.type == RecordType.SOA) apexes.add(record.owner);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[DNSServer.MAX_UDP_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (!socket.isClosed()) {
+                try {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+                    queries.incrementAndGet();
+                    if (loss > 0 && random.nextDouble() < loss) {
+                        dropped.incrementAndGet();
+                        continue;
+                    }
+                    ByteBuffer response = respond(Arrays.copyOf(buffer, packet.getLength()));
+                    if (response == null) continue;
+                    long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+                    if (delay == 0) {
+                        socket.send(new DatagramPacket(response.array(), response.limit(), packet.getSocketAddress()));
+                    } else { // the writer is reused by the next query, so the response is copied
+                        DatagramPacket delayed = new DatagramPacket(Arrays.copyOf(response.array(), response.limit()),
+                                response.limit(), packet.getSocketAddress());
+                        scheduler.schedule(() -> send(delayed), delay, TimeUnit.MILLISECONDS);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (socket.isClosed()) return;
+                }
+            }
+        }
+
+        private void send(DatagramPacket packet) {
+            try {
+                socket.send(packet);
+            } catch (IOException e) {
+                // closed meanwhile, or a lost response as far as the client is concerned
+            }
+        }
+
+        /** Builds the response to a query, or returns null to drop a malformed one. */
+        ByteBuffer respond(byte[] query) {
+            if (query.length < HEADER_SIZE + 5) return null;
+            DNSName name = DNSName.fromWire(query, HEADER_SIZE);
+            int typeAt = HEADER_SIZE + DNSName.wireLength(query, HEADER_SIZE);
+            int type = (query[typeAt] & 0xFF) << 8 | (query[typeAt + 1] & 0xFF);
+            int questionEnd = typeAt + 4;
+            int id = (query[0] & 0xFF) << 8 | (query[1] & 0xFF);
+            int flags = DNSMessageWriter.FLAG_QR | (query[2] & 0x01) << 8; // RD copied
+
+            DNSName apex = apexOf(name);
+            if (apex == null) {
+                start(id, flags | DNSMessageWriter.RCODE_REFUSED, query, questionEnd);
+                return writer.toByteBuffer();
+            }
+            DNSName cut = delegation(name, apex);
+            if (cut != null) {
+                start(id, flags, query, questionEnd);
+                List<Record> servers = ofType(cut, RecordType.NS);
+                for (Record ns : servers)
+                    if (!ns.write(writer, DNSMessageWriter.Section.AUTHORITY, ns.owner))
+                        writer.setTruncated();
+                for (Record ns : servers) // glue that does not fit is left out
+                    for (Record glue : records.getOrDefault(ns.target, Collections.emptyList()))
+                        if (glue.address != null)
+                            glue.write(writer, DNSMessageWriter.Section.ADDITIONAL, glue.owner);
+                return writer.toByteBuffer();
+            }
+
+            List<Record> answers = new ArrayList<>();
+            List<DNSName> owners = new ArrayList<>();
+            boolean exists = answer(name, type, answers, owners);
+            start(id, flags | DNSMessageWriter.FLAG_AA | (exists ? 0 : DNSMessageWriter.RCODE_NXDOMAIN), query, questionEnd);
+            for (int i = 0; i < answers.size(); i++) {
+                if (!answers.get(i).write(writer, DNSMessageWriter.Section.ANSWER, owners.get(i))) {
+                    writer.setTruncated();
+                    return writer.toByteBuffer();
+                }
+            }
+            if (!exists || answers.isEmpty()) { // a negative answer, with the SOA record of the zone
+                for (Record soa : ofType(apex, RecordType.SOA))
+                    if (!soa.write(writer, DNSMessageWriter.Section.AUTHORITY, apex))
+                        writer.setTruncated();
+            }
+            return writer.toByteBuffer();
+        }
+
+        private void start(int id, int flags, byte[] query, int questionEnd) {
+            writer.start(id, flags);
+            writer.setLimit(maxSize);
+            writer.copyQuestion(query, HEADER_SIZE, questionEnd - HEADER_SIZE);
+        }
+
+        /** Collects the answer records for a name, following CNAMEs; returns false if the name does not exist. */
+        private boolean answer(DNSName name, int type, List<Record> answers, List<DNSName> owners) {
+            for (int hops = 0; hops <= MAX_CNAMES; hops++) {
+                List<Record> found = recordsOf(name);
+                if (found == null) return hops > 0;
+                boolean alias = false;
+                for (Record record : found) {
+                    if (record.type.getCode() == type) {
+                        answers.add(record);
+                        owners.add(name);
+                    } else if (record.type == RecordType.CNAME && type != RecordType.CNAME.getCode()) {
+                        answers.add(record);
+                        owners.add(name);
+                        name = record.target;
+                        alias = true;
+                        break;
+                    }
+                }
+                DNSName apex = apexOf(name);
+                if (!alias || apex == null || delegation(name, apex) != null) return true; // the client follows the alias
+            }
+            return true;
+        }
+
+        /** Returns the records of a name, or of the closest matching wildcard, or null if it has none. */
+        private List<Record> recordsOf(DNSName name) {
+            List<Record> found = records.get(name);
+            if (found != null || name.isRoot()) return found;
+            for (DNSName ancestor = name.parent(); ; ancestor = ancestor.parent()) {
+                found = records.get(DNSName.of("*." + ancestor));
+                if (found != null || ancestor.isRoot()) return found;
+            }
+        }
+
+        /** Returns the deepest zone of this server a name is in, or null. */
+        private DNSName apexOf(DNSName name) {
+            DNSName best = null;
+            for (DNSName apex : apexes)
+                if (name.isSubdomainOf(apex) && (best == null || apex.labelCount() > best.labelCount()))
+                    best = apex;
+            return best;
+        }
+
+        /** Returns the topmost name with NS records between the apex (excluded) and the name, or null. */
+        private DNSName delegation(DNSName name, DNSName apex) {
+            DNSName cut = null;
+            for (DNSName ancestor = name; !ancestor.equals(apex); ancestor = ancestor.parent())
+                if (!ofType(ancestor, RecordType.NS).isEmpty())
+                    cut = ancestor;
+            return cut;
+        }
+
+        private List<Record> ofType(DNSName name, RecordType type) {
+            List<Record> result = new ArrayList<>();
+            for (Record record : records.getOrDefault(name, Collections.emptyList()))
+                if (record.type == type)
+                    result.add(record);
+            return result;
+        }
+    }
+
+    private final List<Server> servers = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private int port;
+
+    private FakeDNSHierarchy() {
+    }
+
+    /** Returns a ready-made description: {@code basic} (root, TLD and authoritative servers, with
+     * glue), {@code glueless} (the authoritative server is named in another TLD), {@code glueless-v6}
+     * (glueless, the authoritative server having an IPv6 address only), {@code cname-chain}
+     * (aliases across zones and servers, and within a zone), {@code lossy} (basic, with latency and
+     * loss) or {@code truncated} (basic, with an answer too large for 512 bytes).
+     *
+     * @param name Name of the scenario.
+     * @return The description, for {@link #start(String)}.
+     * @throws IllegalArgumentException If there is no such scenario.
+     */
+    public static String scenario(String name) {
+        String description = SCENARIOS.get(name);
+        if (description == null)
+            throw new IllegalArgumentException("Unknown scenario " + name + ", expected one of " + SCENARIOS.keySet());
+        return description;
+    }
+
+    /** Starts the servers of a hierarchy on a port picked by the system.
+     *
+     * @param description The records of each server, as described above.
+     * @return The running hierarchy, to be closed when no longer needed.
+     * @throws IOException If the description cannot be parsed or a server cannot listen.
+     */
+    public static FakeDNSHierarchy start(String description) throws IOException {
+        return start(description, 0);
+    }
+
+    /** Starts the servers of a hierarchy.
+     *
+     * @param description The records of each server, as described above.
+     * @param port        UDP port of every server, or 0 for one picked by the system.
+     * @return The running hierarchy, to be closed when no longer needed.
+     * @throws IOException If the description cannot be parsed or a server cannot listen.
+     */
+    public static FakeDNSHierarchy start(String description, int port) throws IOException {
+        FakeDNSHierarchy hierarchy = new FakeDNSHierarchy();
+        try {
+            hierarchy.parse(description);
+            hierarchy.bind(port);
+        } catch (IOException | RuntimeException e) {
+            hierarchy.close();
+            throw e;
+        }
+        for (Server server : hierarchy.servers) {
+            if (server.latency > 0 || server.jitter > 0) {
+                hierarchy.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "fake-dns-delays");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                break;
+            }
+        }
+        for (Server server : hierarchy.servers)
+            server.start();
+        return hierarchy;
+    }
+
+    private void parse(String description) throws IOException {
+        Server current = null;
+        long seed = 0;
+        StringBuilder data = new StringBuilder();
+        for (String line : (description + "\n$SERVER").split("\n")) {
+            if (line.startsWith("$SEED")) {
+                seed = Long.parseLong(line.substring("$SEED".length()).trim());
+                continue;
+            }
+            if (!line.startsWith("$SERVER")) {
+                data.append(line).append('\n');
+                continue;
+            }
+            if (current != null) {
+                Server server = current;
+                ZoneFileParser.parse(ByteBuffer.wrap(data.toString().getBytes(StandardCharsets.US_ASCII)),
+                        DNSName.ROOT, server.getName(), entry -> {
+                            if (entry.getType() != RecordType.OTHER) server.add(new Record(entry));
+                        });
+            }
+            data.setLength(0);
+            String[] fields = line.substring("$SERVER".length()).trim().split("\\s+");
+            if (!fields[0].isEmpty()) {
+                current = new Server(InetAddress.getByName(fields[0]));
+                for (int i = 1; i < fields.length; i++)
+                    current.configure(fields[i]);
+                servers.add(current);
+            }
+        }
+        if (servers.isEmpty())
+            throw new IOException("No $SERVER in the description");
+        for (int i = 0; i < servers.size(); i++)
+            servers.get(i).random = new Random(seed * 31 + i);
+    }
+
+    /** Binds every server to the same port, picked by the system for the first one if not given. */
+    private void bind(int fixedPort) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                port = fixedPort;
+                for (Server server : servers) {
+                    server.socket = new DatagramSocket(new InetSocketAddress(server.address, port));
+                    port = server.socket.getLocalPort();
+                }
+                return;
+            } catch (BindException e) {
+                closeSockets(); // the port is taken on another address, try another one
+                if (fixedPort != 0 || attempt == 10) throw e;
+            }
+        }
+    }
+
+    /** @return The UDP port of every server. */
+    public int getPort() {
+        return port;
+    }
+
+    /** @return The address of the first server of the description, normally the root. */
+    public InetAddress getRoot() {
+        return servers.get(0).address;
+    }
+
+    /** @return The number of queries received by every server so far. */
+    public long getQueryCount() {
+        long total = 0;
+        for (Server server : servers)
+            total += server.queries.get();
+        return total;
+    }
+
+    /** @return The number of queries dropped by every server so far, as configured by their loss. */
+    public long getDroppedCount() {
+        long total = 0;
+        for (Server server : servers)
+            total += server.dropped.get();
+        return total;
+    }
+
+    /** Points the resolver at this hierarchy: its root server and port. */
+    public void useForResolver() {
+        DNSLookupService.setRootServer(getRoot());
+        DNSLookupService.setUpstreamPort(port);
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+        closeSockets();
+    }
+
+    private void closeSockets() {
+        for (Server server : servers)
+            if (server.socket != null)
+                server.socket.close();
+    }
+
+    /** Runs a hierarchy until interrupted, printing how to point the resolver at it.
+     *
+     * <pre>
+     *   java -cp bin ca.ubc.cs.cs317.dnslookup.FakeDNSHierarchy [-p port] scenario|descriptionFile
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        int port = 0;
+        String source = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-p")) port = Integer.parseInt(args[++i]);
+            else source = args[i];
+        }
+        if (source == null) {
+            System.err.println("Usage: FakeDNSHierarchy [-p port] scenario|descriptionFile");
+            System.err.println("where scenario is one of " + SCENARIOS.keySet());
+            System.exit(1);
+        }
+        String description = SCENARIOS.containsKey(source) ? SCENARIOS.get(source)
+                : new String(Files.readAllBytes(Paths.get(source)), StandardCharsets.US_ASCII);
+        FakeDNSHierarchy hierarchy = start(description, port);
+        System.out.println("Serving " + hierarchy.servers.size() + " name servers on port " + hierarchy.port
+                + ", root " + hierarchy.getRoot().getHostAddress());
+        System.out.println("Resolve with: java -Ddnslookup.upstreamPort=" + hierarchy.port
+                + " -jar DNSLookupService.jar " + hierarchy.getRoot().getHostAddress());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            hierarchy.close();
+            System.out.println(hierarchy.getQueryCount() + " queries, " + hierarchy.getDroppedCount() + " dropped");
+        }));
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
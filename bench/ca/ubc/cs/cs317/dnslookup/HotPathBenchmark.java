@@ -0,0 +1,151 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/** Microbenchmarks of the hot paths of the resolver, run with {@link Microbench}: query encoding,
+ * response parsing, the {@link Bytehelper} conversions, the {@link DNSCache} at several sizes and
+ * thread counts, and whole lookups against a {@link FakeDNSHierarchy} on the loopback interface.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.HotPathBenchmark [-f forks] [-wi count] [-i count] [-r millis] [-l] [regex]
+ * </pre>
+ *
+ * The packets parsed are built once, the same for every run: a referral from the com servers
+ * (13 NS records with A and AAAA glue) and an answer with a CNAME and two addresses.
+ */
+public class HotPathBenchmark {
+
+    private static final int[] CACHE_SIZES = {1000, 100000};
+    private static final int[] THREADS = {1, 4};
+
+    public static void main(String[] args) throws Exception {
+        Microbench bench = new Microbench(HotPathBenchmark.class);
+        byte[] referral = referral();
+        byte[] answer = answer();
+        String hex = Bytehelper.bytesToHex(referral);
+        DNSNode question = new DNSNode("www.example.com", RecordType.A);
+
+        bench.add("query.encode", 1, () -> thread -> () -> new DNSQuery(question).message);
+        bench.add("response.parse.referral", 1, () -> thread -> () -> new DNSResponse(referral));
+        bench.add("response.parse.answer", 1, () -> thread -> () -> new DNSResponse(answer));
+        bench.add("bytehelper.bytesToHex", 1, () -> thread -> () -> Bytehelper.bytesToHex(referral));
+        bench.add("bytehelper.hexStringToByteArray", 1, () -> thread -> () -> Bytehelper.hexStringToByteArray(hex));
+        bench.add("bytehelper.readBytes", 1, () -> thread -> () -> Bytehelper.readBytes(12, 64, referral));
+
+        for (int size : CACHE_SIZES) {
+            for (int threads : THREADS) {
+                bench.add("cache.get size=" + size, threads, () -> cacheFixture(size, false));
+                bench.add("cache.add size=" + size, threads, () -> cacheFixture(size, true));
+            }
+            bench.add("cache.forEachRecord size=" + size, 1, () -> {
+                DNSCache cache = filledCache(size);
+                return thread -> () -> {
+                    int[] count = new int[1];
+                    cache.forEachRecord((node, record) -> count[0]++);
+                    return count;
+                };
+            });
+        }
+
+        bench.add("resolve.cold", 1, () -> resolveFixture(true, false));
+        bench.add("resolve.warm", 1, () -> resolveFixture(false, false));
+        bench.add("resolve.cached", 1, () -> resolveFixture(false, true));
+        bench.run(args);
+    }
+
+    private static ResourceRecord record(int i) {
+        return new ResourceRecord("host" + i + ".bench.test", RecordType.A, 86400,
+                new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+    }
+
+    private static DNSCache filledCache(int size) {
+        DNSCache cache = new DNSCache();
+        for (int i = 0; i < size; i++)
+            cache.addResult(record(i));
+        return cache;
+    }
+
+    /** Looks up (or adds again) the records of a filled cache, each thread in its own order. */
+    private static Microbench.Fixture cacheFixture(int size, boolean add) {
+        DNSCache cache = filledCache(size);
+        ResourceRecord[] records = new ResourceRecord[size];
+        for (int i = 0; i < size; i++)
+            records[i] = record(i);
+        return thread -> {
+            int[] next = {thread * 7919 % size};
+            return () -> {
+                int i = next[0];
+                next[0] = i + 1 == size ? 0 : i + 1;
+                if (add) {
+                    cache.addResult(records[i]);
+                    return records[i];
+                }
+                return cache.getCachedResults(records[i].getNode());
+            };
+        };
+    }
+
+    /** Whole lookups through the fake hierarchy: from the root with an empty cache (cold), for a
+     * new name of a zone whose servers are cached (warm), or for a cached name.
+     */
+    private static Microbench.Fixture resolveFixture(boolean cold, boolean cached) throws Exception {
+        FakeDNSHierarchy hierarchy = FakeDNSHierarchy.start(FakeDNSHierarchy.scenario("basic"));
+        hierarchy.useForResolver();
+        DNSLookupService.setServing(true);
+        InetAddress root = hierarchy.getRoot();
+        DNSLookupService.lookup("www.example.test", RecordType.A, root);
+        return new Microbench.Fixture() {
+            int next;
+
+            @Override
+            public Microbench.Operation newThread(int index) {
+                return () -> {
+                    if (cached)
+                        return DNSLookupService.lookup("www.example.test", RecordType.A, root);
+                    if (cold)
+                        DNSCache.getInstance().invalidateSubtree(DNSName.ROOT);
+                    return DNSLookupService.lookup("host" + next++ + ".example.test", RecordType.A, root);
+                };
+            }
+
+            @Override
+            public void close() {
+                hierarchy.close();
+            }
+        };
+    }
+
+    /** A referral to the com servers, as returned by a root server. */
+    static byte[] referral() {
+        DNSMessageWriter writer = new DNSMessageWriter(1024).start(0x1234, DNSMessageWriter.FLAG_QR);
+        writer.writeQuestion(DNSName.of("www.example.com"), RecordType.A.getCode());
+        DNSName com = DNSName.of("com");
+        for (char c = 'a'; c <= 'm'; c++)
+            writer.writeNameRecord(DNSMessageWriter.Section.AUTHORITY, com, RecordType.NS, 172800,
+                    DNSName.of(c + ".gtld-servers.net"));
+        for (char c = 'a'; c <= 'm'; c++) {
+            DNSName server = DNSName.of(c + ".gtld-servers.net");
+            writer.writeAddress(DNSMessageWriter.Section.ADDITIONAL, server, 172800, new byte[]{(byte) 192, 5, 6, (byte) c});
+            byte[] v6 = new byte[16];
+            v6[0] = 0x20;
+            v6[1] = 0x01;
+            v6[15] = (byte) c;
+            writer.writeAddress(DNSMessageWriter.Section.ADDITIONAL, server, 172800, v6);
+        }
+        return Arrays.copyOf(writer.array(), writer.length());
+    }
+
+    /** An authoritative answer with a CNAME and the addresses of its target. */
+    static byte[] answer() {
+        DNSMessageWriter writer = new DNSMessageWriter(1024)
+                .start(0x1234, DNSMessageWriter.FLAG_QR | DNSMessageWriter.FLAG_AA);
+        DNSName name = DNSName.of("www.example.com");
+        DNSName target = DNSName.of("www.example.com-v4.edgesuite.net");
+        writer.writeQuestion(name, RecordType.A.getCode());
+        writer.writeNameRecord(DNSMessageWriter.Section.ANSWER, name, RecordType.CNAME, 300, target);
+        writer.writeAddress(DNSMessageWriter.Section.ANSWER, target, 20, new byte[]{93, (byte) 184, (byte) 216, 34});
+        writer.writeAddress(DNSMessageWriter.Section.ANSWER, target, 20, new byte[]{93, (byte) 184, (byte) 216, 35});
+        return Arrays.copyOf(writer.array(), writer.length());
+    }
+}
@@ -0,0 +1,270 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+/** A small microbenchmark harness in the manner of JMH, for suites of benchmarks of the hot paths
+ * of the resolver. Each benchmark runs in a fresh JVM (a fork) by default, so that the code
+ * profile of one benchmark does not leak into the next. In the fork, the benchmark runs for a
+ * number of warm-up iterations, whose results are dropped, then for a number of measured
+ * iterations of a fixed duration each, on the given number of threads. The score is the average
+ * time per operation over the measured iterations of every fork, with its 99.9% confidence interval.
+ *
+ * <p>An operation returns a value, which is kept in a field of its thread so that the JIT compiler
+ * cannot remove the computation. Shared state is built by a {@link Fixture} once per benchmark,
+ * outside the measurement, and each thread gets its own {@link Operation} from it.</p>
+ *
+ * <p>Options given to the suite's main method:</p>
+ * <pre>
+ *   -f forks       JVMs each benchmark runs in (1; 0 runs in the current JVM)
+ *   -wi count      warm-up iterations (5)
+ *   -i count       measured iterations (5)
+ *   -r millis      duration of an iteration (1000)
+ *   -l             list the benchmarks and exit
+ *   regex          only run the benchmarks whose name matches
+ * </pre>
+ */
+public final class Microbench {
+
+    /** One operation of a benchmark, run repeatedly by one thread. */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    /** The state of a benchmark, shared by its threads. */
+    public interface Fixture extends AutoCloseable {
+        /** Creates the operation run by one thread, with any state of its own. */
+        Operation newThread(int index) throws Exception;
+
+        @Override
+        default void close() {
+        }
+    }
+
+    private static final String SAMPLES = "@samples";
+    // 99.95% quantiles of Student's t distribution for 1 to 30 degrees of freedom, for a two-sided 99.9% interval
+    private static final double[] T_999 = {636.62, 31.60, 12.92, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+            3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+    private static final double Z_999 = 3.291;
+
+    private static final class Benchmark {
+        final String name;
+        final int threads;
+        final Callable<Fixture> fixture;
+
+        Benchmark(String name, int threads, Callable<Fixture> fixture) {
+            this.name = name;
+            this.threads = threads;
+            this.fixture = fixture;
+        }
+    }
+
+    private final Class<?> suite;
+    private final List<Benchmark> benchmarks = new ArrayList<>();
+    private int forks = 1;
+    private int warmups = 5;
+    private int iterations = 5;
+    private long millis = 1000;
+
+    /** Creates a harness for a suite.
+     *
+     * @param suite The class whose main method runs the suite, started again in each fork.
+     */
+    public Microbench(Class<?> suite) {
+        this.suite = suite;
+    }
+
+    /** Adds a benchmark to the suite.
+     *
+     * @param name    Name of the benchmark; variants differing only in threads may share it.
+     * @param threads Number of threads running the operation concurrently.
+     * @param fixture Builds the state of the benchmark when it runs.
+     * @return This harness.
+     */
+    public Microbench add(String name, int threads, Callable<Fixture> fixture) {
+        benchmarks.add(new Benchmark(name, threads, fixture));
+        return this;
+    }
+
+    /** Runs the benchmarks selected by the command line arguments and prints their scores.
+     *
+     * @param args The arguments of the suite's main method.
+     * @throws Exception If a benchmark or a fork fails.
+     */
+    public void run(String[] args) throws Exception {
+        Pattern filter = null;
+        int only = -1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f": forks = Integer.parseInt(args[++i]); break;
+                case "-wi": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-r": millis = Long.parseLong(args[++i]); break;
+                case "-run": only = Integer.parseInt(args[++i]); break;
+                case "-l":
+                    for (Benchmark benchmark : benchmarks)
+                        System.out.println(benchmark.name + " (" + benchmark.threads + " threads)");
+                    return;
+                default: filter = Pattern.compile(args[i]);
+            }
+        }
+        if (only >= 0) { // in a fork: run one benchmark and hand its samples to the parent
+            double[] samples = measure(benchmarks.get(only));
+            StringBuilder line = new StringBuilder(SAMPLES);
+            for (double sample : samples)
+                line.append(' ').append(sample);
+            System.out.println(line);
+            return;
+        }
+
+        System.out.println("# JVM: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                + ", " + Runtime.getRuntime().availableProcessors() + " cores, options "
+                + ManagementFactory.getRuntimeMXBean().getInputArguments());
+        System.out.println("# Warm-up: " + warmups + " x " + millis + " ms, measurement: " + iterations + " x " + millis
+                + " ms, forks: " + forks);
+        System.out.printf("%-44s %7s %5s %12s %10s  %s%n", "Benchmark", "Threads", "Cnt", "Score", "Error", "Units");
+        for (Benchmark benchmark : benchmarks) {
+            if (filter != null && !filter.matcher(benchmark.name).find()) continue;
+            double[] samples;
+            if (forks == 0) {
+                samples = measure(benchmark);
+            } else {
+                samples = new double[0];
+                for (int f = 0; f < forks; f++) {
+                    double[] forked = fork(benchmark);
+                    samples = Arrays.copyOf(samples, samples.length + forked.length);
+                    System.arraycopy(forked, 0, samples, samples.length - forked.length, forked.length);
+                }
+            }
+            print(benchmark, samples);
+        }
+    }
+
+    /** Runs a benchmark in a new JVM with the same class path and JVM options as this one. */
+    private double[] fork(Benchmark benchmark) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), suite.getName(),
+                "-run", Integer.toString(benchmarks.indexOf(benchmark)), "-wi", Integer.toString(warmups), "-i", Integer.toString(iterations),
+                "-r", Long.toString(millis)));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        double[] samples = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SAMPLES)) {
+                    String[] fields = line.substring(SAMPLES.length()).trim().split(" ");
+                    samples = new double[fields.length];
+                    for (int i = 0; i < fields.length; i++)
+                        samples[i] = Double.parseDouble(fields[i]);
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        if (process.waitFor() != 0 || samples == null)
+            throw new IllegalStateException("Fork of " + benchmark.name + " failed");
+        return samples;
+    }
+
+    /** Runs the warm-up and measured iterations of a benchmark in this JVM.
+     *
+     * @return The average time per operation of each measured iteration, in nanoseconds.
+     */
+    private double[] measure(Benchmark benchmark) throws Exception {
+        double[] samples = new double[iterations];
+        try (Fixture fixture = benchmark.fixture.call()) {
+            Operation[] operations = new Operation[benchmark.threads];
+            for (int i = 0; i < operations.length; i++)
+                operations[i] = fixture.newThread(i);
+            for (int i = 0; i < warmups + iterations; i++) {
+                double score = iteration(operations);
+                if (i >= warmups) samples[i - warmups] = score;
+            }
+        }
+        return samples;
+    }
+
+    /** Runs the operations on their threads for one iteration and returns the average time per operation. */
+    private double iteration(Operation[] operations) throws Exception {
+        Worker[] workers = new Worker[operations.length];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(operations[i], start);
+            workers[i].start();
+        }
+        start.countDown();
+        Thread.sleep(millis);
+        for (Worker worker : workers)
+            worker.running = false;
+        long nanos = 0;
+        long count = 0;
+        for (Worker worker : workers) {
+            worker.join();
+            if (worker.failure != null) throw worker.failure;
+            nanos += worker.nanos;
+            count += worker.count;
+        }
+        return count == 0 ? Double.NaN : (double) nanos / count;
+    }
+
+    private static final class Worker extends Thread {
+        private final Operation operation;
+        private final CountDownLatch start;
+        volatile boolean running = true;
+        Object sink; // last result, so that computing it cannot be optimized away
+        long count;
+        long nanos;
+        Exception failure;
+
+        Worker(Operation operation, CountDownLatch start) {
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                long begin = System.nanoTime();
+                long n = 0;
+                do {
+                    sink = operation.run();
+                    n++;
+                } while (running);
+                nanos = System.nanoTime() - begin;
+                count = n;
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static void print(Benchmark benchmark, double[] samples) {
+        int n = samples.length;
+        double mean = 0;
+        for (double sample : samples)
+            mean += sample;
+        mean /= n;
+        double error = Double.NaN;
+        if (n > 1) {
+            double variance = 0;
+            for (double sample : samples)
+                variance += (sample - mean) * (sample - mean);
+            double t = n - 1 <= T_999.length ? T_999[n - 2] : Z_999;
+            error = t * Math.sqrt(variance / (n - 1) / n);
+        }
+        System.out.printf("%-44s %7d %5d %12.3f %10s  ns/op%n", benchmark.name, benchmark.threads, n, mean,
+                Double.isNaN(error) ? "" : String.format("+- %.3f", error));
+    }
+}
@@ -0,0 +1,57 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+
+/** Compares the heap footprint and garbage collection time of the on-heap {@link DNSCache} and
+ * the {@link OffHeapDNSCache} once each holds the same number of records.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.OffHeapCacheBenchmark [heap|offheap] [records]
+ * </pre>
+ *
+ * Run each backend in its own JVM so the numbers are not mixed up.
+ */
+public class OffHeapCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean offHeap = args.length > 0 && args[0].equalsIgnoreCase("offheap");
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        DNSRecordCache cache = offHeap ? new OffHeapDNSCache() : DNSCache.getInstance();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            byte[] address = {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+            cache.addResult(new ResourceRecord("host" + i + ".example.com", RecordType.A, 3600,
+                    InetAddress.getByAddress(address)));
+        }
+        long fill = System.nanoTime() - start;
+
+        // Full collections over the populated cache show the cost the live set imposes on the GC.
+        long gcBefore = totalGcMillis();
+        for (int i = 0; i < 5; i++)
+            System.gc();
+        long gc = totalGcMillis() - gcBefore;
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+
+        start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < records; i += 7)
+            if (!cache.getCachedResults(new DNSNode("host" + i + ".example.com", RecordType.A)).isEmpty())
+                hits++;
+        long lookups = System.nanoTime() - start;
+
+        System.out.printf("%s: %d records, fill %.1f ms, heap used %.1f MB, 5 full GCs %d ms, %d lookups %.1f ns/op%n",
+                offHeap ? "offheap" : "heap", records, fill / 1e6, heap / 1048576.0, gc, hits,
+                (double) lookups / Math.max(1, hits));
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, bean.getCollectionTime());
+        return total;
+    }
+}
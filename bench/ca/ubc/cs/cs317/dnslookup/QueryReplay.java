@@ -0,0 +1,244 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/** Load generator replaying a query log through the resolver ({@link DNSLookupService#answer}, as
+ * used by the server mode), against a {@link FakeDNSHierarchy} scenario or a real root server.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.QueryReplay [options] logFile|-synthetic names:lookups
+ *     -scenario name    run against a fake hierarchy scenario (basic by default)
+ *     -root address     run against this root server instead, queried on -port (53)
+ *     -closed threads   closed loop: each thread sends its next lookup once the last one is done (8)
+ *     -rate perSecond   open loop: start lookups at this rate, whether or not earlier ones are done
+ *     -rate log         open loop: start lookups at the times of the log, sped up by -speed (1)
+ *     -threads count    threads running the lookups of an open loop (256)
+ *     -duration seconds replay the log again and again for this long, instead of once
+ * </pre>
+ *
+ * Each line of the log is a lookup: {@code name [type [time]]} or {@code time name [type]},
+ * separated by spaces or commas, with the type A by default and the time in seconds. Lines
+ * starting with {@code #} are skipped. A synthetic log looks up names of example.test, picked with
+ * a Zipf distribution so that popular names are cache hits, as in real traffic.
+ *
+ * <p>Open loop latencies are measured from the time a lookup should have started, so a resolver
+ * falling behind shows in the percentiles instead of slowing the load down (coordinated omission).
+ * The report gives the throughput, the latency percentiles, the hit rate of the answer cache and
+ * the number of queries sent upstream per lookup, from {@link ResolverMetrics}.</p>
+ */
+public class QueryReplay {
+
+    private static DNSNode[] nodes;
+    private static double[] times; // seconds, NaN when the log has none
+    private static final Histogram latency = new Histogram();
+    private static final LongAdder failed = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        String scenario = "basic";
+        InetAddress root = null;
+        int port = 53;
+        int closed = 8;
+        String rate = null;
+        double speed = 1;
+        int threads = 256;
+        double duration = 0;
+        String source = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-scenario": scenario = args[++i]; break;
+                case "-root": root = InetAddress.getByName(args[++i]); break;
+                case "-port": port = Integer.parseInt(args[++i]); break;
+                case "-closed": closed = Integer.parseInt(args[++i]); break;
+                case "-rate": rate = args[++i]; break;
+                case "-speed": speed = Double.parseDouble(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-duration": duration = Double.parseDouble(args[++i]); break;
+                case "-synthetic": source = "synthetic:" + args[++i]; break;
+                default: source = args[i];
+            }
+        }
+        if (source == null) {
+            System.err.println("Usage: QueryReplay [-scenario name | -root address [-port n]] [-closed threads | -rate perSecond|log"
+                    + " [-speed x] [-threads n]] [-duration seconds] logFile|-synthetic names:lookups");
+            System.exit(1);
+        }
+        if (source.startsWith("synthetic:")) {
+            String[] counts = source.substring("synthetic:".length()).split(":");
+            synthesize(Integer.parseInt(counts[0]), Integer.parseInt(counts[1]));
+        } else {
+            read(source);
+        }
+
+        FakeDNSHierarchy hierarchy = null;
+        if (root == null) {
+            hierarchy = FakeDNSHierarchy.start(FakeDNSHierarchy.scenario(scenario));
+            hierarchy.useForResolver();
+        } else {
+            DNSLookupService.setRootServer(root);
+            DNSLookupService.setUpstreamPort(port);
+        }
+        DNSLookupService.setServing(true);
+
+        HashSet<DNSNode> names = new HashSet<>();
+        for (DNSNode node : nodes)
+            names.add(node);
+        String mode = rate == null ? "closed loop, " + closed + " threads"
+                : "open loop at " + (rate.equals("log") ? "the log times x" + speed : rate + " lookups/s")
+                + ", " + threads + " threads";
+        System.out.printf("Replaying %d lookups of %d names (%s) against %s%n", nodes.length, names.size(), mode,
+                root == null ? "scenario " + scenario : root.getHostAddress() + ":" + port);
+
+        ResolverMetrics metrics = ResolverMetrics.getInstance();
+        long lookupsBefore = metrics.getLookups();
+        long queriesBefore = metrics.getQueriesSent();
+        long timeoutsBefore = metrics.getTimeouts();
+        long hitsBefore = metrics.getCacheHits(ResolverMetrics.CacheStage.ANSWER);
+        long missesBefore = metrics.getCacheMisses(ResolverMetrics.CacheStage.ANSWER);
+        long limit = duration > 0 ? Long.MAX_VALUE : nodes.length;
+        long deadline = duration > 0 ? System.nanoTime() + (long) (duration * 1e9) : Long.MAX_VALUE;
+
+        long start = System.nanoTime();
+        if (rate == null) {
+            closedLoop(closed, limit, deadline);
+        } else if (rate.equals("log")) {
+            if (Double.isNaN(times[0]))
+                throw new IllegalArgumentException("-rate log needs a log with times");
+            double factor = speed;
+            openLoop(threads, limit, deadline, i -> (long) ((time(i) - times[0]) / factor * 1e9));
+        } else {
+            double perSecond = Double.parseDouble(rate);
+            openLoop(threads, limit, deadline, i -> (long) (i / perSecond * 1e9));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long lookups = metrics.getLookups() - lookupsBefore;
+        long hits = metrics.getCacheHits(ResolverMetrics.CacheStage.ANSWER) - hitsBefore;
+        long misses = metrics.getCacheMisses(ResolverMetrics.CacheStage.ANSWER) - missesBefore;
+        System.out.printf("%d lookups in %.2f s: %.0f lookups/s, %d failed%n", latency.getCount(), seconds,
+                latency.getCount() / seconds, failed.sum());
+        System.out.println("latency (ms): " + latency.summary(1e6));
+        System.out.printf("answer cache hit rate: %.1f%%%n", hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses));
+        System.out.printf("upstream queries per lookup: %.3f (%d timeouts)%n",
+                lookups == 0 ? 0 : (double) (metrics.getQueriesSent() - queriesBefore) / lookups,
+                metrics.getTimeouts() - timeoutsBefore);
+        if (hierarchy != null) {
+            System.out.println("queries received by the fake hierarchy: " + hierarchy.getQueryCount()
+                    + " (" + hierarchy.getDroppedCount() + " dropped)");
+            hierarchy.close();
+        }
+    }
+
+    /** The time of a lookup of the replay, the log repeating itself shifted by its own length. */
+    private static double time(long index) {
+        int n = nodes.length;
+        double span = times[n - 1] - times[0] + (n > 1 ? (times[n - 1] - times[0]) / (n - 1) : 1);
+        return times[(int) (index % n)] + index / n * span;
+    }
+
+    private interface Schedule {
+        long offsetNanos(long index);
+    }
+
+    private static void closedLoop(int threads, long limit, long deadline) throws InterruptedException {
+        AtomicLong next = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                long i;
+                while ((i = next.getAndIncrement()) < limit && System.nanoTime() < deadline)
+                    lookup(i, System.nanoTime());
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+    }
+
+    private static void openLoop(int threads, long limit, long deadline, Schedule schedule) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (long i = 0; i < limit; i++) {
+            long due = start + schedule.offsetNanos(i);
+            if (due >= deadline) break;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+            long index = i;
+            pool.execute(() -> lookup(index, due));
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static void lookup(long index, long due) {
+        if (DNSLookupService.answer(nodes[(int) (index % nodes.length)]) == null)
+            failed.increment();
+        latency.record(System.nanoTime() - due);
+    }
+
+    private static void read(String file) throws IOException {
+        List<DNSNode> read = new ArrayList<>();
+        List<Double> readTimes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("[\\s,]+");
+                double time = Double.NaN;
+                int at = 0;
+                if (Character.isDigit(fields[0].charAt(0)) && fields[0].matches("[0-9.]+") && fields.length > 1)
+                    time = Double.parseDouble(fields[at++]); // time name [type]
+                String name = fields[at++];
+                RecordType type = at < fields.length ? RecordType.valueOf(fields[at++].toUpperCase()) : RecordType.A;
+                if (at < fields.length && Double.isNaN(time))
+                    time = Double.parseDouble(fields[at]); // name type time
+                read.add(new DNSNode(name, type));
+                readTimes.add(time);
+            }
+        }
+        if (read.isEmpty())
+            throw new IOException("No lookups in " + file);
+        nodes = read.toArray(new DNSNode[0]);
+        times = new double[nodes.length];
+        for (int i = 0; i < times.length; i++)
+            times[i] = readTimes.get(i);
+    }
+
+    /** Builds a log of lookups of names picked with a Zipf distribution (exponent 1), without times. */
+    private static void synthesize(int names, int lookups) {
+        double[] cumulative = new double[names];
+        double sum = 0;
+        for (int i = 0; i < names; i++)
+            cumulative[i] = sum += 1.0 / (i + 1);
+        Random random = new Random(0);
+        nodes = new DNSNode[lookups];
+        times = new double[lookups];
+        for (int i = 0; i < lookups; i++) {
+            double pick = random.nextDouble() * sum;
+            int low = 0;
+            int high = names - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < pick) low = middle + 1;
+                else high = middle;
+            }
+            nodes[i] = new DNSNode("host" + low + ".example.test", RecordType.A);
+            times[i] = Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+
+/** Measures the heap footprint of a {@link ResourceRecord} and the cost of checking whether it
+ * is still valid.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.RecordFootprintBenchmark [records]
+ * </pre>
+ *
+ * The footprint is the growth of the used heap, after full collections, while holding the given
+ * number of A records (host names are shared, so only the record itself and what it references
+ * are counted).
+ */
+public class RecordFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String hostName = "www.example.com";
+        InetAddress[] addresses = new InetAddress[256];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i});
+
+        long before = usedHeap();
+        ResourceRecord[] records = new ResourceRecord[count];
+        long arrayBytes = usedHeap() - before;
+        for (int i = 0; i < count; i++)
+            records[i] = new ResourceRecord(hostName, RecordType.A, 3600,
+                    InetAddress.getByAddress(addresses[i & 0xFF].getAddress()));
+        long after = usedHeap();
+        System.out.printf("footprint: %.1f bytes/record over %d records%n",
+                (double) (after - before - arrayBytes) / count, count);
+
+        int iterations = 50000000;
+        int valid = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            if (records[i % count].isStillValid())
+                valid++;
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("isStillValid: %.2f ns/op (%d valid)%n", (double) elapsed / iterations, valid);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
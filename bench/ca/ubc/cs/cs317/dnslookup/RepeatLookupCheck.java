@@ -0,0 +1,62 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Checks that a question asked twice gets the same answer both times, against the
+ * {@code cname-chain} scenario of {@link FakeDNSHierarchy}: the first answer is resolved through
+ * the network, the second one comes from the cache and the {@link CNAMEChainCache}, and both must
+ * hold the same CNAME and address records, in the same order, with the second one sending no
+ * query upstream. The process exits with status 1 if any question fails the check.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.RepeatLookupCheck
+ * </pre>
+ *
+ * Answers are built by {@link DNSLookupService#answer(DNSNode)}, as for a client of the server
+ * mode; records are compared by owner, type and data, not TTL.
+ */
+public class RepeatLookupCheck {
+
+    private static final String[] QUESTIONS = {
+            "www.example.test", // CNAME records across three servers
+            "a.example.test", // CNAME records within one zone
+            "c.example.test", // no CNAME record
+    };
+
+    public static void main(String[] args) throws Exception {
+        boolean failed = false;
+        try (FakeDNSHierarchy hierarchy = FakeDNSHierarchy.start(FakeDNSHierarchy.scenario("cname-chain"))) {
+            hierarchy.useForResolver();
+            DNSLookupService.setServing(true);
+            System.out.printf("%-20s %-8s %-8s %8s  %s%n", "Question", "First", "Second", "Queries", "Result");
+            for (String question : QUESTIONS) {
+                DNSNode node = new DNSNode(question, RecordType.A);
+                List<ResourceRecord> first = records(DNSLookupService.answer(node));
+                long queries = hierarchy.getQueryCount();
+                List<ResourceRecord> second = records(DNSLookupService.answer(node));
+                queries = hierarchy.getQueryCount() - queries;
+                boolean ok = !first.isEmpty() && first.equals(second) && queries == 0;
+                failed |= !ok;
+                System.out.printf("%-20s %-8d %-8d %8d  %s%n", question, first.size(), second.size(), queries,
+                        ok ? "ok" : "FAILED");
+                if (!ok) {
+                    System.out.println("  first:  " + describe(first));
+                    System.out.println("  second: " + describe(second));
+                }
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static List<ResourceRecord> records(DNSServer.Result result) {
+        return result != null ? result.getRecords() : new ArrayList<>();
+    }
+
+    private static String describe(List<ResourceRecord> records) {
+        List<String> described = new ArrayList<>();
+        for (ResourceRecord record : records)
+            described.add(record.getHostName() + " " + record.getType() + " " + record.getTextResult());
+        return described.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+
+/** Benchmark for {@link RootZoneMirror}: the cost of loading a root zone file and of answering a
+ * root referral locally, and, given a root server and host names, the time of cold iterative
+ * lookups once through the root server and once starting at the TLD servers from the mirror.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.RootMirrorBenchmark rootZoneFile [rootServer hostName...]
+ * </pre>
+ *
+ * The difference between the two cold lookups of a name is the root round trip saved.
+ */
+public class RootMirrorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RootMirrorBenchmark rootZoneFile [rootServer hostName...]");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        RootZoneMirror mirror = RootZoneMirror.load(file);
+        long load = System.nanoTime() - start;
+        long footprint = usedHeap() - before;
+        System.out.printf("load: %.1f ms, %d TLDs, %d server addresses, %d KB retained%n",
+                load / 1e6, mirror.getZoneCount(), mirror.getServerCount(), footprint / 1024);
+
+        String[] probes = {"www.example.com", "www.ubc.ca", "en.wikipedia.org", "www.bbc.co.uk", "no-such-tld.invalid"};
+        int iterations = 5000000;
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            if (mirror.findReferral(probes[i % probes.length]) != null)
+                found++;
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("referral: %.1f ns per lookup (%d found)%n", (double) elapsed / iterations, found);
+
+        if (args.length < 3) return;
+        InetAddress root = InetAddress.getByName(args[1]);
+        for (int i = 2; i < args.length; i++) {
+            double withRoot = coldLookup(args[i], root, null);
+            double withMirror = coldLookup(args[i], root, mirror);
+            System.out.printf("%s: %.3f ms through the root server, %.3f ms with the mirror%n",
+                    args[i], withRoot, withMirror);
+        }
+    }
+
+    private static double coldLookup(String hostName, InetAddress root, RootZoneMirror mirror) {
+        DNSCache.getInstance().clear();
+        CNAMEChainCache.getInstance().clear();
+        DNSLookupService.setRootMirror(mirror);
+        long start = System.nanoTime();
+        Set<ResourceRecord> results = DNSLookupService.lookup(hostName, RecordType.A, root);
+        long elapsed = System.nanoTime() - start;
+        if (results.isEmpty())
+            System.err.println("Lookup of " + hostName + " returned no results.");
+        return elapsed / 1e6;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,121 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Load test of the resolver running as a {@link DNSServer}. A stand-in authoritative server on
+ * the loopback interface answers every A query with an address; the resolver uses it as its root
+ * server. Client threads then send queries for a fixed set of names as fast as they get answers
+ * (closed loop) for the given time, so the first query for each name goes through an iterative
+ * resolution and the others are cache hits.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.ServerLoadBenchmark [clients] [seconds] [names] [workers]
+ * </pre>
+ */
+public class ServerLoadBenchmark {
+
+    private static final int CLIENT_TIMEOUT = 2000; // ms a client waits for a response before counting it lost
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int names = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        AtomicInteger upstreamQueries = new AtomicInteger();
+        DNSServer standIn = new DNSServer(new InetSocketAddress(loopback, 0), 4, question -> {
+            upstreamQueries.incrementAndGet();
+            int hash = question.getName().hashCode();
+            return DNSServer.Result.of(Collections.singletonList(new ResourceRecord(question.getHostName(), RecordType.A,
+                    3600, new byte[]{10, (byte) (hash >> 16), (byte) (hash >> 8), (byte) hash})));
+        });
+        DNSLookupService.setRootServer(loopback);
+        DNSLookupService.setUpstreamPort(standIn.getPort());
+        DNSLookupService.setServing(true);
+        DNSServer server = new DNSServer(new InetSocketAddress(loopback, 0), workers, DNSLookupService::answer);
+
+        byte[][] queries = new byte[names][];
+        for (int i = 0; i < names; i++)
+            queries[i] = new DNSQuery(new DNSNode("host" + i + ".load.test", RecordType.A)).message;
+
+        long[][] latencies = new long[clients][];
+        int[] lost = new int[clients];
+        Thread[] threads = new Thread[clients];
+        long end = System.nanoTime() + seconds * 1000000000L;
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> latencies[client] = runClient(server.getPort(), queries, end, lost, client));
+            threads[c].start();
+        }
+        int count = 0;
+        for (int c = 0; c < clients; c++) {
+            threads[c].join();
+            count += latencies[c].length;
+        }
+        long[] all = new long[count];
+        int at = 0;
+        int totalLost = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, at, latencies[c].length);
+            at += latencies[c].length;
+            totalLost += lost[c];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("%d clients, %d workers, %d names: %.0f queries/s, %d lost%n",
+                clients, workers, names, count / (double) seconds, totalLost);
+        if (count > 0)
+            System.out.printf("latency: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f ms%n",
+                    percentile(all, 0.5) / 1e3, percentile(all, 0.99) / 1e3, percentile(all, 0.999) / 1e3,
+                    all[count - 1] / 1e6);
+        System.out.println("upstream queries: " + upstreamQueries.get());
+        System.out.println("server: " + server);
+        server.close();
+        standIn.close();
+    }
+
+    /** Sends queries for random names one after the other until the end time, returning the latency of each. */
+    private static long[] runClient(int port, byte[][] queries, long end, int[] lost, int client) {
+        long[] latencies = new long[1 << 16];
+        int count = 0;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(CLIENT_TIMEOUT);
+            InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            byte[] buffer = new byte[DNSServer.MAX_UDP_SIZE];
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            while (System.nanoTime() < end) {
+                byte[] query = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+                long start = System.nanoTime();
+                socket.send(new DatagramPacket(query, query.length, server));
+                try {
+                    do {
+                        response.setLength(buffer.length);
+                        socket.receive(response);
+                    } while (buffer[0] != query[0] || buffer[1] != query[1]); // skip late responses to lost queries
+                } catch (SocketTimeoutException e) {
+                    lost[client]++;
+                    continue;
+                }
+                if (count == latencies.length)
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                latencies[count++] = System.nanoTime() - start;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+}
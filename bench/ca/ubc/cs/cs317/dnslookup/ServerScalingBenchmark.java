@@ -0,0 +1,88 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Throughput of {@link DNSServer} as the number of listeners grows: for 1, 2, 4... up to the
+ * given number of listeners, client threads keep a window of queries in flight for a fixed set of
+ * names, and the queries answered per second are reported. Answers come from a resolver that
+ * returns a fixed address at once, so after the first query for each name the server path itself
+ * (receive, listener cache, encode, send) is measured.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.ServerScalingBenchmark [maxListeners] [clients] [seconds] [names]
+ * </pre>
+ *
+ * The clients run on the same machine, so the results only scale while there are cores to spare.
+ */
+public class ServerScalingBenchmark {
+
+    private static final int WINDOW = 8; // queries each client keeps in flight
+
+    public static void main(String[] args) throws Exception {
+        int maxListeners = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int names = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        System.out.println(Runtime.getRuntime().availableProcessors() + " cores, " + clients + " clients, "
+                + names + " names");
+
+        byte[][] queries = new byte[names][];
+        for (int i = 0; i < names; i++)
+            queries[i] = new DNSQuery(new DNSNode("host" + i + ".scale.test", RecordType.A)).message;
+
+        for (int listeners = 1; ; listeners = Math.min(listeners * 2, maxListeners)) {
+            DNSServer server = new DNSServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), listeners, 4,
+                    question -> DNSServer.Result.of(Collections.singletonList(
+                            new ResourceRecord(question.getHostName(), RecordType.A, 3600, new byte[]{10, 0, 0, 1}))));
+            run(server, queries, clients, 1); // warm-up, fills the listener caches
+            double rate = run(server, queries, clients, seconds) / seconds;
+            System.out.printf("%d listeners%s: %.0f queries/s (%s)%n", listeners,
+                    server.isReusePort() ? " (SO_REUSEPORT)" : "", rate, server);
+            server.close();
+            if (listeners == maxListeners) break;
+        }
+    }
+
+    /** Runs the clients against a server for some time and returns the number of answers received. */
+    private static long run(DNSServer server, byte[][] queries, int clients, int seconds) throws InterruptedException {
+        LongAdder answers = new LongAdder();
+        long end = System.nanoTime() + seconds * 1000000000L;
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                try (DatagramSocket socket = new DatagramSocket()) {
+                    socket.setSoTimeout(500);
+                    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+                    byte[] buffer = new byte[DNSServer.MAX_UDP_SIZE];
+                    DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                    while (System.nanoTime() < end) {
+                        for (int i = 0; i < WINDOW; i++) {
+                            byte[] query = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+                            socket.send(new DatagramPacket(query, query.length, address));
+                        }
+                        for (int i = 0; i < WINDOW; i++) {
+                            response.setLength(buffer.length);
+                            socket.receive(response);
+                            answers.increment();
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    // a response was lost, stop this client
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        return answers.sum();
+    }
+}
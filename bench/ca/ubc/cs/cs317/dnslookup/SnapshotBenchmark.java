@@ -0,0 +1,71 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/** Startup benchmark for {@link DNSCacheSnapshot}: measures the time until the first cache hit
+ * for a host name, once starting from an empty cache (which needs a full iterative resolution)
+ * and once starting from a snapshot saved from the warm cache.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.SnapshotBenchmark [rootServer hostName] [extraRecords]
+ * </pre>
+ *
+ * Without a root server the cold run is skipped and only synthetic records are used, which is
+ * enough to measure the cost of restoring a snapshot of a given size offline.
+ */
+public class SnapshotBenchmark {
+
+    private static final int DEFAULT_EXTRA_RECORDS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        DNSCache cache = DNSCache.getInstance();
+        int extraRecords = DEFAULT_EXTRA_RECORDS;
+        DNSNode probe;
+
+        if (args.length >= 2) {
+            InetAddress root = InetAddress.getByName(args[0]);
+            probe = new DNSNode(args[1], RecordType.A);
+            if (args.length >= 3) extraRecords = Integer.parseInt(args[2]);
+
+            long start = System.nanoTime();
+            Set<ResourceRecord> results = DNSLookupService.lookup(args[1], RecordType.A, root);
+            long cold = System.nanoTime() - start;
+            if (results.isEmpty()) {
+                System.err.println("Cold lookup of " + args[1] + " returned no results, giving up.");
+                System.exit(1);
+            }
+            System.out.printf("without snapshot: first hit after %.3f ms (iterative resolution)%n", cold / 1e6);
+        } else {
+            if (args.length == 1) extraRecords = Integer.parseInt(args[0]);
+            probe = new DNSNode("www.example.com", RecordType.A);
+            cache.addResult(new ResourceRecord(probe.getHostName(), RecordType.A, 3600,
+                    InetAddress.getByAddress(new byte[]{93, (byte) 184, (byte) 216, 34})));
+        }
+
+        for (int i = 0; i < extraRecords; i++) {
+            String zone = "zone" + i + ".example";
+            cache.addResult(new ResourceRecord(zone, RecordType.NS, 3600, "ns1." + zone));
+            cache.addResult(new ResourceRecord("ns1." + zone, RecordType.A, 3600,
+                    InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i})));
+        }
+
+        Path file = Files.createTempFile("dns-cache", ".snapshot");
+        try {
+            int saved = DNSCacheSnapshot.save(cache, file);
+            System.out.printf("snapshot: %d records, %d bytes%n", saved, Files.size(file));
+            cache.clear();
+
+            long start = System.nanoTime();
+            int restored = DNSCacheSnapshot.load(cache, file);
+            boolean hit = !cache.getCachedResults(probe).isEmpty();
+            long warm = System.nanoTime() - start;
+            System.out.printf("with snapshot:    first hit after %.3f ms (%d records restored, hit=%b)%n",
+                    warm / 1e6, restored, hit);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
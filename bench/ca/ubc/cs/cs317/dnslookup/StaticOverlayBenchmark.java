@@ -0,0 +1,69 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/** Benchmark for {@link StaticOverlay}: writes a hosts file with the given number of names, then
+ * measures the load time, the cost of a lookup for names in and out of the overlay, and the time
+ * of a reload while lookups keep running.
+ *
+ * <pre>
+ *   java -cp bin ca.ubc.cs.cs317.dnslookup.StaticOverlayBenchmark [names]
+ * </pre>
+ */
+public class StaticOverlayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        Path file = Files.createTempFile("dns-overlay", ".hosts");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("# synthetic internal names\n");
+                for (int i = 0; i < count; i++)
+                    writer.write("10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF)
+                            + "\thost" + i + ".corp.internal\talias" + i + ".corp.internal\n");
+            }
+
+            long start = System.nanoTime();
+            StaticOverlay overlay = StaticOverlay.load(file);
+            long load = System.nanoTime() - start;
+            System.out.printf("load: %.1f ms, %d names, %d records%n",
+                    load / 1e6, overlay.getNameCount(), overlay.getRecordCount());
+
+            DNSNode[] hits = new DNSNode[1024];
+            DNSNode[] misses = new DNSNode[1024];
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] = new DNSNode("host" + (i * 7919 % count) + ".corp.internal", RecordType.A);
+                misses[i] = new DNSNode("www" + i + ".example.com", RecordType.A);
+            }
+            timeLookups(overlay, hits); // warm-up
+            System.out.printf("hit:  %.1f ns per lookup%n", timeLookups(overlay, hits));
+            System.out.printf("miss: %.1f ns per lookup%n", timeLookups(overlay, misses));
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+            Thread reader = new Thread(() -> timeLookups(overlay, hits));
+            reader.start();
+            start = System.nanoTime();
+            boolean reloaded = overlay.reloadIfChanged();
+            long reload = System.nanoTime() - start;
+            reader.join();
+            System.out.printf("reload: %.1f ms while reading (reloaded=%b)%n", reload / 1e6, reloaded);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static double timeLookups(StaticOverlay overlay, DNSNode[] nodes) {
+        int iterations = 10000000;
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            if (overlay.lookup(nodes[i & (nodes.length - 1)]) != null)
+                found++;
+        long elapsed = System.nanoTime() - start;
+        if (found < 0) System.out.println(found); // keeps the loop from being optimized away
+        return (double) elapsed / iterations;
+    }
+}
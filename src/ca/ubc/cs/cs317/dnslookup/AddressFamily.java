@@ -0,0 +1,41 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/** The address families the resolver may use to contact name servers. With {@link #ANY}, a
+ * server reachable over both IPv4 and IPv6 is raced over both families.
+ */
+public enum AddressFamily {
+    V4, V6, ANY;
+
+    /** @return true if name servers may be contacted at the given address. */
+    public boolean accepts(InetAddress address) {
+        switch (this) {
+            case V4:
+                return address instanceof Inet4Address;
+            case V6:
+                return address instanceof Inet6Address;
+            default:
+                return true;
+        }
+    }
+
+    /** @return The record type first asked for the addresses of a name server delegated to
+     * without glue; AAAA for {@link #V6}, A otherwise. With {@link #ANY}, AAAA records are asked
+     * next if the name server has no A record. */
+    public RecordType addressType() {
+        return this == V6 ? RecordType.AAAA : RecordType.A;
+    }
+
+    /** Returns the family set by the {@code dnslookup.addressFamily} system property ({@code v4},
+     * {@code v6} or {@code any}), {@link #ANY} if it is not set.
+     *
+     * @return The configured address family.
+     * @throws IllegalArgumentException If the property has another value.
+     */
+    public static AddressFamily fromSystemProperty() {
+        return valueOf(System.getProperty("dnslookup.addressFamily", "any").toUpperCase());
+    }
+}
@@ -0,0 +1,393 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/** A zone this resolver is authoritative for, loaded from an RFC 1035 master file. Names in the
+ * zone are answered from the zone alone, ahead of any iterative resolution; names delegated to
+ * other servers by NS records below the apex are left to the resolver.
+ *
+ * <p>The zone is held in a few flat arrays instead of one object per record. Every distinct name
+ * of the zone, owners and NS or CNAME targets alike, is stored once in wire format in a single byte
+ * array, sorted in canonical order, and records refer to names by their index in it. Records are
+ * grouped by owner, with their type, TTL and rdata in parallel arrays: addresses are kept in
+ * another byte array, and the rdata of the other types as text. A lookup is a binary search over
+ * the name array, and {@link ResourceRecord}s are only created for the records returned.</p>
+ *
+ * <p>The file is streamed through a memory mapping by {@link ZoneFileParser}. It must start with
+ * the SOA record of the zone, whose owner is the apex; records outside the zone are ignored.</p>
+ */
+public class AuthoritativeZone {
+
+    private static final RecordType[] TYPES = RecordType.values();
+
+    private final DNSName origin;
+    private final byte[] names; // wire format of every name, in canonical order
+    private final int[] nameOffsets; // name i is at nameOffsets[i] to nameOffsets[i + 1] - 1
+    private final int[] firstRecord; // records of name i are at firstRecord[i] to firstRecord[i + 1] - 1
+    private final byte[] types; // RecordType ordinals
+    private final int[] ttls;
+    private final int[] rdata; // name index for NS and CNAME, offset in addresses for A and AAAA, index in texts otherwise
+    private final byte[] addresses;
+    private final String[] texts;
+    private final BitSet present; // names that exist in the zone: owners and the names between them and the apex
+    private final boolean delegates; // true if some name below the apex has NS records
+    private final int ignored;
+
+    private AuthoritativeZone(Builder builder) {
+        this.origin = builder.origin;
+        this.ignored = builder.ignored;
+
+        // sort the names and number them in canonical order
+        int nameCount = builder.nameCount;
+        int[] sorted = new int[nameCount];
+        for (int i = 0; i < nameCount; i++)
+            sorted[i] = i;
+        builder.sortNames(sorted, new int[nameCount], 0, nameCount);
+        int[] rank = new int[nameCount];
+        this.names = new byte[builder.nameStarts[nameCount]];
+        this.nameOffsets = new int[nameCount + 1];
+        this.present = new BitSet(nameCount);
+        for (int i = 0, offset = 0; i < nameCount; i++) {
+            int id = sorted[i];
+            rank[id] = i;
+            if (builder.present.get(id))
+                present.set(i);
+            int length = builder.nameStarts[id + 1] - builder.nameStarts[id];
+            System.arraycopy(builder.nameBytes, builder.nameStarts[id], names, offset, length);
+            nameOffsets[i] = offset;
+            offset += length;
+        }
+        nameOffsets[nameCount] = names.length;
+
+        // group the records by owner, keeping the order of the file for each owner
+        int recordCount = builder.recordCount;
+        this.firstRecord = new int[nameCount + 1];
+        for (int i = 0; i < recordCount; i++)
+            firstRecord[rank[builder.owners[i]] + 1]++;
+        for (int i = 0; i < nameCount; i++)
+            firstRecord[i + 1] += firstRecord[i];
+        int[] next = Arrays.copyOf(firstRecord, nameCount);
+        this.types = new byte[recordCount];
+        this.ttls = new int[recordCount];
+        this.rdata = new int[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            int at = next[rank[builder.owners[i]]]++;
+            RecordType type = TYPES[builder.types[i]];
+            types[at] = builder.types[i];
+            ttls[at] = builder.ttls[i];
+            rdata[at] = isNameType(type) ? rank[builder.rdata[i]] : builder.rdata[i];
+        }
+        this.addresses = Arrays.copyOf(builder.addresses, builder.addressLength);
+        this.texts = builder.texts.toArray(new String[0]);
+        this.delegates = builder.delegations > 0;
+    }
+
+    /** Loads a zone file.
+     *
+     * @param file The zone file, starting with the SOA record of the zone.
+     * @return The zone.
+     * @throws IOException If the file cannot be read or parsed, or has no SOA record first.
+     */
+    public static AuthoritativeZone load(Path file) throws IOException {
+        Builder builder = new Builder();
+        try {
+            ZoneFileParser.parse(file, DNSName.ROOT, builder::add);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+        if (builder.origin == null)
+            throw new IOException(file + ": no SOA record");
+        return new AuthoritativeZone(builder);
+    }
+
+    /** @return The apex of the zone. */
+    public DNSName getOrigin() {
+        return origin;
+    }
+
+    /** Returns true if the zone holds the data for a name, i.e. the name is at or below the apex
+     * and not below a delegation to other servers.
+     *
+     * @param name The name.
+     * @return true if the name is answered from this zone.
+     */
+    public boolean isAuthoritativeFor(DNSName name) {
+        if (!name.isSubdomainOf(origin)) return false;
+        if (!delegates) return true;
+        byte[] wire = name.wire();
+        for (int offset = 0; wire.length - offset > origin.wireLength(); offset += wire[offset] + 1) {
+            int index = find(wire, offset);
+            if (index >= 0 && hasType(index, RecordType.NS)) return false;
+        }
+        return true;
+    }
+
+    /** Returns the records of the zone for a query: the records of the type asked if the name has
+     * any, else the CNAME record of the name if it is an alias. The caller follows the alias.
+     *
+     * @param node DNS query (host name and record type).
+     * @return The records found, empty if the name does not exist or has no record of the type,
+     * or null if the zone is not authoritative for the name.
+     */
+    public List<ResourceRecord> lookup(DNSNode node) {
+        if (!isAuthoritativeFor(node.getName())) return null;
+        int index = find(node.getName().wire(), 0);
+        if (index < 0) return Collections.emptyList();
+        List<ResourceRecord> results = records(index, node);
+        if (results.isEmpty() && node.getType() != RecordType.CNAME)
+            results = records(index, new DNSNode(node.getName(), RecordType.CNAME));
+        return results;
+    }
+
+    /** Returns true if a name exists in the zone, i.e. it has records or names below it have (it
+     * is then an empty non-terminal). A query for a name of the zone that does not exist is
+     * answered with NXDOMAIN, and one for a name that exists but has no record of the type asked
+     * with an empty answer.
+     *
+     * @param name The name, which the zone must be authoritative for.
+     * @return true if the name exists.
+     */
+    public boolean contains(DNSName name) {
+        int index = find(name.wire(), 0);
+        return index >= 0 && present.get(index);
+    }
+
+    /** @return The SOA record of the zone, for the authority section of negative answers. */
+    public ResourceRecord getSOA() {
+        DNSNode node = new DNSNode(origin, RecordType.SOA);
+        return records(find(origin.wire(), 0), node).get(0);
+    }
+
+    /** @return The number of distinct names stored, owners and targets. */
+    public int getNameCount() {
+        return nameOffsets.length - 1;
+    }
+
+    /** @return The number of records in the zone. */
+    public int getRecordCount() {
+        return types.length;
+    }
+
+    /** @return The number of records of the file that were outside the zone or of unsupported types. */
+    public int getIgnoredCount() {
+        return ignored;
+    }
+
+    @Override
+    public String toString() {
+        return (origin.isRoot() ? "." : origin.toString()) + " (" + getRecordCount() + " records)";
+    }
+
+    /** Creates the records of name {@code index} for a node, whose name is that name. */
+    private List<ResourceRecord> records(int index, DNSNode node) {
+        List<ResourceRecord> results = new ArrayList<>();
+        for (int i = firstRecord[index]; i < firstRecord[index + 1]; i++)
+            if (TYPES[types[i]] == node.getType())
+                results.add(record(node, i));
+        return results;
+    }
+
+    private ResourceRecord record(DNSNode node, int i) {
+        RecordType type = node.getType();
+        if (type == RecordType.A || type == RecordType.AAAA) {
+            int length = type == RecordType.A ? 4 : 16;
+            return new ResourceRecord(node, ttls[i], Arrays.copyOfRange(addresses, rdata[i], rdata[i] + length));
+        }
+        return new ResourceRecord(node, ttls[i], isNameType(type) ? text(rdata[i]) : texts[rdata[i]]);
+    }
+
+    private boolean hasType(int index, RecordType type) {
+        for (int i = firstRecord[index]; i < firstRecord[index + 1]; i++)
+            if (TYPES[types[i]] == type)
+                return true;
+        return false;
+    }
+
+    /** Binary search of the name starting at an offset of a canonical wire format name (the name
+     * itself or one of its ancestors), comparing wire formats as {@link DNSName#compareTo} does.
+     */
+    private int find(byte[] wire, int from) {
+        int low = 0;
+        int high = nameOffsets.length - 2;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = Arrays.compare(names, nameOffsets[middle], nameOffsets[middle + 1], wire, from, wire.length);
+            if (cmp < 0)
+                low = middle + 1;
+            else if (cmp > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /** Returns name {@code index} in presentation format, as {@link DNSName#toString()} does. */
+    private String text(int index) {
+        int end = nameOffsets[index + 1] - 1;
+        StringBuilder builder = new StringBuilder(end - nameOffsets[index]);
+        for (int i = nameOffsets[index]; i < end; i += names[i] + 1) {
+            if (builder.length() > 0) builder.append('.');
+            for (int j = 1; j <= names[i]; j++)
+                builder.append((char) (names[i + j] & 0xFF));
+        }
+        return builder.toString();
+    }
+
+    private static boolean isNameType(RecordType type) {
+        return type == RecordType.NS || type == RecordType.CNAME;
+    }
+
+    /** Collects the records of the file in growable primitive arrays while it is parsed. Names
+     * are copied into a byte array as they are first seen and numbered in that order, with an open
+     * addressing table to find them again, so the parser's name objects do not outlive their line.
+     */
+    private static final class Builder {
+        DNSName origin;
+        byte[] nameBytes = new byte[1 << 16]; // wire format of the names, by number
+        int[] nameStarts = new int[1025]; // name i is at nameStarts[i] to nameStarts[i + 1] - 1
+        int[] nameHashes = new int[1024];
+        int[] nameTable = new int[2048]; // name number + 1 by hash, 0 for an empty slot
+        int nameCount;
+        DNSName lastName;
+        int lastId;
+
+        int recordCount;
+        int[] owners = new int[1024];
+        byte[] types = new byte[1024];
+        int[] ttls = new int[1024];
+        int[] rdata = new int[1024];
+        byte[] addresses = new byte[4096];
+        int addressLength;
+        final List<String> texts = new ArrayList<>();
+        final BitSet present = new BitSet(); // by name number, see AuthoritativeZone#present
+        int delegations;
+        int ignored;
+
+        void add(ZoneFileParser.Entry entry) {
+            RecordType type = entry.getType();
+            if (origin == null) {
+                if (type != RecordType.SOA)
+                    throw new IllegalArgumentException("the first record must be the SOA record of the zone");
+                origin = entry.getOwner();
+            }
+            if (type == RecordType.OTHER || !entry.getOwner().isSubdomainOf(origin)) {
+                ignored++;
+                return;
+            }
+            if (recordCount == owners.length) {
+                int capacity = recordCount * 2;
+                owners = Arrays.copyOf(owners, capacity);
+                types = Arrays.copyOf(types, capacity);
+                ttls = Arrays.copyOf(ttls, capacity);
+                rdata = Arrays.copyOf(rdata, capacity);
+            }
+            owners[recordCount] = id(entry.getOwner());
+            exists(entry.getOwner(), owners[recordCount]);
+            types[recordCount] = (byte) type.ordinal();
+            ttls[recordCount] = (int) Math.min(entry.getTTL(), Integer.MAX_VALUE);
+            if (type == RecordType.A || type == RecordType.AAAA) {
+                byte[] address = entry.getAddress();
+                if (addressLength + address.length > addresses.length)
+                    addresses = Arrays.copyOf(addresses, addresses.length * 2);
+                System.arraycopy(address, 0, addresses, addressLength, address.length);
+                rdata[recordCount] = addressLength;
+                addressLength += address.length;
+            } else if (isNameType(type)) {
+                rdata[recordCount] = id(DNSName.of(entry.getText()));
+                if (type == RecordType.NS && !entry.getOwner().equals(origin)) delegations++;
+            } else {
+                rdata[recordCount] = texts.size();
+                texts.add(String.join(" ", entry.getRdata()));
+            }
+            recordCount++;
+        }
+
+        /** Marks an owner name and the names between it and the apex as existing. */
+        private void exists(DNSName name, int id) {
+            while (!present.get(id)) {
+                present.set(id);
+                if (name.equals(origin)) return;
+                name = name.parent();
+                id = id(name);
+            }
+        }
+
+        /** Returns the number of a name, adding it if it was not seen yet. */
+        private int id(DNSName name) {
+            if (name == lastName) return lastId; // names are interned, and records of a name are usually together
+            byte[] wire = name.wire();
+            int hash = name.hashCode();
+            int mask = nameTable.length - 1;
+            int slot = hash & mask;
+            while (nameTable[slot] != 0) {
+                int id = nameTable[slot] - 1;
+                if (nameHashes[id] == hash && Arrays.equals(nameBytes, nameStarts[id], nameStarts[id + 1], wire, 0, wire.length))
+                    return remember(name, id);
+                slot = (slot + 1) & mask;
+            }
+            int id = nameCount++;
+            if (nameCount == nameHashes.length) {
+                nameHashes = Arrays.copyOf(nameHashes, nameCount * 2);
+                nameStarts = Arrays.copyOf(nameStarts, nameCount * 2 + 1);
+            }
+            int start = nameStarts[id];
+            if (start + wire.length > nameBytes.length)
+                nameBytes = Arrays.copyOf(nameBytes, Math.max(nameBytes.length * 2, start + wire.length));
+            System.arraycopy(wire, 0, nameBytes, start, wire.length);
+            nameStarts[id + 1] = start + wire.length;
+            nameHashes[id] = hash;
+            nameTable[slot] = id + 1;
+            if (nameCount * 2 > nameTable.length)
+                rehash();
+            return remember(name, id);
+        }
+
+        private int remember(DNSName name, int id) {
+            lastName = name;
+            lastId = id;
+            return id;
+        }
+
+        private void rehash() {
+            nameTable = new int[nameTable.length * 2];
+            int mask = nameTable.length - 1;
+            for (int id = 0; id < nameCount; id++) {
+                int slot = nameHashes[id] & mask;
+                while (nameTable[slot] != 0)
+                    slot = (slot + 1) & mask;
+                nameTable[slot] = id + 1;
+            }
+        }
+
+        /** Sorts name numbers from {@code from} to {@code to} - 1 in canonical order of their names (merge sort). */
+        void sortNames(int[] ids, int[] buffer, int from, int to) {
+            if (to - from < 16) {
+                for (int i = from + 1; i < to; i++)
+                    for (int j = i; j > from && compare(ids[j - 1], ids[j]) > 0; j--) {
+                        int swap = ids[j];
+                        ids[j] = ids[j - 1];
+                        ids[j - 1] = swap;
+                    }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sortNames(ids, buffer, from, middle);
+            sortNames(ids, buffer, middle, to);
+            if (compare(ids[middle - 1], ids[middle]) <= 0) return; // already in order, e.g. a sorted zone file
+            System.arraycopy(ids, from, buffer, from, to - from);
+            for (int i = from, left = from, right = middle; i < to; i++) {
+                if (right == to || left < middle && compare(buffer[left], buffer[right]) <= 0)
+                    ids[i] = buffer[left++];
+                else
+                    ids[i] = buffer[right++];
+            }
+        }
+
+        private int compare(int a, int b) {
+            return Arrays.compare(nameBytes, nameStarts[a], nameStarts[a + 1], nameBytes, nameStarts[b], nameStarts[b + 1]);
+        }
+    }
+}
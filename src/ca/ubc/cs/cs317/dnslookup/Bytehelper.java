@@ -62,6 +62,71 @@ public class Bytehelper {
   return resBytes;
  }
 
+ /**
+  * @return the unsigned 16-bit big-endian (network order) number at an offset, read in place
+  *
+  * @param start the offset of the number in bytes
+  * @param bytes The source byte[]
+  */
+ public static int readUnsignedShort(int start, byte[] bytes) {
+  return (bytes[start] & 0xFF) << 8 | (bytes[start + 1] & 0xFF);
+ }
+
+ /**
+  * @return the unsigned 32-bit big-endian (network order) number at an offset, read in place
+  *
+  * @param start the offset of the number in bytes
+  * @param bytes The source byte[]
+  */
+ public static long readUnsignedInt(int start, byte[] bytes) {
+  return (long) readUnsignedShort(start, bytes) << 16 | readUnsignedShort(start + 2, bytes);
+ }
+
+ /**
+  * @return the text form of the IPv4 (4 bytes) or IPv6 (16 bytes) address at an offset, as given by
+  * InetAddress.getHostAddress, without creating the InetAddress
+  *
+  * @param start the offset of the address in bytes
+  * @param num the size of the address, 4 or 16
+  * @param bytes The source byte[]
+  * @throws IllegalArgumentException if the size is neither 4 nor 16
+  */
+ public static String addressToString(int start, int num, byte[] bytes) {
+  if (num == 16 && isIPv4Mapped(start, bytes)) {
+   start += 12; // ::ffff:a.b.c.d is read as the IPv4 address a.b.c.d
+   num = 4;
+  }
+  StringBuilder address = new StringBuilder(39);
+  if (num == 4) {
+   for (int i = 0; i < 4; i++) {
+    if (i > 0) address.append('.');
+    address.append(bytes[start + i] & 0xFF);
+   }
+  } else if (num == 16) {
+   for (int i = 0; i < 16; i += 2) {
+    if (i > 0) address.append(':');
+    int group = readUnsignedShort(start + i, bytes);
+    boolean digits = false;
+    for (int shift = 12; shift >= 0; shift -= 4) {
+     int digit = group >>> shift & 0x0F;
+     if (digit == 0 && !digits && shift > 0) continue; // no leading zeros
+     address.append(Character.forDigit(digit, 16));
+     digits = true;
+    }
+   }
+  } else {
+   throw new IllegalArgumentException("addr is of illegal length");
+  }
+  return address.toString();
+ }
+
+ private static boolean isIPv4Mapped(int start, byte[] bytes) {
+  for (int i = 0; i < 10; i++) {
+   if (bytes[start + i] != 0) return false;
+  }
+  return bytes[start + 10] == (byte) 0xFF && bytes[start + 11] == (byte) 0xFF;
+ }
+
  // eliminate trailing 0s of  byte array
  // https://stackoverflow.com/questions/17003164/byte-array-with-padding-of-null-bytes-at-the-end-how-to-efficiently-copy-to-sma
  /**
@@ -0,0 +1,156 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** This class caches fully resolved CNAME chains. For a query (host name and desired record
+ * type) that was answered through one or more CNAME records, it keeps the CNAME records followed,
+ * the list of names they lead through and the records found for the final target. A repeated
+ * query is then answered with a single probe, instead of one cache lookup per CNAME hop, and with
+ * the same records as the first time. A chain is only valid for the minimum TTL across all of its
+ * hops and answers.
+ *
+ * <p>The cache holds at most {@link #MAX_CHAINS} chains. When it is full, expired chains are swept
+ * out before a new one is added, and if that is not enough an eighth of the chains are dropped, in
+ * no particular order, so that the sweep does not run again on every addition.</p>
+ */
+public class CNAMEChainCache {
+
+    public static final int MAX_CHAINS = 1 << 16;
+
+    private static CNAMEChainCache instance = new CNAMEChainCache();
+
+    private final Map<DNSNode, Chain> chains = new ConcurrentHashMap<>();
+
+    /** Singleton retrieval method, in the same way as {@link DNSCache#getInstance()}.
+     *
+     * @return Instance of the CNAME chain cache.
+     */
+    public static CNAMEChainCache getInstance() {
+        return instance;
+    }
+
+    /** A resolved CNAME chain: the CNAME records and names followed from the original query to
+     * the final target, and the records of the desired type found for that target.
+     */
+    public static class Chain {
+
+        private final List<String> hops;
+        private final List<ResourceRecord> cnames;
+        private final Set<ResourceRecord> answers;
+        private final long expirationTime;
+
+        private Chain(List<String> hops, List<ResourceRecord> cnames, Set<ResourceRecord> answers, long expirationTime) {
+            this.hops = Collections.unmodifiableList(hops);
+            this.cnames = Collections.unmodifiableList(cnames);
+            this.answers = Collections.unmodifiableSet(answers);
+            this.expirationTime = expirationTime;
+        }
+
+        /** @return The name at the end of the chain, whose records answer the query. */
+        public String getTarget() {
+            return hops.get(hops.size() - 1);
+        }
+
+        /** @return Every name of the chain in order, starting with the original query name. */
+        public List<String> getHops() {
+            return hops;
+        }
+
+        /** @return The CNAME records followed, in order, starting with the one for the original query name. */
+        public List<ResourceRecord> getCNAMEs() {
+            return cnames;
+        }
+
+        public Set<ResourceRecord> getAnswers() {
+            return answers;
+        }
+
+        /** @return The number of seconds, rounded up, until the first record of the chain expires. */
+        public long getTTL() {
+            return (expirationTime - CoarseClock.currentTimeMillis() + 999) / 1000;
+        }
+
+        public boolean isStillValid() {
+            return expirationTime > CoarseClock.currentTimeMillis();
+        }
+    }
+
+    /** Returns the resolved chain cached for a query, or null if there is none or it expired.
+     *
+     * @param node Original query (host name and desired record type).
+     * @return The cached chain, or null.
+     */
+    public Chain getChain(DNSNode node) {
+        Chain chain = chains.get(node);
+        if (chain == null)
+            return null;
+        if (!chain.isStillValid()) {
+            chains.remove(node, chain);
+            return null;
+        }
+        return chain;
+    }
+
+    /** Caches the resolution of a query through a chain of CNAME records. Nothing is cached if
+     * the chain did not end in any answer.
+     *
+     * @param node    Original query (host name and desired record type).
+     * @param cnames  The CNAME records followed, in order, starting with the one for the query name.
+     * @param answers Records of the desired type found for the final target of the chain.
+     */
+    public void addChain(DNSNode node, List<ResourceRecord> cnames, Set<ResourceRecord> answers) {
+        if (cnames.isEmpty() || answers.isEmpty()) return;
+
+        List<String> hops = new ArrayList<>(cnames.size() + 1);
+        hops.add(node.getHostName());
+        long expirationTime = Long.MAX_VALUE;
+        for (ResourceRecord cname : cnames) {
+            hops.add(cname.getTextResult().trim());
+            expirationTime = Math.min(expirationTime, cname.getExpirationTime());
+        }
+        for (ResourceRecord answer : answers)
+            expirationTime = Math.min(expirationTime, answer.getExpirationTime());
+        if (expirationTime <= CoarseClock.currentTimeMillis()) return;
+
+        if (chains.size() >= MAX_CHAINS && !chains.containsKey(node))
+            makeRoom();
+        chains.put(node, new Chain(hops, new ArrayList<>(cnames), new HashSet<>(answers), expirationTime));
+    }
+
+    /** Removes the expired chains, then arbitrary ones if the cache is still nearly full. */
+    private void makeRoom() {
+        chains.values().removeIf(chain -> !chain.isStillValid());
+        Iterator<Chain> iterator = chains.values().iterator();
+        for (int excess = chains.size() - (MAX_CHAINS - MAX_CHAINS / 8); excess > 0 && iterator.hasNext(); excess--) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /** Drops every cached chain that goes through a name equal to or below a name, be it the
+     * query name, an intermediate alias or the final target, in the same way as
+     * {@link DNSRecordCache#invalidateSubtree(DNSName)} drops records.
+     *
+     * @param zone The name at the top of the subtree.
+     * @return The number of chains dropped.
+     */
+    public int invalidateSubtree(DNSName zone) {
+        int dropped = 0;
+        for (Iterator<Chain> iterator = chains.values().iterator(); iterator.hasNext(); ) {
+            for (String hop : iterator.next().hops) {
+                if (DNSName.of(hop).isSubdomainOf(zone)) {
+                    iterator.remove();
+                    dropped++;
+                    break;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /** Removes every cached chain, for tools that measure cold-cache behaviour. */
+    void clear() {
+        chains.clear();
+    }
+}
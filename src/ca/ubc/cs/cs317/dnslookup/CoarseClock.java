@@ -0,0 +1,40 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/** A shared, coarse-grained clock. A background daemon thread refreshes a cached millisecond
+ * timestamp every {@link #TICK_MILLIS} milliseconds, so reading the time is a single volatile
+ * read: no system call and no allocation. Expiration checks on cached records, which happen on
+ * every cache lookup, use this clock; being late by up to one tick is harmless for TTLs that
+ * are expressed in seconds.
+ */
+public final class CoarseClock {
+
+    public static final long TICK_MILLIS = 10;
+
+    private static volatile long now = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                now = System.currentTimeMillis();
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "dns-coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {}
+
+    /** Returns the current time, in milliseconds since the epoch, with a resolution of about
+     * {@link #TICK_MILLIS} milliseconds.
+     *
+     * @return The cached current time in milliseconds.
+     */
+    public static long currentTimeMillis() {
+        return now;
+    }
+}
@@ -4,15 +4,24 @@ import java.util.*;
 import java.util.function.BiConsumer;
 
 /** This class handles a cache of DNS results. It is based on a map that links nodes (queries)
- * to a set of resource records (results). Cached results are only maintained for the duration
+ * to a set of resource records (results), and a {@link NameTrie} indexing the cached names by
+ * label suffix for subtree and enclosing-zone queries. Cached results are only maintained for the duration
  * of the TTL (time-to-live) returned by the server, and are deleted before being returned to
- * the user.
+ * the user. All operations are synchronized on the cache instance, so the cache may be read
+ * and written (or saved, see {@link DNSCacheSnapshot}) from several threads.
+ *
+ * <p>The records of a node are copied on write: the map holding them is never modified once it
+ * is in the cache, and adding or expiring a record replaces it with a new one. The sets returned by
+ * {@link #getCachedResults(DNSNode)} are views of these maps, so they can be read after the lock is
+ * released while other threads add records.</p>
  */
-public class DNSCache {
+public class DNSCache implements DNSRecordCache {
 
     private static DNSCache instance = new DNSCache();
 
     private Map<DNSNode, Map<ResourceRecord, ResourceRecord>> cachedResults = new TreeMap<>();
+    private final NameTrie index = new NameTrie();
+    private int records;
 
     /** Singleton retrieval method. Only one instance of the DNS cache can be created. This
      * method returns the single DNS cache instance.
@@ -31,12 +40,18 @@ public class DNSCache {
      * @param node DNS query (host name and record type) to obtain cached results.
      * @return A potentially empty set of resources associated to the query.
      */
-    public Set<ResourceRecord> getCachedResults(DNSNode node) {
+    @Override
+    public synchronized Set<ResourceRecord> getCachedResults(DNSNode node) {
         Map<ResourceRecord, ResourceRecord> results = cachedResults.get(node);
         if (results == null)
             return Collections.emptySet();
 
-        results.keySet().removeIf(record -> !record.isStillValid());
+        results = removeExpired(node, results);
+        if (results.isEmpty()) {
+            cachedResults.remove(node);
+            index.remove(node);
+            return Collections.emptySet();
+        }
         return Collections.unmodifiableSet(results.keySet());
     }
 
@@ -47,19 +62,27 @@ public class DNSCache {
      * @param record Resource record, possibly obtained from a DNS server, containing the result
      *               of a DNS query.
      */
-    public void addResult(ResourceRecord record) {
+    @Override
+    public synchronized void addResult(ResourceRecord record) {
 
         if (!record.isStillValid()) return;
 
-        Map<ResourceRecord, ResourceRecord> results = cachedResults.get(record.getNode());
-        if (results == null) {
-            results = new HashMap<>();
+        Map<ResourceRecord, ResourceRecord> cached = cachedResults.get(record.getNode());
+        ResourceRecord oldRecord = cached != null ? cached.get(record) : null;
+        if (oldRecord == null || oldRecord.expiresBefore(record)) {
+            Map<ResourceRecord, ResourceRecord> results = cached != null ? new HashMap<>(cached) : new HashMap<>();
+            if (results.put(record, record) == null) records++;
             cachedResults.put(record.getNode(), results);
+            if (cached == null) index.add(record.getNode());
+            DNSEvents.cacheAdd(record, oldRecord == null ? "added" : "extended");
+        } else {
+            DNSEvents.cacheAdd(record, "kept");
         }
+    }
 
-        ResourceRecord oldRecord = results.get(record);
-        if (oldRecord == null || oldRecord.expiresBefore(record))
-            results.put(record, record);
+    @Override
+    public synchronized int size() {
+        return records;
     }
 
     /** Perform a specific action for each query and its set of cached records. This action can
@@ -68,11 +91,12 @@ public class DNSCache {
      *
      * @param consumer Action to be performed for each query and set of records.
      */
-    public void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+    @Override
+    public synchronized void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
         for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
-            entry.getValue().keySet().removeIf(record -> !record.isStillValid());
-            if (!entry.getValue().keySet().isEmpty())
-                consumer.accept(entry.getKey(), entry.getValue().keySet());
+            Map<ResourceRecord, ResourceRecord> results = removeExpired(entry.getKey(), entry.getValue());
+            if (!results.isEmpty())
+                consumer.accept(entry.getKey(), Collections.unmodifiableSet(results.keySet()));
         }
     }
 
@@ -82,11 +106,93 @@ public class DNSCache {
      *
      * @param consumer Action to be performed for each query and record.
      */
-    public void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+    @Override
+    public synchronized void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
         for (Map.Entry<DNSNode, Map<ResourceRecord, ResourceRecord>> entry : cachedResults.entrySet()) {
-            entry.getValue().keySet().removeIf(record -> !record.isStillValid());
-            entry.getValue().keySet().forEach(record -> consumer.accept(entry.getKey(), record));
+            removeExpired(entry.getKey(), entry.getValue()).keySet()
+                    .forEach(record -> consumer.accept(entry.getKey(), record));
+        }
+    }
+
+    /** Returns the names equal to or enclosing a name for which records of a given type may be
+     * cached, deepest first. The lookup walks the label index and does not lock the cache.
+     *
+     * @param name The name whose enclosing names are searched.
+     * @param type Record type that must be cached for the enclosing name.
+     * @return A potentially empty list of names, deepest first.
+     */
+    @Override
+    public List<DNSName> enclosingNames(DNSName name, RecordType type) {
+        return index.enclosingNames(name, type);
+    }
+
+    /** Perform a specific action for each query equal to or below a name and its set of cached
+     * records. Only the subtree of the label index below the name is visited.
+     *
+     * @param zone     The name at the top of the subtree.
+     * @param consumer Action to be performed for each query and set of records.
+     */
+    @Override
+    public synchronized void forEachNodeUnder(DNSName zone, BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        List<DNSNode> nodes = new ArrayList<>();
+        index.forEachUnder(zone, nodes::add);
+        for (DNSNode node : nodes) {
+            Set<ResourceRecord> results = getCachedResults(node);
+            if (!results.isEmpty())
+                consumer.accept(node, results);
         }
     }
 
+    /** Drops every cached record whose name is equal to or below a name. Only the subtree of the
+     * label index below the name is visited.
+     *
+     * @param zone The name at the top of the subtree.
+     * @return The number of records dropped.
+     */
+    @Override
+    public synchronized int invalidateSubtree(DNSName zone) {
+        int dropped = 0;
+        for (DNSNode node : index.removeSubtree(zone)) {
+            Map<ResourceRecord, ResourceRecord> results = cachedResults.remove(node);
+            if (results != null)
+                dropped += results.size();
+        }
+        records -= dropped;
+        ResolverMetrics.getInstance().recordsEvicted(dropped);
+        DNSEvents.cacheEvict(zone, dropped);
+        return dropped;
+    }
+
+    /** Replaces the records of a node by those still valid, if any expired.
+     *
+     * @return The records of the node that are still valid, possibly the same map.
+     */
+    private Map<ResourceRecord, ResourceRecord> removeExpired(DNSNode node, Map<ResourceRecord, ResourceRecord> results) {
+        boolean anyExpired = false;
+        for (ResourceRecord record : results.keySet())
+            anyExpired |= !record.isStillValid();
+        if (!anyExpired)
+            return results;
+
+        Map<ResourceRecord, ResourceRecord> valid = new HashMap<>();
+        for (ResourceRecord record : results.keySet())
+            if (record.isStillValid())
+                valid.put(record, record);
+        int expired = results.size() - valid.size();
+        cachedResults.put(node, valid); // replaces the value only, safe while iterating over the nodes
+        records -= expired;
+        ResolverMetrics.getInstance().recordsExpired(expired);
+        DNSEvents.cacheExpire(node, expired);
+        return valid;
+    }
+
+    /** Removes every cached record. Mostly useful for tools that need to measure cold-cache
+     * behaviour, such as restoring a snapshot into an empty cache.
+     */
+    synchronized void clear() {
+        cachedResults.clear();
+        index.removeSubtree(DNSName.ROOT);
+        records = 0;
+    }
+
 }
@@ -0,0 +1,170 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Saves the contents of a {@link DNSRecordCache} to a compact binary snapshot file and restores
+ * it again, so a restarted resolver does not have to go back to the root and TLD servers for
+ * everything it already knew. The file starts with a small header (magic, version, time of the
+ * save and record count) followed by one entry per record:
+ *
+ * <pre>
+ *   u16 name length | name (ASCII) | u16 type | i64 remaining TTL (ms) | u8 kind | u16 rdata length | rdata
+ * </pre>
+ *
+ * where kind is 1 for address records (rdata holds the raw 4 or 16 address bytes) and 0 for
+ * textual records (rdata holds the ASCII text). On load the file is memory-mapped and every
+ * remaining TTL is reduced by the time elapsed since the snapshot was written; records that
+ * expired in the meantime are skipped.
+ */
+public class DNSCacheSnapshot {
+
+    private static final int MAGIC = 0x444E5343; // "DNSC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 4;
+
+    private static final byte KIND_TEXT = 0;
+    private static final byte KIND_ADDRESS = 1;
+
+    private DNSCacheSnapshot() {}
+
+    /** Writes every still-valid record of the cache to the given file. The snapshot is written
+     * to a temporary file first and then moved over the destination, so a crash in the middle of
+     * a save never leaves a truncated snapshot behind.
+     *
+     * @param cache Cache whose records are saved.
+     * @param file  Destination of the snapshot.
+     * @return The number of records written.
+     * @throws IOException If the snapshot could not be written.
+     */
+    public static int save(DNSRecordCache cache, Path file) throws IOException {
+        List<ResourceRecord> records = new ArrayList<>();
+        cache.forEachRecord((node, record) -> records.add(record));
+
+        long now = System.currentTimeMillis();
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(now);
+            out.writeInt(records.size());
+            for (ResourceRecord record : records) {
+                byte[] name = record.getHostName().getBytes(StandardCharsets.US_ASCII);
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeShort(record.getType().getCode());
+                out.writeLong(record.getExpirationTime() - now);
+                byte[] rdata = record.getAddress();
+                if (rdata != null) {
+                    out.writeByte(KIND_ADDRESS);
+                } else {
+                    out.writeByte(KIND_TEXT);
+                    rdata = record.getTextResult().getBytes(StandardCharsets.US_ASCII);
+                }
+                out.writeShort(rdata.length);
+                out.write(rdata);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records.size();
+    }
+
+    /** Memory-maps a snapshot file and adds every record that is still valid to the cache, with
+     * its TTL reduced by the time elapsed since the snapshot was saved.
+     *
+     * @param cache Cache the records are added to.
+     * @param file  Snapshot previously written by {@link #save(DNSRecordCache, Path)}.
+     * @return The number of records restored.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static int load(DNSRecordCache cache, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Snapshot " + file + " is too short");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION)
+                throw new IOException("Snapshot " + file + " has an unknown format");
+
+            long elapsed = Math.max(0, System.currentTimeMillis() - buffer.getLong());
+            int count = buffer.getInt();
+            int restored = 0;
+            try {
+                for (int i = 0; i < count; i++) {
+                    String hostName = readAscii(buffer, buffer.getShort() & 0xFFFF);
+                    RecordType type = RecordType.getByCode(buffer.getShort() & 0xFFFF);
+                    long remaining = buffer.getLong() - elapsed;
+                    byte kind = buffer.get();
+                    int rdLength = buffer.getShort() & 0xFFFF;
+                    if (remaining < 1000) {
+                        buffer.position(buffer.position() + rdLength);
+                        continue;
+                    }
+                    long ttl = remaining / 1000;
+                    if (kind == KIND_ADDRESS) {
+                        byte[] address = new byte[rdLength];
+                        buffer.get(address);
+                        cache.addResult(new ResourceRecord(hostName, type, ttl, address));
+                    } else {
+                        cache.addResult(new ResourceRecord(hostName, type, ttl, readAscii(buffer, rdLength)));
+                    }
+                    restored++;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Snapshot " + file + " is corrupt", e);
+            }
+            return restored;
+        }
+    }
+
+    /** Starts a background thread that saves the cache to the given file at a fixed interval.
+     * Failures are reported on standard error and do not stop later saves. The thread is a
+     * daemon, so it does not keep the application alive.
+     *
+     * @param cache           Cache to save.
+     * @param file            Destination of the snapshot.
+     * @param intervalSeconds Number of seconds between two saves.
+     * @return The executor running the saves, which may be shut down to stop them.
+     */
+    public static ScheduledExecutorService schedulePeriodicSave(DNSRecordCache cache, Path file, long intervalSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dns-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                save(cache, file);
+            } catch (IOException e) {
+                System.err.println("Could not save cache snapshot (" + e.getMessage() + ").");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return executor;
+    }
+
+    private static String readAscii(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,199 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import jdk.jfr.*;
+
+import java.net.InetAddress;
+
+/** Java Flight Recorder events of the resolver, so that its activity can be lined up with GC, CPU
+ * and I/O activity in a recording, e.g. one started with
+ * {@code -XX:StartFlightRecording=filename=dns.jfr}. The events are in the "DNS Lookup" category:
+ * queries sent (with the round trip as duration), responses parsed, records added to, expired from
+ * or evicted from the cache, steps of resolutions (referrals, aliases, glueless name servers and
+ * loops) and whole lookups, with their outcome.
+ *
+ * <p>The helper methods check that the event is enabled before converting anything to strings, and
+ * the event objects do not escape them, so they cost next to nothing when no recording is running.</p>
+ */
+final class DNSEvents {
+
+    private static final String CATEGORY = "DNS Lookup";
+
+    private DNSEvents() {}
+
+    @Name("ca.ubc.cs.cs317.dnslookup.Query")
+    @Label("DNS Query")
+    @Category(CATEGORY)
+    @Description("A query sent to a name server, lasting until its response or timeout")
+    static final class Query extends Event {
+        @Label("Server") String server;
+        @Label("Alternate") String alternate;
+        @Label("Question") String question;
+        @Label("Type") String type;
+        @Label("Attempt") int attempt;
+        @Label("Query Size") @DataAmount int querySize;
+        @Label("Response Size") @DataAmount int responseSize;
+        @Label("Response Code") int rcode;
+        @Label("Outcome") String outcome;
+
+        /** Commits the event, if enabled. Its duration ends now, unless {@link #end()} was called
+         * when the response arrived.
+         *
+         * @param server       Server asked, or that responded when the query was raced.
+         * @param responseSize Size of the response, or 0 if there was none.
+         * @param rcode        Response code, or -1 if there was no response.
+         * @param outcome      "response", "timeout" or "error".
+         */
+        void finish(DNSQuery query, InetAddress server, InetAddress alternate, int attempt, int responseSize, int rcode,
+                    String outcome) {
+            if (!shouldCommit()) return;
+            this.server = server.getHostAddress();
+            this.alternate = alternate != null ? alternate.getHostAddress() : null;
+            this.question = query.lookupName;
+            this.type = query.convertType(Integer.parseInt(query.type));
+            this.attempt = attempt;
+            this.querySize = query.message.length;
+            this.responseSize = responseSize;
+            this.rcode = rcode;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.ResponseParsed")
+    @Label("DNS Response Parsed")
+    @Category(CATEGORY)
+    @Description("The parsing of a response message")
+    static final class ResponseParsed extends Event {
+        @Label("Response ID") String id;
+        @Label("Question") String question;
+        @Label("Response Code") int rcode;
+        @Label("Authoritative") boolean authoritative;
+        @Label("Answers") int answers;
+        @Label("Authority Records") int authority;
+        @Label("Additional Records") int additional;
+
+        void finish(DNSResponse response) {
+            end();
+            if (!shouldCommit()) return;
+            id = response.responseID;
+            question = response.lookupName;
+            rcode = response.RCode;
+            authoritative = response.isAuth;
+            answers = response.numAnswers;
+            authority = response.numNameservers;
+            additional = response.numAddInfo;
+            commit();
+        }
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.CacheAdd")
+    @Label("DNS Cache Add")
+    @Category(CATEGORY)
+    @Description("A record given to the cache")
+    static final class CacheAdd extends Event {
+        @Label("Name") String name;
+        @Label("Type") String type;
+        @Label("TTL") @Timespan(Timespan.SECONDS) long ttl;
+        @Label("Outcome") String outcome;
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.CacheExpire")
+    @Label("DNS Cache Expire")
+    @Category(CATEGORY)
+    @Description("Records of a name removed from the cache once their TTL ran out")
+    static final class CacheExpire extends Event {
+        @Label("Name") String name;
+        @Label("Type") String type;
+        @Label("Records") int records;
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.CacheEvict")
+    @Label("DNS Cache Evict")
+    @Category(CATEGORY)
+    @Description("Records dropped from the cache before they expired")
+    static final class CacheEvict extends Event {
+        @Label("Name") String name;
+        @Label("Records") int records;
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.ResolutionStep")
+    @Label("DNS Resolution Step")
+    @Category(CATEGORY)
+    @Description("A step of an iterative resolution: referral, nameserver (resolving a glueless name server), alias or loop")
+    static final class ResolutionStep extends Event {
+        @Label("Question") String question;
+        @Label("Step") String step;
+        @Label("Name") String name;
+        @Label("Zone") String zone;
+        @Label("Server") String server;
+        @Label("Detail") String detail;
+    }
+
+    @Name("ca.ubc.cs.cs317.dnslookup.Lookup")
+    @Label("DNS Lookup")
+    @Category(CATEGORY)
+    @Description("A whole resolution, from the cache or through name servers")
+    static final class Lookup extends Event {
+        @Label("Question") String question;
+        @Label("Type") String type;
+        @Label("Status") String status;
+        @Label("Answers") int answers;
+        @Label("Queries") int queries;
+        @Label("Retries") int retries;
+        @Label("Latency") @Timespan(Timespan.NANOSECONDS) long latency;
+        @Label("Failure") String failure;
+    }
+
+    static void cacheAdd(ResourceRecord record, String outcome) {
+        CacheAdd event = new CacheAdd();
+        if (!event.isEnabled()) return;
+        event.name = record.getHostName();
+        event.type = record.getType().name();
+        event.ttl = record.getTTL();
+        event.outcome = outcome;
+        event.commit();
+    }
+
+    static void cacheExpire(DNSNode node, int records) {
+        CacheExpire event = new CacheExpire();
+        if (!event.isEnabled()) return;
+        event.name = node.getHostName();
+        event.type = node.getType().name();
+        event.records = records;
+        event.commit();
+    }
+
+    static void cacheEvict(DNSName name, int records) {
+        CacheEvict event = new CacheEvict();
+        if (!event.isEnabled()) return;
+        event.name = name.isRoot() ? "." : name.toString();
+        event.records = records;
+        event.commit();
+    }
+
+    static void step(DNSNode question, String step, DNSNode node, DNSName zone, InetAddress server, String detail) {
+        ResolutionStep event = new ResolutionStep();
+        if (!event.isEnabled()) return;
+        event.question = question.getHostName() + " " + question.getType();
+        event.step = step;
+        event.name = node != null ? node.getHostName() + " " + node.getType() : null;
+        event.zone = zone == null ? null : zone.isRoot() ? "." : zone.toString();
+        event.server = server != null ? server.getHostAddress() : null;
+        event.detail = detail;
+        event.commit();
+    }
+
+    static void lookup(Resolution resolution, long latency) {
+        Lookup event = new Lookup();
+        if (!event.isEnabled()) return;
+        event.question = resolution.getQuestion().getHostName();
+        event.type = resolution.getQuestion().getType().name();
+        event.status = resolution.getStatus().name();
+        event.answers = resolution.getAnswers().size();
+        event.queries = resolution.getQueryCount();
+        event.retries = resolution.getRetryCount();
+        event.latency = latency;
+        event.failure = resolution.getFailure();
+        event.commit();
+    }
+}
@@ -4,36 +4,101 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.net.DatagramPacket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.math.BigInteger;
 import java.lang.*;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class DNSLookupService {
 
  private static final int DEFAULT_DNS_PORT = 53;
- private static final int MAX_RETRIES = 2; // max number of retries for sending UDP messages
- private static final int MAX_INDIRECTION_LEVEL = 10;
  private static final int TIMEOUT = 5000;
  private static final int MAX_RESPONSE_SIZE = 1024; // Max number of bytes of response buffer 
  private static final int MAX_SEND_SIZE = 512; // max number of bytes to send
+ private static final long DEFAULT_SNAPSHOT_INTERVAL = 60; // seconds between two cache snapshots
+ private static final long DEFAULT_ROOT_ZONE_CHECK = 30; // seconds between two checks of the root zone file
+ private static final long DEFAULT_OVERLAY_CHECK = 30; // seconds between two checks of the static names file
+ private static final int DEFAULT_SERVER_THREADS = 64; // workers answering client queries in server mode
+ private static final int RACE_DELAY = 50; // ms the preferred address of a server is given before the other family is raced
+ private static final int SOCKET_REUSE = 100; // queries sent from the socket of a thread before it is replaced by one on a new port
 
 
  private static InetAddress rootServer;
- private static boolean verboseTracing = false;
+ private static int upstreamPort = Integer.getInteger("dnslookup.upstreamPort", DEFAULT_DNS_PORT); // port name servers are queried on
+ private static boolean serving = false; // true when answering clients as a server, which turns per-query output off
+ private static Tracer tracer = Tracer.fromProperties(); // off unless set with -Ddnslookup.trace=<sink> or the trace command
+ private static String traceSink = System.getProperty("dnslookup.trace", "console"); // console, file:<path> or binary:<path>
  private static DatagramSocket socket;
- private static boolean endDotFlag = false; // flag to determine if the domain being searched ends with ".". Default is false
- private static String lookupString = "";
 
 
- private static DNSCache cache = DNSCache.getInstance();
+ private static DNSRecordCache cache = createCache();
+ private static CNAMEChainCache chainCache = CNAMEChainCache.getInstance();
+ private static ResolutionBudget budget = ResolutionBudget.fromSystemProperties();
+ private static AddressFamily addressFamily = AddressFamily.ANY; // set with -Ddnslookup.addressFamily=v4|v6|any, read in main
 
  private static Random random = new Random();
 
+ private static Path snapshotFile; // set with -Ddnslookup.snapshot=<file>, null if snapshots are off
+ private static ScheduledExecutorService snapshotSaver;
+
+ private static RootZoneMirror rootMirror; // set with -Ddnslookup.rootZone=<file>, null if root referrals come from rootServer
+ private static ScheduledExecutorService rootMirrorWatcher;
+
+ private static StaticOverlay staticOverlay; // set with -Ddnslookup.overlay=<file>, null if there are no static names
+ private static ScheduledExecutorService staticOverlayWatcher;
+
+ private static List < AuthoritativeZone > zones = Collections.emptyList(); // set with -Ddnslookup.zones=<file>[,<file>...]
+
+ private static ResolverMetrics metrics = ResolverMetrics.getInstance();
+ private static MetricsServer metricsServer; // set with -Ddnslookup.metricsPort=<port>, null if metrics are not served
+
+ private static UpstreamPool forwarders; // set with -Ddnslookup.forwarders=<address[=weight],...>, null to resolve iteratively
+
+ private static final ThreadLocal < UpstreamSocket > upstreamSockets = ThreadLocal.withInitial(UpstreamSocket::new);
+
+ /**
+  * The socket a resolving thread queries name servers from, with its packets and receive buffer, reused from one
+  * query to the next instead of being created for each. Responses are matched to their query by transaction ID, so a
+  * late response to an earlier query is ignored. The socket is replaced every {@link #SOCKET_REUSE} queries, so that
+  * the source port of the queries does not stay the same, and after an error.
+  */
+ private static final class UpstreamSocket {
+  final byte[] receiveBuf = new byte[MAX_RESPONSE_SIZE];
+  final DatagramPacket receivePack = new DatagramPacket(receiveBuf, receiveBuf.length);
+  final DatagramPacket sendPack = new DatagramPacket(new byte[0], 0);
+  private DatagramSocket socket;
+  private int queries;
+
+  /**
+   * @return The socket to send the next query from
+   */
+  DatagramSocket next() throws SocketException {
+   if (socket == null || queries >= SOCKET_REUSE) {
+    close();
+    socket = new DatagramSocket();
+    queries = 0;
+   }
+   queries++;
+   receivePack.setLength(MAX_RESPONSE_SIZE);
+   return socket;
+  }
+
+  void close() {
+   if (socket != null) {
+    socket.close();
+    socket = null;
+   }
+  }
+ }
+
  /**
   * Main function, called when program is first invoked.
   *
@@ -56,6 +121,13 @@ public class DNSLookupService {
    System.exit(1);
   }
 
+  try {
+   addressFamily = AddressFamily.fromSystemProperty();
+  } catch (IllegalArgumentException e) {
+   System.err.println("Invalid address family " + System.getProperty("dnslookup.addressFamily") + ". Must be one of:\n\tv4, v6, any");
+   System.exit(1);
+  }
+
   try {
    socket = new DatagramSocket();
    socket.setSoTimeout(5000);
@@ -64,6 +136,19 @@ public class DNSLookupService {
    System.exit(1);
   }
 
+  startCacheSnapshots();
+  startRootMirror();
+  startStaticOverlay();
+  startZones();
+  startForwarding();
+  startTracing();
+  startMetrics();
+
+  if (System.getProperty("dnslookup.serverPort") != null) {
+   serve();
+   return;
+  }
+
   Scanner in = new Scanner(System.in);
   Console console = System.console();
   do {
@@ -109,15 +194,15 @@ public class DNSLookupService {
    } else if (commandArgs[0].equalsIgnoreCase("trace")) {
     // TRACE: Turn trace setting on or off
     if (commandArgs.length == 2) {
-     if (commandArgs[1].equalsIgnoreCase("on"))
-      verboseTracing = true;
-     else if (commandArgs[1].equalsIgnoreCase("off"))
-      verboseTracing = false;
+     if (commandArgs[1].equalsIgnoreCase("on")) {
+      if (!tracer.isEnabled() && !setTraceSink()) continue;
+     } else if (commandArgs[1].equalsIgnoreCase("off"))
+      tracer.setSink(null);
      else {
       System.err.println("Invalid call. Format:\n\ttrace on|off");
       continue;
      }
-     System.out.println("Verbose tracing is now: " + (verboseTracing ? "ON" : "OFF"));
+     System.out.println("Verbose tracing is now: " + (tracer.isEnabled() ? "ON" : "OFF"));
     } else {
      System.err.println("Invalid call. Format:\n\ttrace on|off");
      continue;
@@ -139,18 +224,42 @@ public class DNSLookupService {
      System.err.println("Invalid call. Format:\n\tlookup hostName [type]");
      continue;
     }
-    endDotFlag = isEndWithDot(commandArgs[1]);
-    lookupString = commandArgs[1];
-    findAndPrintResults(commandArgs[1], type);
+    DNSNode node;
+    try {
+     node = new DNSNode(commandArgs[1], type);
+    } catch (IllegalArgumentException e) {
+     System.err.println("Invalid domain name (" + e.getMessage() + ").");
+     continue;
+    }
+    findAndPrintResults(node);
    } else if (commandArgs[0].equalsIgnoreCase("dump")) {
     // DUMP: Print all results still cached
     cache.forEachNode(DNSLookupService::printResults);
+   } else if (commandArgs[0].equalsIgnoreCase("stats")) {
+    // STATS: Print the counters and latency percentiles of the lookups done so far
+    System.out.println(ResolverMetrics.getInstance().report());
+   } else if (commandArgs[0].equalsIgnoreCase("flush")) {
+    // FLUSH: Drop all cached results for a name and every name below it
+    if (commandArgs.length == 2) {
+     try {
+      DNSName zone = DNSName.of(commandArgs[1]);
+      int dropped = cache.invalidateSubtree(zone);
+      int chains = chainCache.invalidateSubtree(zone);
+      System.out.println("Dropped " + dropped + " cached records and " + chains + " CNAME chains");
+     } catch (IllegalArgumentException e) {
+      System.err.println("Invalid domain name (" + e.getMessage() + ").");
+     }
+    } else {
+     System.err.println("Invalid call. Format:\n\tflush domain");
+    }
    } else {
     System.err.println("Invalid command. Valid commands are:");
     System.err.println("\tlookup fqdn [type]");
     System.err.println("\ttrace on|off");
     System.err.println("\tserver IP");
     System.err.println("\tdump");
+    System.err.println("\tstats");
+    System.err.println("\tflush domain");
     System.err.println("\tquit");
     continue;
    }
@@ -158,320 +267,441 @@ public class DNSLookupService {
   } while (true);
 
   socket.close();
+  tracer.setSink(null);
+  if (metricsServer != null) metricsServer.close();
+  stopCacheSnapshots();
+  if (rootMirrorWatcher != null) rootMirrorWatcher.shutdownNow();
+  if (staticOverlayWatcher != null) staticOverlayWatcher.shutdownNow();
   System.out.println("Goodbye!");
  }
 
  /**
-  * Finds all results for a host name and type and prints them on the standard output.
-  *
-  * @param hostName Fully qualified domain name of the host being searched.
-  * @param type     Record type for search.
+  * Creates the cache backend selected by the {@code dnslookup.cache} system property: {@code offheap} keeps records
+  * outside the Java heap (see {@link OffHeapDNSCache}), anything else uses the default {@link DNSCache}.
   */
- private static void findAndPrintResults(String hostName, RecordType type) {
+ private static DNSRecordCache createCache() {
+  if ("offheap".equalsIgnoreCase(System.getProperty("dnslookup.cache")))
+   return new OffHeapDNSCache();
+  return DNSCache.getInstance();
+ }
 
-  DNSNode node = new DNSNode(hostName, type);
-  //  is initial call always with 0 even if recordType is CNAME
-  printResults(node, getResults(node, rootServer));
+ /**
+  * Starts tracing at startup if a trace sink is given with -Ddnslookup.trace, e.g. to trace a server to a file.
+  */
+ private static void startTracing() {
+  if (System.getProperty("dnslookup.trace") != null && setTraceSink()) {
+   System.out.println("Tracing to " + traceSink);
+  }
  }
 
  /**
-  * Finds all the result for a specific node.
+  * Starts tracing to the configured sink.
   *
-  * @param node             Host and record type to be used for search.
-  * @param indirectionLevel Control to limit the number of recursive calls due to CNAME redirection.
-  *                         The initial call should be made with 0 (zero), while recursive calls for
-  *                         regarding CNAME results should increment this value by 1. Once this value
-  *                         reaches MAX_INDIRECTION_LEVEL, the function prints an error message and
-  *                         returns an empty set.
-  * @return A set of resource records corresponding to the specific query requested.
+  * @return true if the sink could be opened.
+  */
+ private static boolean setTraceSink() {
+  try {
+   tracer.setSink(Tracer.openSink(traceSink));
+   return true;
+  } catch (IOException | IllegalArgumentException e) {
+   System.err.println("Invalid trace sink " + traceSink + " (" + e.getMessage() + ").");
+   return false;
+  }
+ }
 
-  // NOTEl TOOK OUT INDIRECTION LEVEL
-  */
- private static Set < ResourceRecord > getResults(DNSNode node, InetAddress DNSIA) {
-  Set < ResourceRecord > cacheResults = cache.getCachedResults(node);
-  if (!cacheResults.isEmpty()) {
-   return cacheResults;
-  }
-  // CNAME prediction, assume the node is a CNAME and resolve
-  String nodeHostName = node.getHostName();
-  RecordType nodeRecordType = node.getType();
-  RecordType cName = RecordType.CNAME;
-
-  DNSNode CNameNode = new DNSNode(nodeHostName, cName);
-  Set < ResourceRecord > cNameResults = cache.getCachedResults(CNameNode);
-  if (!cNameResults.isEmpty()) {
-   // if the predicted CNAME is in the cache 
-   // System.out.println("CNAME prediction correct");
-   Set < ResourceRecord > results = resolveCNAME(CNameNode, nodeRecordType, 0); // if prediction is correct resolve the CNAME
-   //  printCacheContents(returnCache);
-   for (ResourceRecord record: results) {
-    InetAddress ipAddress = record.getInetResult(); // should be an ip address
-    ResourceRecord cacheRecord = new ResourceRecord(nodeHostName, nodeRecordType, record.getTTL(), ipAddress);
-    cache.addResult(cacheRecord);
+ /**
+  * Starts serving the metrics of the resolver in the Prometheus text format if a port is given with
+  * -Ddnslookup.metricsPort, on the loopback address unless another is given with -Ddnslookup.metricsAddress.
+  */
+ private static void startMetrics() {
+  Integer port = Integer.getInteger("dnslookup.metricsPort");
+  if (port == null) return;
+  String address = System.getProperty("dnslookup.metricsAddress");
+  try {
+   InetSocketAddress bind = address == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+    : new InetSocketAddress(InetAddress.getByName(address), port);
+   metricsServer = MetricsServer.start(bind, metrics, cache);
+   System.out.println("Serving metrics on http://" + bind.getHostString() + ":" + metricsServer.getPort() + MetricsServer.PATH);
+  } catch (IOException e) {
+   System.err.println("Could not serve metrics on port " + port + " (" + e.getMessage() + ").");
+   System.exit(1);
+  }
+ }
+
+ /**
+  * Loads the zone files named by the {@code dnslookup.zones} system property (if any), separated by commas. Names in
+  * these zones are answered from the zones, ahead of the cache and the network.
+  */
+ private static void startZones() {
+  String zonesProperty = System.getProperty("dnslookup.zones");
+  if (zonesProperty == null || zonesProperty.isEmpty()) return;
+  List < AuthoritativeZone > loaded = new ArrayList < > ();
+  for (String zoneFile: zonesProperty.split(",")) {
+   try {
+    AuthoritativeZone zone = AuthoritativeZone.load(Paths.get(zoneFile.trim()));
+    loaded.add(zone);
+    System.out.println("Loaded zone " + zone + " from " + zoneFile.trim());
+   } catch (IOException e) {
+    System.err.println("Could not load zone (" + e.getMessage() + ").");
    }
-   return results;
-  } else {
-   //  System.out.println("CNAME prediction failed, make additional queries");
-   //  else the prediction was wrong, therefore perform query
-   makeAdditionalQueries(node, DNSIA);
-   return cache.getCachedResults(node);
   }
+  zones = loaded;
  }
 
- // node and InetAddress
-  /**
-  * Retrieves DNS results from a specified DNS server. Queries are sent in iterative mode,
-  * and the query is repeated with a new server if the provided one is non-authoritative.
-  * Results are stored in the cache.
-  *
-  * @param node   Host name and record type to be used for the query.
-  * @param DNSIA InetAddress of the server to be used for the query.
+ /**
+  * Switches to forwarding mode if the {@code dnslookup.forwarders} system property names recursive resolvers:
+  * lookups are then forwarded to them instead of iterating from the root server, with the same cache in front.
   */
- private static boolean makeAdditionalQueries(DNSNode node, InetAddress DNSIA) {
+ private static void startForwarding() {
+  String forwardersProperty = System.getProperty("dnslookup.forwarders");
+  if (forwardersProperty == null || forwardersProperty.isEmpty()) return;
   try {
-   DNSQuery qf = new DNSQuery(node);
-   qf.DNSIA = DNSIA;
-   DNSResponse qr = send_udp_message(qf, 1);
-   if (qr.isPacketDropped) {
-    //  System.out.println("Packet dropped, terminate");
-    // terminate
-    return true;
-   }
-   if (qr.isAuth) {
-    // if DNS response is authorartive and is valid authoratative 
-    if (qr.validAuthFlag) {
-     // if answer contains no CNAMES terminate
-     // TODO where to cache?
-     //  cacheDNSResponse(qr);
-
-     //   System.out.println("Response is Authoratative (valid)");
-     boolean isCNAME = isLookupCNAME(node);
-     if (!isCNAME) {
-      // lookupString is not CNAME and desired results are in cache
-      //    System.out.println("Response is Authoratative and contains desired results (type and hoststring) - Terminate");
-      return true;
-     } else {
-      //   System.out.println("Response contains CNAME - require resolve");
-      // lookupString is a CNAME or desired results are not in cache
-      String serverNodeStr = node.getHostName();
-      RecordType CNameType = RecordType.CNAME;
-      RecordType serverNodeType = node.getType();
-      // make a CNAME node for the lookupstring a since we know it is a CNAME
-      DNSNode CNameNode = new DNSNode(serverNodeStr, CNameType);
-      Set < ResourceRecord > returnCache = resolveCNAME(CNameNode, serverNodeType, 0);
-      //  printCacheContents(returnCache);
-      // TODO CACHE ADDITONAL CNAMES
-      for (ResourceRecord record: returnCache) {
-       InetAddress ipAddress = record.getInetResult(); // should be an ip address
-       ResourceRecord cacheRecord = new ResourceRecord(serverNodeStr, serverNodeType, record.getTTL(), ipAddress);
-       cache.addResult(cacheRecord);
-      }
-      return true;
-     }
-    } else {
-     // Auth error: Reached Authoritative server but no answer records in answer section most likely a SOA response. Terminate
-     return true;
-    }
-   } else {
-    // check if dead-end reached: Only name servers and no additional info or A records. Need to resolve the name server on rootDNS
-    if (qr.queryNSFlag) {
-     //  System.out.println("Dead end reached, resolve name servers with root DNS server");
-     List < Map < String, String >> nsMap = qr.nameRecords;
-     String nameServerIP = queryNameRecords(nsMap);
-     String lookupStr = node.getHostName();
-     // or QType TODO
-     DNSNode newNode = new DNSNode(lookupStr, node.getType());
-     try {
-      InetAddress nameServerIA = InetAddress.getByName(nameServerIP);
-      getResults(newNode, nameServerIA);
-     } catch (UnknownHostException err) {
-      System.err.println(err);
-      throw new RuntimeException(err);
-      // TODO
-     }
-     // terminate
-     return true;
-    }
-    // otherwise perform querries from returned response
-    List < String > serversArr = qr.serversToQueryArr;
-    for (int i = 0; i < serversArr.size(); i++) {
-     String ipAddress = serversArr.get(i);
-     InetAddress serverIA = InetAddress.getByName(ipAddress);
-     boolean isTerminated = makeAdditionalQueries(node, serverIA);
-     if (isTerminated != false) {
-      return true;
-     }
-    }
-    return false;
+   forwarders = UpstreamPool.parse(forwardersProperty, TIMEOUT);
+   System.out.println("Forwarding queries to " + forwarders.getUpstreams().size() + " recursive resolvers");
+  } catch (IllegalArgumentException e) {
+   System.err.println("Invalid forwarders (" + e.getMessage() + ").");
+   System.exit(1);
+  }
+ }
+
+ /**
+  * Restores the cache from the snapshot file named by the {@code dnslookup.snapshot} system property (if any),
+  * and starts saving the cache back to that file every {@code dnslookup.snapshotInterval} seconds.
+  */
+ private static void startCacheSnapshots() {
+  String snapshotProperty = System.getProperty("dnslookup.snapshot");
+  if (snapshotProperty == null || snapshotProperty.isEmpty()) return;
+  snapshotFile = Paths.get(snapshotProperty);
+  if (snapshotFile.toFile().exists()) {
+   try {
+    int restored = DNSCacheSnapshot.load(cache, snapshotFile);
+    System.out.println("Restored " + restored + " cached records from " + snapshotFile);
+   } catch (IOException e) {
+    System.err.println("Could not restore cache snapshot (" + e.getMessage() + ").");
    }
-  } catch (UnknownHostException err) {
-   System.err.println("Error occured when making additonal queries");
-   throw new RuntimeException(err);
-  } catch (ArrayIndexOutOfBoundsException err4) {
-   System.err.println("Error occured when making additonal queries");
-   throw new RuntimeException(err4);
-  } catch (RuntimeException err2) {
-   System.err.println("Error occured when making additonal queries");
-   // terminate here TODO should throw err2 // HERE
-   return true;
   }
+  long interval = Long.getLong("dnslookup.snapshotInterval", DEFAULT_SNAPSHOT_INTERVAL);
+  snapshotSaver = DNSCacheSnapshot.schedulePeriodicSave(cache, snapshotFile, interval);
  }
 
- // if the node (hoststring and type) desired does not exist in the cache
- // the answer should have resolved to a CNAME (lookupString is type CNAME then)
  /**
- * Determine if the domain name being queried is a CNAME that exists in the cache.
-   if the node (hoststring and type) desired does not exist in the cache the answer should have resolved to a CNAME (lookupString is type CNAME then).
- *
- * @param node             Host and record type to be used for search.
- * @return  true if  lookup String (domain name being queried) exists in cache. else false
- */
- private static boolean isLookupCNAME(DNSNode node) {
-  Set < ResourceRecord > nodeRecords = cache.getCachedResults(node);
-  String nodeHostString = node.getHostName();
-  RecordType cNAME = RecordType.CNAME;
-  DNSNode cnameNode = new DNSNode(nodeHostString, cNAME);
-  Set < ResourceRecord > cnameRecord = cache.getCachedResults(cnameNode); // extra guard to check if the host string and CNAME type exists in cache
-  // if the desired host string and type is not found in cache and the CNAME type of the host string is not found in cache something went wrong
-  return nodeRecords.isEmpty() && !cnameRecord.isEmpty();
+  * Stops the periodic cache snapshots and writes one last snapshot before exiting.
+  */
+ private static void stopCacheSnapshots() {
+  if (snapshotFile == null) return;
+  snapshotSaver.shutdownNow();
+  try {
+   DNSCacheSnapshot.save(cache, snapshotFile);
+  } catch (IOException e) {
+   System.err.println("Could not save cache snapshot (" + e.getMessage() + ").");
+  }
+ }
+
+ /**
+  * Loads the local root zone mirror from the file named by the {@code dnslookup.rootZone} system property (if any),
+  * and checks the file for changes every {@code dnslookup.rootZoneCheck} seconds.
+  */
+ private static void startRootMirror() {
+  String rootZoneProperty = System.getProperty("dnslookup.rootZone");
+  if (rootZoneProperty == null || rootZoneProperty.isEmpty()) return;
+  Path rootZoneFile = Paths.get(rootZoneProperty);
+  try {
+   rootMirror = RootZoneMirror.load(rootZoneFile);
+   System.out.println("Loaded root zone from " + rootZoneFile + " (" + rootMirror.getZoneCount() + " TLDs)");
+  } catch (IOException e) {
+   System.err.println("Could not load root zone (" + e.getMessage() + "), using the root server.");
+   return;
+  }
+  long interval = Long.getLong("dnslookup.rootZoneCheck", DEFAULT_ROOT_ZONE_CHECK);
+  rootMirrorWatcher = rootMirror.watch(interval);
  }
 
+ /**
+  * Loads the static names from the hosts or zone file named by the {@code dnslookup.overlay} system property (if
+  * any), and checks the file for changes every {@code dnslookup.overlayCheck} seconds.
+  */
+ private static void startStaticOverlay() {
+  String overlayProperty = System.getProperty("dnslookup.overlay");
+  if (overlayProperty == null || overlayProperty.isEmpty()) return;
+  Path overlayFile = Paths.get(overlayProperty);
+  try {
+   staticOverlay = StaticOverlay.load(overlayFile);
+   System.out.println("Loaded static names from " + overlayFile + " (" + staticOverlay.getNameCount() + " names)");
+  } catch (IOException e) {
+   System.err.println("Could not load static names (" + e.getMessage() + ").");
+   return;
+  }
+  long interval = Long.getLong("dnslookup.overlayCheck", DEFAULT_OVERLAY_CHECK);
+  staticOverlayWatcher = staticOverlay.watch(interval);
+ }
+
+ /**
+  * Runs as a DNS server answering clients on the UDP port given by the {@code dnslookup.serverPort} system property,
+  * with {@code dnslookup.serverListeners} receive loops (one per core by default) and {@code dnslookup.serverThreads}
+  * workers. The server keeps the process running until it is stopped; the cache snapshot (if any) is saved on the way
+  * out.
+  */
+ private static void serve() {
+  int port = Integer.getInteger("dnslookup.serverPort", DEFAULT_DNS_PORT);
+  int listeners = Integer.getInteger("dnslookup.serverListeners", Runtime.getRuntime().availableProcessors());
+  int threads = Integer.getInteger("dnslookup.serverThreads", DEFAULT_SERVER_THREADS);
+  setServing(true);
+  try {
+   DNSServer server = new DNSServer(new InetSocketAddress(port), listeners, threads, DNSLookupService::answer);
+   System.out.println("Answering DNS queries on UDP port " + server.getPort() + " with " + listeners + " listeners"
+    + (server.isReusePort() ? " (SO_REUSEPORT)" : "") + " and " + threads + " workers");
+   Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    server.close();
+    stopCacheSnapshots();
+    System.out.println("Served: " + server);
+   }));
+  } catch (IOException e) {
+   System.err.println("Could not listen on UDP port " + port + " (" + e.getMessage() + ").");
+   System.exit(1);
+  }
+ }
 
- // NOTE: THIS METHOD TENDS TO HAVE A LOT OF CACHE MISSES, THEREFORE IT IS QUITE NAIVE. By the time I reach here the cached A record tends to have expired therefore it performs more queries
  /**
-  * Resolve a CNAME by either performing a query to root server if neccessary (No matched A records were in answer) or return cache results
+  * Answers a question received by the server: the CNAME records followed, then the records found for the target.
+  * Records come from the static names, the authoritative zones, the cache or a resolution, as for the {@code lookup}
+  * command. A negative answer keeps the response code (NXDOMAIN or not) and SOA record found by the resolution.
   *
-  * @param node             Host and record type to be used for search.
-    * @param dType             The desired type
-  * @param indirectionLevel   The current number of searches for the CNAME.
-
-  * @return A Set {@code Set<ResourceRecord} of the resolved results of CNAME
-  */
- private static Set < ResourceRecord > resolveCNAME(DNSNode node, RecordType dType, int indirectionLevel) {
-
-  if (indirectionLevel > MAX_INDIRECTION_LEVEL) {
-   System.err.println("Maximum number of indirection levels reached.");
-   return Collections.emptySet();
-  }
-
-  String nodeHostString = node.getHostName();
-  Set < ResourceRecord > cacheResults = cache.getCachedResults(node);
-  // printCacheContents(cacheResults);
-  // if node hoststring is not a CNAME and is found in cache with desired type resolve
-  // 1st case with desired type in answer with multiple CNAMES (or single)\
-  DNSNode checkDesiredNode = new DNSNode(nodeHostString, dType);
-  Set < ResourceRecord > desiredCacheResults = cache.getCachedResults(checkDesiredNode);
-  if (cacheResults.isEmpty() && !desiredCacheResults.isEmpty()) {
-   // Case 1: multiple CNAMES with correct types in answer
-   // System.out.println("case where CNAME is resolved in answer section");
-   return desiredCacheResults;
-  } else {
-   // case with Just CNAMES in answer, need to perform additonal query
-   if (cacheResults.isEmpty() && desiredCacheResults.isEmpty()) {
-    //  System.out.println("case where only CNAMES in answer section - perform additional query");
-    return getResults(checkDesiredNode, rootServer); // PERFORM CNAME QUERY
-    // return desiredCacheResults; // should return an empty cache
-   } else {
-    // otherwise keep checking the cache with the names in answer section
-    String newNodeStr = "";
-    RecordType CNAMEType = RecordType.CNAME;
-    for (ResourceRecord record: cacheResults) {
-     // this should only iterate once
-     newNodeStr = record.getTextResult().trim();
-     //  System.out.println("Iterating once");
-    }
-    DNSNode cNAMENode = new DNSNode(newNodeStr, CNAMEType);
-    Set < ResourceRecord > resultRecords = resolveCNAME(cNAMENode, dType, indirectionLevel + 1);
-    return resultRecords;
+  * @param node Host and record type asked by a client.
+  * @return The answer, or null if the resolution failed.
+  */
+ static DNSServer.Result answer(DNSNode node) {
+  if (staticOverlay != null) {
+   Set < ResourceRecord > staticResults = staticOverlay.lookup(node);
+   if (staticResults != null) {
+    return DNSServer.Result.of(new ArrayList < > (staticResults));
    }
   }
+  Resolution resolution = newResolution(node);
+  runResolution(resolution);
+  if (resolution.getStatus() == Resolution.Status.FAILED) {
+   return null;
+  }
+  List < ResourceRecord > records = new ArrayList < > (resolution.getCNAMEs());
+  records.addAll(resolution.getAnswers());
+  return new DNSServer.Result(records, resolution.getResponseCode(), resolution.getAuthority(),
+   resolution.isAuthoritative());
  }
 
  /**
-  * @param nameRecords  A {@code List<Map<String, String>>} of all the name records to query.
-  * @return The ip address (rdata) of the A record found for a name server
+  * Sets the zones answered locally.
+  *
+  * @param authoritative The zones, possibly empty.
   */
+ static void setZones(List < AuthoritativeZone > authoritative) {
+  zones = authoritative;
+ }
 
- private static String queryNameRecords(List < Map < String, String >> nameRecords) {
-  for (int i = 0; i < nameRecords.size(); i++) {
-   String hostString = nameRecords.get(i).get("rdata");
-   DNSNode nsNode = new DNSNode(hostString, RecordType.A);
-   boolean nameServerFound = findNameServerIP(nsNode, rootServer);
-   // System.out.println("nameServerFound: " + nameServerFound);
-   // if name server is found consult the cache associated with the node
-   if (nameServerFound) {
-    // potentially cache miss
-    Set < ResourceRecord > nsRecordsSet = cache.getCachedResults(nsNode);
-    String nsNodeName = nsNode.getHostName();
-    //System.out.println("Name server found with hostname: " + nsNode.getHostName());
-    for (ResourceRecord record: nsRecordsSet) {
-     String recordName = record.getHostName();
-     //ln(record.getHostName());
-     if (Objects.equals(recordName, nsNodeName)) {
-      // System.out.println("CACHE CONTAINS THE NAME SERVER IP");
-      return record.getTextResult();
-     }
-    }
+ /**
+  * Sets the recursive resolvers lookups are forwarded to.
+  *
+  * @param pool The recursive resolvers, or null to resolve iteratively from the root server.
+  */
+ static void setForwarders(UpstreamPool pool) {
+  forwarders = pool;
+ }
+
+ /**
+  * Sets the root server iterative resolutions start at, when no closer zone is known.
+  *
+  * @param root The root server.
+  */
+ static void setRootServer(InetAddress root) {
+  rootServer = root;
+ }
+
+ /**
+  * Sets the UDP port name servers are queried on, normally 53. Useful to point the resolver at a stand-in server.
+  *
+  * @param port The port of every name server.
+  */
+ static void setUpstreamPort(int port) {
+  upstreamPort = port;
+ }
+
+ /**
+  * Turns the per-query error output off, as when answering clients as a server. Traces are only written when a
+  * trace sink is set.
+  *
+  * @param quiet true to turn the output off.
+  */
+ static void setServing(boolean quiet) {
+  serving = quiet;
+ }
+
+ /**
+  * Sets the static names answered before the cache and the network.
+  *
+  * @param overlay The static names, or null to resolve every name.
+  */
+ static void setStaticOverlay(StaticOverlay overlay) {
+  staticOverlay = overlay;
+ }
+
+ /**
+  * Sets the local root zone mirror used instead of the root server for top-level referrals.
+  *
+  * @param mirror The root zone mirror, or null to always start at the root server.
+  */
+ static void setRootMirror(RootZoneMirror mirror) {
+  rootMirror = mirror;
+ }
+
+ /**
+  * Resolves a host name starting at the given root server, without printing the results. The records found on
+  * the way are cached exactly as for the interactive {@code lookup} command.
+  *
+  * @param hostName Fully qualified domain name of the host being searched.
+  * @param type     Record type for search.
+  * @param root     The root server to start the search at.
+  * @return A set of resource records corresponding to the specific query requested.
+  */
+ static Set < ResourceRecord > lookup(String hostName, RecordType type, InetAddress root) {
+  rootServer = root;
+  return getResults(new DNSNode(hostName, type));
+ }
+
+ /**
+  * Finds all results for a host name and type and prints them on the standard output.
+  *
+  * @param node Host name and record type for search.
+  */
+ private static void findAndPrintResults(DNSNode node) {
+
+  //  is initial call always with 0 even if recordType is CNAME
+  Set < ResourceRecord > results = getResults(node);
+  tracer.awaitDrained(); // print the results after the trace of the lookup
+  printResults(node, results);
+ }
+
+ /**
+  * Finds all the results for a specific node: from the static names if the node's name is one of them, otherwise by
+  * running an iterative resolution (see {@link Resolution}), which answers from the authoritative zones and the
+  * cache when it can.
+  *
+  * @param node Host and record type to be used for search.
+  * @return A set of resource records corresponding to the specific query requested.
+  */
+ private static Set < ResourceRecord > getResults(DNSNode node) {
+  // static names are answered from the overlay only, whatever the type asked
+  if (staticOverlay != null) {
+   Set < ResourceRecord > staticResults = staticOverlay.lookup(node);
+   if (staticResults != null) {
+    return staticResults;
    }
   }
-  // HARD fail if this is the case
-  throw new RuntimeException("Name servers query finished, could not find ip address");
+  Resolution resolution = newResolution(node);
+  runResolution(resolution);
+  if (resolution.getStatus() == Resolution.Status.FAILED) {
+   System.err.println(resolution.getFailure());
+  }
+  return resolution.getAnswers();
  }
 
- // return true if name server IP is found otherwise false
  /**
-  * @param node  A DNSNode with desired hostname and type
-  * @param queryIA The InetAddress of the DNS server you are querying to
-  * @return a boolean indicating if the name server IP is found
+  * Starts the resolution of a node: forwarded to the recursive resolvers in forwarding mode, iterative otherwise.
+  *
+  * @param node Host and record type to be resolved.
+  * @return The resolution, to be run by {@link #runResolution(Resolution)}.
   */
- private static boolean findNameServerIP(DNSNode node, InetAddress queryIA) {
-  DNSQuery qf = new DNSQuery(node);
-  String nodeString = node.getHostName();
-  qf.DNSIA = queryIA;
-  Set < ResourceRecord > cacheResults = cache.getCachedResults(node);
-  if (!cacheResults.isEmpty()) {
-   return true; //
+ private static Resolution newResolution(DNSNode node) {
+  if (forwarders != null) {
+   UpstreamPool pool = forwarders;
+   return Resolution.forwarding(node, cache, chainCache, DNSLookupService::zoneFor, pool::order, budget);
   }
-  try {
-   DNSResponse qr = send_udp_message(qf, 1);
-   // if UDP message failed max number of tries
-   if (qr.isPacketDropped) {
-    // HERE
-    System.err.println("UDP message exceeded max tries");
-    // go to the next node;
-    return false;
+  return new Resolution(node, cache, chainCache, DNSLookupService::zoneFor, DNSLookupService::startServers,
+   budget, addressFamily);
+ }
+
+ /**
+  * Finds the deepest loaded zone that is authoritative for a name, which a resolution looks the name up in.
+  *
+  * @param name Host name to be looked up.
+  * @return The zone, or null if no zone is authoritative for the name.
+  */
+ private static AuthoritativeZone zoneFor(DNSName name) {
+  AuthoritativeZone deepest = null;
+  for (AuthoritativeZone zone: zones) {
+   if (zone.isAuthoritativeFor(name) &&
+    (deepest == null || zone.getOrigin().labelCount() > deepest.getOrigin().labelCount())) {
+    deepest = zone;
    }
-   boolean aRecordContainsNS = aRecordsContainsNSIP(nodeString, qr.aRecords);
-   if (aRecordContainsNS) {
-    return true;
-   } else {
-    // continue to query
-    List < String > serversArr = qr.serversToQueryArr;
-    for (int i = 0; i < serversArr.size(); i++) {
-     try {
-      // System.out.println("Resolving name servers: Servers to query");
-      //  qr.printServerArr();
-      //  System.out.println(serversArr.size());
-      InetAddress serverIA = InetAddress.getByName(serversArr.get(i));
-      boolean isFound = findNameServerIP(node, serverIA);
-      if (isFound != false) {
-       return true;
-      }
-     } catch (UnknownHostException err) {
-      // TODO
-      System.err.println(err);
-      return false;
+  }
+  return deepest;
+ }
+
+ /**
+  * Advances a resolution until it is over, sending each of its queries in turn and waiting for the response. The
+  * responses are cached before they are handed back to the resolution. Queries forwarded to a recursive resolver
+  * wait for a time derived from its response times, which are recorded in the upstream pool.
+  *
+  * @param resolution The resolution to run.
+  */
+ private static void runResolution(Resolution resolution) {
+  Resolution.Query query;
+  while ((query = resolution.nextQuery()) != null) {
+   DNSQuery qf = new DNSQuery(query.getNode(), query.isRecursionDesired());
+   qf.DNSIA = query.getServer();
+   UpstreamPool pool = query.isRecursionDesired() ? forwarders : null;
+   try {
+    long wait = pool != null ? pool.timeoutFor(query.getServer()) : TIMEOUT;
+    int timeout = (int) Math.max(1, Math.min(wait, resolution.getRemainingMillis()));
+    long sentAt = System.nanoTime();
+    DNSResponse response = send_udp_message(qf, query.getAlternate(), query.getAttempt(), timeout);
+    if (pool != null) {
+     if (response != null) {
+      pool.onResponse(query.getServer(), System.nanoTime() - sentAt);
+     } else {
+      pool.onTimeout(query.getServer(), timeout);
+     }
+    }
+    if (response != null) {
+     cacheDNSResponse(response, resolution.getQuestion().getHostName());
+     resolution.onResponse(response);
+    } else {
+     if (query.getAttempt() == Resolution.MAX_RETRIES && !serving) {
+      System.err.println("ERROR\tMaximum number of retries " + Resolution.MAX_RETRIES + " exceeded");
      }
+     resolution.onTimeout();
     }
-    return false;
+   } catch (RuntimeException err) {
+    resolution.onError(err.getMessage());
    }
-  } catch (RuntimeException err) {
-   System.err.println(err);
-   throw new RuntimeException(err);
-   // SERIOUSLY BREAK IF NAME SERVER CAN'T BE FOUND
   }
  }
 
+ /**
+  * Servers to start an iterative search at: the name servers of the closest zone cut of {@code hostName} found in
+  * the cache (if any), then the TLD servers given by the local root zone mirror (if loaded), followed by the root
+  * server as the last resort.
+  *
+  * @param hostName The domain name being searched.
+  * @return A non-empty list of zones and their servers, ordered from the deepest known zone to the root.
+  */
+ private static List < ZoneCut > startServers(String hostName) {
+  List < ZoneCut > cuts = new ArrayList < > ();
+  ZoneCut cut = ZoneCut.findClosest(cache, hostName);
+  if (cut != null) {
+   if (tracer.isEnabled()) {
+    tracer.message("Starting at cached zone cut " + cut);
+   }
+   cuts.add(cut);
+  }
+  ZoneCut referral = rootMirror != null ? rootMirror.findReferral(hostName) : null;
+  if (referral != null) {
+   if (cut == null && tracer.isEnabled()) {
+    tracer.message("Starting at root zone mirror referral " + referral);
+   }
+   cuts.add(referral);
+  }
+  cuts.add(new ZoneCut("", Collections.singletonList(rootServer)));
+  return cuts;
+ }
+
  private static void printCacheContents(Set < ResourceRecord > recordSet) {
   for (ResourceRecord rr: recordSet) {
    String hostString = rr.getHostName();
@@ -483,152 +713,163 @@ public class DNSLookupService {
   }
  }
 
- /**
-  * @param NSName  The Nameserver you are trying to search for
-  * @param aRecords A {@code List<Map<String, String>>} of the A records to search
-  * @return a boolean indicating if the Nameserver IPV4 address is found in the {@code aRecords}
-  */
- private static boolean aRecordsContainsNSIP(String NSName, List < Map < String, String >> aRecords) {
-  //System.out.println("The NSName " + NSName);
-  String cleanNSName = NSName.trim();
-  for (int i = 0; i < aRecords.size(); i++) {
-   Map < String, String > aRecord = aRecords.get(i);
-   String aRecordName = aRecord.get("name").trim();
-   String aIPV4 = aRecord.get("rdata");
-   //System.out.println(aRecordName);
-   if (Objects.equals(aRecordName, cleanNSName)) {
-    // System.out.println("A records contains " + NSName + " with IPV4 address " + aIPV4);
-    return true;
-   }
-  }
-  return false;
- }
-
  // udp in java send https://www.baeldung.com/udp-in-java
- // return true if response is a valid authoratative answer response, else false (keep querying)
 
  /**
+  * Sends a query once and waits for the response. Caching the response and retries are up to the caller. If an alternate server is given, the query is raced over both: it goes to {@code qf.DNSIA} first, then
+  * to the alternate if no response came within {@link #RACE_DELAY} (or right away if the first send failed, e.g.
+  * for an address family without a route), and the first response from either server is used.
+  *
   * @param qf  A {@code DNSQuery}
-  * @param numTrys  The number of current attempts to send a message to the DNS Server
-  * @return A {@code DNSResponse}
-  */
- private static DNSResponse send_udp_message(DNSQuery qf, int numTrys) throws RuntimeException {
-  if (numTrys > MAX_RETRIES) {
-   System.err.println("ERROR\tMaximum number of retries " + MAX_RETRIES + " exceeded");
-   byte[] blankBytes = new byte[0];
-   DNSResponse blankResponse = new DNSResponse(blankBytes);
-   // retiurn a non-useable DNSResponse if max attempts reached
-   return blankResponse;
-  }
-  String message = qf.queryString;
-  String hostName = qf.lookupName;
-  String typeInt = qf.type;
-  int typeCode = Integer.parseInt(typeInt);
-  String query_message = message.replace(" ", "").replace("\n", ""); // guard
-  // System.out.println("TO SEND: " + query_message);
-  byte[] data = Bytehelper.hexStringToByteArray(message);
-  DatagramPacket pack = new DatagramPacket(data, data.length, qf.DNSIA, DEFAULT_DNS_PORT);
+  * @param alternate  Another address of the same zone's servers to race against {@code qf.DNSIA}, or null
+  * @param numTrys  The number of current attempts to send this message to the DNS Server, starting at 1
+  * @param timeout  How long to wait for the response, in milliseconds
+  * @return A {@code DNSResponse}, or null if no response was received before the timeout
+  */
+ private static DNSResponse send_udp_message(DNSQuery qf, InetAddress alternate, int numTrys, int timeout) throws RuntimeException {
+  byte[] data = qf.message;
+  DNSEvents.Query event = new DNSEvents.Query();
+  event.begin();
+  boolean traced = tracer.sample();
+  long sentAt = System.nanoTime();
+  metrics.upstreamQueryStarted();
+  UpstreamSocket upstream = upstreamSockets.get();
   try {
-   DatagramSocket socket = new DatagramSocket();
-   byte[] receiveBuf = new byte[1024];
-   DatagramPacket receivePack = new DatagramPacket(receiveBuf, receiveBuf.length);
-   socket.setSoTimeout(TIMEOUT);
+   DatagramSocket socket = upstream.next();
+   byte[] receiveBuf = upstream.receiveBuf;
+   DatagramPacket receivePack = upstream.receivePack;
    long startTime = System.currentTimeMillis();
-   if (verboseTracing) {
-     FormatQueryTrace(qf);
+   long deadline = startTime + timeout;
+   if (traced) {
+    tracer.query(qf, qf.DNSIA, numTrys);
    }
-   socket.send(pack);
-   socket.receive(receivePack);
-   long endTime = System.currentTimeMillis();
-   socket.close();
-  System.out.println("Response received after " + (endTime - startTime) / 1000. + " seconds " + "(" + (numTrys - 1) + " retries)");
-   String receiveStr = Bytehelper.bytesToHex(receivePack.getData());
-  //System.out.println("Receive hexString: "+ receiveStr);
-   try {
-    DNSResponse extractedResponse = new DNSResponse(receivePack.getData());
-    cacheDNSResponse(extractedResponse);
-    if (verboseTracing) {
-     FormatResponseTrace(extractedResponse);
+   boolean sent = send(upstream, data, qf.DNSIA, alternate == null);
+   boolean received = false;
+   if (alternate != null && sent) {
+    // give the primary server a head start before racing the alternate
+    socket.setSoTimeout(Math.min(RACE_DELAY, timeout));
+    try {
+     receiveFrom(socket, receivePack, data, qf.DNSIA, null, startTime + RACE_DELAY);
+     received = true;
+    } catch (SocketTimeoutException err) {
+     // no response yet, race the alternate
     }
-    return extractedResponse;
-   } catch (RuntimeException err) {
-    // System.err.println("Caught error here: " + err);
-    throw new RuntimeException(err);
    }
-  } catch (SocketException err) {
-   // fail gracefully
-   // System.err.println(err);
-   throw new RuntimeException(err);
+   if (!received) {
+    if (alternate != null) {
+     if (traced) {
+      tracer.query(qf, alternate, numTrys);
+     }
+     send(upstream, data, alternate, !sent);
+    }
+    socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+    receiveFrom(socket, receivePack, data, qf.DNSIA, alternate, deadline);
+   }
+   long elapsed = System.nanoTime() - sentAt;
+   event.end();
+   if (receivePack.getLength() > 2 && (receiveBuf[2] & 0x02) != 0) {
+    metrics.truncatedResponse(); // no TCP transport to retry over, use the records that fit
+   }
+   DNSResponse extractedResponse = new DNSResponse(receiveBuf, receivePack.getLength());
+   event.finish(qf, receivePack.getAddress(), alternate, numTrys, receivePack.getLength(), extractedResponse.RCode, "response");
+   if (traced) {
+    // the tracer writes the message later, from a copy as the buffer is reused by the next query
+    tracer.response(extractedResponse, Arrays.copyOf(receiveBuf, receivePack.getLength()), receivePack.getLength(),
+     receivePack.getAddress(), numTrys, elapsed);
+   }
+   return extractedResponse;
   } catch (SocketTimeoutException err2) {
-   //  System.err.println(err2);
-   // Socket timed out, resend the message and increase the poll count
-   return send_udp_message(qf, numTrys + 1);
-   // TODO resend packet if not received output -1
+   // Socket timed out, the caller decides whether to resend the message
+   if (traced) {
+    tracer.timeout(qf, qf.DNSIA, numTrys, System.nanoTime() - sentAt);
+   }
+   metrics.upstreamQueryTimedOut(qf.DNSIA);
+   event.finish(qf, qf.DNSIA, alternate, numTrys, 0, -1, "timeout");
+   return null;
   } catch (IOException e1) {
-   // fail gracefully
-   //  System.err.println(e1);
+   // fail gracefully, with a new socket for the next query
+   upstream.close();
+   event.finish(qf, qf.DNSIA, alternate, numTrys, 0, -1, "error");
    throw new RuntimeException(e1);
+  } finally {
+   metrics.upstreamQueryEnded();
   }
  }
 
  /**
-  * Format the output trace
-  * @param qs  A {@code DNSQuery}
-  * @param qr  A {@code DNSResponse}
+  * Sends the query to one server, from the socket of the current thread.
+  *
+  * @param mustSend  If false, a failed send is reported by returning false instead of throwing
+  * @return true if the query was sent
   */
- private static void FormatResponseTrace(DNSResponse qr) {
-  // System.out.println("Query Id     " + qs.transID + " " + qs.lookupName + "  " + convertQType + " --> " + qs.DNSIA.getHostAddress()); // TODO???
-  String responseFormat = String.format("Response ID: %s Authoritative = %s", qr.responseID, qr.authFlag);
-  System.out.println(responseFormat);
-  // System.out.println("Response ID: " + qr.responseID + " " + "Authoritative " + "= " + qr.authFlag);
-  resourceRecordFormat("Answers", qr);
-  resourceRecordFormat("Nameservers", qr);
-  resourceRecordFormat("Additional Information", qr);
+ private static boolean send(UpstreamSocket upstream, byte[] data, InetAddress server, boolean mustSend) throws IOException {
+  try {
+   upstream.sendPack.setData(data);
+   upstream.sendPack.setAddress(server);
+   upstream.sendPack.setPort(upstreamPort);
+   upstream.socket.send(upstream.sendPack);
+   metrics.upstreamQuerySent(server);
+   return true;
+  } catch (IOException err) {
+   if (mustSend) {
+    throw err;
+   }
+   return false;
+  }
  }
 
- private static void FormatQueryTrace(DNSQuery qs) {
-  System.out.print("\n\n"); // begin with two blank lines
-  String convertQType = qs.convertType(Integer.parseInt(qs.type)); // convert type code to corresponding letter code (E.g 1 == A)
-  String queryFormat = String.format("Query ID     %s %s  %s --> %s", qs.transID, qs.lookupName, convertQType, qs.DNSIA.getHostAddress());
-  System.out.println(queryFormat);
+ /**
+  * Receives the next datagram coming from one of the given servers with the transaction ID of the query, ignoring any
+  * other (e.g. a late response to an earlier query sent from the same socket), until the deadline.
+  */
+ private static void receiveFrom(DatagramSocket socket, DatagramPacket receivePack, byte[] query, InetAddress server, InetAddress alternate, long deadline) throws IOException {
+  byte[] received = receivePack.getData();
+  while (true) {
+   socket.receive(receivePack);
+   InetAddress from = receivePack.getAddress();
+   if ((from.equals(server) || from.equals(alternate)) && receivePack.getLength() >= 2
+    && received[0] == query[0] && received[1] == query[1]) {
+    return;
+   }
+   long left = deadline - System.currentTimeMillis();
+   if (left <= 0) {
+    throw new SocketTimeoutException("No response from " + server.getHostAddress());
+   }
+   socket.setSoTimeout((int) left);
+   receivePack.setLength(MAX_RESPONSE_SIZE);
+  }
  }
 
  /**
   * Cache all the records in the {@code DNSResponse} qr
   * @param qr  A {@code DNSResponse}
+  * @param lookupString  The host name being resolved, as given by the user
   */
 
- private static void cacheDNSResponse(DNSResponse qr) {
-  int numAnswers = qr.numAnswers; // 
-  int numNameservers = qr.numNameservers;
-  int numAddInfo = qr.numAddInfo;
-  List < Map < String, String >> answerMap = qr.answerRecords;
-  List < Map < String, String >> nsMap = qr.nameRecords;
-  List < Map < String, String >> addMap = qr.addRecords;
-  cacheRecords(numAnswers, answerMap);
-  cacheRecords(numNameservers, nsMap);
-  cacheRecords(numAddInfo, addMap);
+ private static void cacheDNSResponse(DNSResponse qr, String lookupString) {
+  cacheRecords(qr.answerRecords, lookupString);
+  cacheRecords(qr.nameRecords, lookupString);
+  cacheRecords(qr.addRecords, lookupString);
  }
 
  /**
-       * Cache {@code numRecords} records from {@code recordList}
-  * @param numRecords  The number of records to cache
-    * @param recordList  The list of records {@code List<Map<String, String>>} the cache
+       * Cache the records from {@code recordList}, which holds the records parsed from one section of a response
+    * @param recordList  The list of records {@code List<DNSResponse.ParsedRecord>} the cache
+  * @param lookupString  The host name being resolved, as given by the user
 
   */
- private static void cacheRecords(int numRecords, List < Map < String, String >> recordList) {
-  for (int i = 0; i < numRecords; i++) {
-   String recordName = recordList.get(i).get("name");
-   if (endDotFlag && checkDotStringEquals(recordName)) {
+ private static void cacheRecords(List < DNSResponse.ParsedRecord > recordList, String lookupString) {
+  for (int i = 0; i < recordList.size(); i++) {
+   String recordName = recordList.get(i).getName();
+   if (isEndWithDot(lookupString) && recordName.equals(removeLastChar(lookupString))) {
     // if the lookupString ends with dot format and the current recordName equals the lookupString w/o dot format.
     // make recordName be of the dot format
     // For resolving ubc.ca. and ubc.ca
     recordName = lookupString;
    }
-   long recordTTL = Long.decode(recordList.get(i).get("ttl"));
-   int recordType = Integer.parseInt(recordList.get(i).get("rtype"));
-   String recordRData = recordList.get(i).get("rdata");
-   String recordStr = String.format("Hostname: %s Type: %s TTL: %s Result: %s", recordName, recordType, recordTTL, recordRData);
+   long recordTTL = recordList.get(i).getTTL();
+   int recordType = recordList.get(i).getType();
+   String recordRData = recordList.get(i).getRdata();
    // if resource type is A or AAAA make  RData an InetAddress based on the raw IP address string
    if (recordType == 1 || recordType == 28) {
     try {
@@ -648,11 +889,6 @@ public class DNSLookupService {
   }
  }
 
- private static boolean checkDotStringEquals(String recordName) {
-  String dotRemoveStr = removeLastChar(lookupString);
-  return recordName.equals(dotRemoveStr);
- }
-
  /**
       * Determine if the last character of string is "."
  * @param str The string to check
@@ -669,48 +905,6 @@ public class DNSLookupService {
   return str.substring(0, str.length() - 1);
  }
 
- /**
-       * Format the resource record to verbosePrint
-  * @param type  The resource records section type (E.g Answers, Nameservers, Additional Information)
-    * @param qr  A {@code DNSResponse}
-
-  */
-
- private static void resourceRecordFormat(String type, DNSResponse qr) {
-  int numRecords;
-  String recordName;
-  long recordTTL;
-  int recordType;
-  String recordRData;
-  List < Map < String, String >> recordList = new ArrayList < Map < String, String >> ();
-  switch (type) {
-   case "Answers":
-    numRecords = qr.numAnswers;
-    recordList = qr.answerRecords;
-    break;
-   case "Nameservers":
-    numRecords = qr.numNameservers;
-    recordList = qr.nameRecords;
-    break;
-   case "Additional Information":
-    numRecords = qr.numAddInfo;
-    recordList = qr.addRecords;
-    break;
-   default:
-    numRecords = 9999; // something went wrong, should never reach here
-    break;
-  }
-  if (numRecords == 9999) throw new RuntimeException("Something went wrong in record Formatter"); // should never throw
-  System.out.println(String.format("  %s (%d)", type, numRecords));
-  for (int i = 0; i < numRecords; i++) {
-   recordName = recordList.get(i).get("name");
-   recordTTL = Long.decode(recordList.get(i).get("ttl"));
-   recordType = Integer.parseInt(recordList.get(i).get("rtype"));
-   recordRData = recordList.get(i).get("rdata");
-   ResourceRecord newRecord = new ResourceRecord(recordName, RecordType.getByCode(recordType), recordTTL, recordRData);
-   verbosePrintResourceRecord(newRecord, recordType);
-  }
- }
  /**
   * Retrieves DNS results from a specified DNS server. Queries are sent in iterative mode,
   * and the query is repeated with a new server if the provided one is non-authoritative.
@@ -724,14 +918,6 @@ public class DNSLookupService {
   // TODO To be completed by the student
  }
 
- private static void verbosePrintResourceRecord(ResourceRecord record, int rtype) {
-  if (verboseTracing)
-   System.out.format("       %-30s %-10d %-4s %s\n", record.getHostName(),
-    record.getTTL(),
-    record.getType() == RecordType.OTHER ? rtype : record.getType(),
-    record.getTextResult());
- }
-
  /**
   * Prints the result of a DNS query.
   *
@@ -0,0 +1,456 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+
+/** Writes DNS messages (RFC 1035) into a reusable buffer: the header, questions, and A, AAAA, NS,
+ * CNAME, SOA and OPT records in the answer, authority and additional sections. Sections must be
+ * written in that order; the counts in the header are kept up to date as records are added.
+ *
+ * <p>Names are compressed: every name written is looked up in a per-message table of the name
+ * suffixes already in the message, and its longest known suffix is replaced by a pointer. The
+ * table is a small open-addressing hash table of message offsets, so writing a message allocates
+ * nothing once the writer exists. A writer is meant to be kept by one thread and reused for every
+ * message it sends; {@link #start(int, int)} clears it.</p>
+ *
+ * <p>A record that does not fit in the remaining space is not written, and the message is left
+ * as it was before the record, so the caller can stop and set the TC bit.</p>
+ */
+public class DNSMessageWriter {
+
+    public enum Section {
+        ANSWER(6), AUTHORITY(8), ADDITIONAL(10);
+
+        private final int countOffset; // offset of the section's record count in the header
+
+        Section(int countOffset) {
+            this.countOffset = countOffset;
+        }
+    }
+
+    public static final int FLAG_QR = 0x8000;
+    public static final int FLAG_AA = 0x0400;
+    public static final int FLAG_TC = 0x0200;
+    public static final int FLAG_RD = 0x0100;
+    public static final int FLAG_RA = 0x0080;
+
+    public static final int RCODE_NOERROR = 0;
+    public static final int RCODE_FORMERR = 1;
+    public static final int RCODE_SERVFAIL = 2;
+    public static final int RCODE_NXDOMAIN = 3;
+    public static final int RCODE_NOTIMP = 4;
+    public static final int RCODE_REFUSED = 5;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TYPE_OPT = 41;
+    private static final int CLASS_IN = 1;
+    private static final int MAX_POINTER = 0x3FFF; // highest offset a compression pointer can hold
+    private static final int TABLE_SIZE = 256; // slots of the suffix table, a power of two
+    private static final int MAX_SUFFIXES = TABLE_SIZE / 2; // suffixes remembered per message
+
+    private final byte[] buffer;
+    private int limit;
+    private int position;
+    private Section section; // section records are being added to, null while writing questions
+
+    // suffix table: slots hold an entry number + 1, entries are in the order they were added
+    private final int[] slots = new int[TABLE_SIZE];
+    private final int[] entryHash = new int[MAX_SUFFIXES];
+    private final int[] entryOffset = new int[MAX_SUFFIXES];
+    private final int[] entrySlot = new int[MAX_SUFFIXES];
+    private int entries;
+
+    /** Creates a writer for messages of up to a given size.
+     *
+     * @param capacity Maximum size of a message, e.g. 512 for UDP without EDNS.
+     */
+    public DNSMessageWriter(int capacity) {
+        this.buffer = new byte[capacity];
+        this.limit = capacity;
+    }
+
+    /** Starts a new message, discarding the previous one, with no questions or records yet.
+     *
+     * @param id    Message ID.
+     * @param flags Header flags and response code, e.g. {@code FLAG_QR | FLAG_RA | RCODE_SERVFAIL}.
+     * @return This writer.
+     */
+    public DNSMessageWriter start(int id, int flags) {
+        while (entries > 0)
+            slots[entrySlot[--entries]] = 0;
+        limit = buffer.length;
+        position = 0;
+        section = null;
+        putShort(id);
+        putShort(flags);
+        for (int i = 0; i < 4; i++)
+            putShort(0);
+        return this;
+    }
+
+    /** Limits the size of the current message, e.g. to the UDP payload size a client advertised.
+     * The limit can only shrink from the capacity of the writer, and is reset by the next message.
+     *
+     * @param size Maximum size of the message.
+     */
+    public void setLimit(int size) {
+        limit = Math.max(HEADER_SIZE, Math.min(size, buffer.length));
+    }
+
+    /** Adds a question.
+     *
+     * @param name Name asked.
+     * @param type Record type code asked.
+     * @throws IllegalStateException If records were already added, or the question does not fit.
+     */
+    public void writeQuestion(DNSName name, int type) {
+        if (section != null)
+            throw new IllegalStateException("Questions must come before records");
+        int start = position;
+        if (!writeName(name) || !fits(4)) {
+            rollback(start);
+            throw new IllegalStateException("Question does not fit in the message");
+        }
+        putShort(type);
+        putShort(CLASS_IN);
+        incrementCount(4);
+    }
+
+    /** Adds the question of another message (typically the query being answered) as it is,
+     * keeping the case of the name as the client sent it.
+     *
+     * @param message Message holding the question.
+     * @param offset  Offset of the question in the message.
+     * @param length  Size of the question: the name, type and class.
+     * @throws IllegalStateException If records were already added, or the question does not fit.
+     */
+    public void copyQuestion(byte[] message, int offset, int length) {
+        if (section != null)
+            throw new IllegalStateException("Questions must come before records");
+        if (!fits(length))
+            throw new IllegalStateException("Question does not fit in the message");
+        int start = position;
+        System.arraycopy(message, offset, buffer, position, length);
+        position += length;
+        rememberSuffixes(start, start + length - 4);
+        incrementCount(4);
+    }
+
+    /** Adds an address record.
+     *
+     * @param section Section of the record.
+     * @param owner   Name the record belongs to.
+     * @param ttl     Time-to-live, in seconds.
+     * @param address 4 bytes for an A record, 16 for an AAAA record.
+     * @return false if the record does not fit, in which case it was not added.
+     */
+    public boolean writeAddress(Section section, DNSName owner, long ttl, byte[] address) {
+        if (!beginAddress(section, owner, ttl, address.length))
+            return false;
+        System.arraycopy(address, 0, buffer, position, address.length);
+        position += address.length;
+        return endRecord();
+    }
+
+    /** Writes everything of an address record but the address, leaving room for it. */
+    private boolean beginAddress(Section section, DNSName owner, long ttl, int length) {
+        int start = beginRecord(section);
+        if (!writeName(owner) || !fits(10 + length))
+            return rollback(start);
+        putShort(length == 4 ? RecordType.A.getCode() : RecordType.AAAA.getCode());
+        putShort(CLASS_IN);
+        putInt(ttl);
+        putShort(length);
+        return true;
+    }
+
+    /** Adds a record whose data is a single name, such as NS or CNAME.
+     *
+     * @param section Section of the record.
+     * @param owner   Name the record belongs to.
+     * @param type    Record type.
+     * @param ttl     Time-to-live, in seconds.
+     * @param target  The name held by the record.
+     * @return false if the record does not fit, in which case it was not added.
+     */
+    public boolean writeNameRecord(Section section, DNSName owner, RecordType type, long ttl, DNSName target) {
+        int start = beginRecord(section);
+        if (!writeName(owner) || !fits(10))
+            return rollback(start);
+        putShort(type.getCode());
+        putShort(CLASS_IN);
+        putInt(ttl);
+        int lengthAt = position;
+        putShort(0);
+        if (!writeName(target))
+            return rollback(start);
+        putShortAt(lengthAt, position - lengthAt - 2);
+        return endRecord();
+    }
+
+    /** Adds an SOA record, as found in the authority section of negative answers.
+     *
+     * @param section Section of the record.
+     * @param owner   Name of the zone.
+     * @param ttl     Time-to-live, in seconds.
+     * @param mname   Primary name server of the zone.
+     * @param rname   Mailbox of the person responsible for the zone, in name form.
+     * @param serial  Serial number of the zone.
+     * @param refresh Refresh interval, in seconds.
+     * @param retry   Retry interval, in seconds.
+     * @param expire  Expiry time, in seconds.
+     * @param minimum TTL of negative answers, in seconds.
+     * @return false if the record does not fit, in which case it was not added.
+     */
+    public boolean writeSOA(Section section, DNSName owner, long ttl, DNSName mname, DNSName rname,
+                            long serial, long refresh, long retry, long expire, long minimum) {
+        int start = beginRecord(section);
+        if (!writeName(owner) || !fits(10))
+            return rollback(start);
+        putShort(RecordType.SOA.getCode());
+        putShort(CLASS_IN);
+        putInt(ttl);
+        int lengthAt = position;
+        putShort(0);
+        if (!writeName(mname) || !writeName(rname) || !fits(20))
+            return rollback(start);
+        putInt(serial);
+        putInt(refresh);
+        putInt(retry);
+        putInt(expire);
+        putInt(minimum);
+        putShortAt(lengthAt, position - lengthAt - 2);
+        return endRecord();
+    }
+
+    /** Adds an EDNS OPT pseudo-record (RFC 6891) to the additional section, with no options.
+     *
+     * @param udpPayloadSize Largest UDP response the sender can receive.
+     * @param extendedRcode  Upper 8 bits of the extended response code.
+     * @param dnssecOk       Whether the DO bit is set.
+     * @return false if the record does not fit, in which case it was not added.
+     */
+    public boolean writeOPT(int udpPayloadSize, int extendedRcode, boolean dnssecOk) {
+        int start = beginRecord(Section.ADDITIONAL);
+        if (!fits(11))
+            return rollback(start);
+        buffer[position++] = 0; // root name
+        putShort(TYPE_OPT);
+        putShort(udpPayloadSize);
+        buffer[position++] = (byte) extendedRcode;
+        buffer[position++] = 0; // version
+        putShort(dnssecOk ? 0x8000 : 0);
+        putShort(0); // no options
+        return endRecord();
+    }
+
+    /** Adds a cached record of a type this writer supports (A, AAAA, NS, CNAME or SOA), with its
+     * remaining TTL. The address or target name is written straight from the record, without
+     * copying it first; the rdata of an SOA record, which only negative answers carry, is parsed
+     * from its presentation format.
+     *
+     * @param section Section of the record.
+     * @param record  The record.
+     * @return false if the record does not fit, in which case it was not added.
+     * @throws IllegalArgumentException If the record's type is not supported.
+     */
+    public boolean writeRecord(Section section, ResourceRecord record) {
+        long ttl = Math.max(0, record.getTTL());
+        switch (record.getType()) {
+            case A:
+            case AAAA:
+                int length = record.getAddressLength();
+                if (!beginAddress(section, record.getNode().getName(), ttl, length))
+                    return false;
+                record.copyAddress(buffer, position);
+                position += length;
+                return endRecord();
+            case NS:
+            case CNAME:
+                return writeNameRecord(section, record.getNode().getName(), record.getType(), ttl,
+                        record.getTargetName());
+            case SOA:
+                String[] fields = record.getTextResult().trim().split("\\s+");
+                if (fields.length != 7)
+                    throw new IllegalArgumentException("Invalid SOA record " + record.getTextResult());
+                return writeSOA(section, record.getNode().getName(), ttl, DNSName.of(fields[0]), DNSName.of(fields[1]),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                        Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+            default:
+                throw new IllegalArgumentException("Cannot write " + record.getType() + " records");
+        }
+    }
+
+    /** Sets the TC bit, telling the receiver that records were left out. */
+    public void setTruncated() {
+        buffer[2] |= (byte) (FLAG_TC >> 8);
+    }
+
+    /** @return The number of bytes written so far. */
+    public int length() {
+        return position;
+    }
+
+    /** @return The buffer holding the message, in its first {@link #length()} bytes. Reused by the
+     * next message. */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /** @return A buffer wrapping the message, ready to be sent. Reused by the next message. */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, position);
+    }
+
+    private int beginRecord(Section next) {
+        if (section != null && next.ordinal() < section.ordinal())
+            throw new IllegalStateException(next + " records must come before " + section + " records");
+        section = next;
+        return position;
+    }
+
+    private boolean endRecord() {
+        incrementCount(section.countOffset);
+        return true;
+    }
+
+    /** Forgets a record that did not fit: moves back to its start and drops the suffixes it added. */
+    private boolean rollback(int start) {
+        position = start;
+        while (entries > 0 && entryOffset[entries - 1] >= start)
+            slots[entrySlot[--entries]] = 0;
+        return false;
+    }
+
+    /** Writes a name, replacing its longest suffix already in the message by a pointer.
+     *
+     * @return false if the name does not fit.
+     */
+    private boolean writeName(DNSName name) {
+        byte[] wire = name.wire();
+        int start = position;
+        for (int offset = 0; wire[offset] != 0; offset += wire[offset] + 1) {
+            int pointer = find(wire, offset);
+            if (pointer >= 0) {
+                if (!fits(offset + 2)) return false;
+                System.arraycopy(wire, 0, buffer, position, offset);
+                position += offset;
+                putShort(0xC000 | pointer);
+                rememberSuffixes(start, start + offset);
+                return true;
+            }
+        }
+        if (!fits(wire.length)) return false;
+        System.arraycopy(wire, 0, buffer, position, wire.length);
+        position += wire.length;
+        rememberSuffixes(start, position - 1);
+        return true;
+    }
+
+    /** Finds a suffix of a name in the message.
+     *
+     * @return The offset of the suffix in the message, or -1 if it is not there.
+     */
+    private int find(byte[] wire, int offset) {
+        int hash = hash(wire, offset);
+        for (int slot = hash & (TABLE_SIZE - 1); slots[slot] != 0; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+            int entry = slots[slot] - 1;
+            if (entryHash[entry] == hash && matches(wire, offset, entryOffset[entry]))
+                return entryOffset[entry];
+        }
+        return -1;
+    }
+
+    /** Remembers every suffix of the labels written in {@code [from, end)}, which are followed by
+     * a zero byte or a pointer.
+     */
+    private void rememberSuffixes(int from, int end) {
+        for (int offset = from; offset < end && offset <= MAX_POINTER && entries < MAX_SUFFIXES
+                && buffer[offset] != 0 && (buffer[offset] & 0xC0) == 0; offset += buffer[offset] + 1) {
+            int hash = hashInMessage(offset);
+            int slot = hash & (TABLE_SIZE - 1);
+            while (slots[slot] != 0)
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            entryHash[entries] = hash;
+            entryOffset[entries] = offset;
+            entrySlot[entries] = slot;
+            slots[slot] = ++entries;
+        }
+    }
+
+    /** Compares the labels of a name from a given label with a name in the message, ignoring case. */
+    private boolean matches(byte[] wire, int offset, int at) {
+        while (true) {
+            int length = buffer[at] & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                at = (length & 0x3F) << 8 | (buffer[at + 1] & 0xFF);
+                continue;
+            }
+            if (length != wire[offset])
+                return false;
+            if (length == 0)
+                return true;
+            for (int i = 1; i <= length; i++)
+                if (lowerCase(buffer[at + i]) != wire[offset + i])
+                    return false;
+            at += length + 1;
+            offset += length + 1;
+        }
+    }
+
+    /** Hash of the labels of a name from a given label, in lower case, as computed by {@link #hashInMessage(int)}. */
+    private static int hash(byte[] wire, int offset) {
+        int h = 0;
+        while (wire[offset] != 0) {
+            int length = wire[offset];
+            for (int i = 0; i <= length; i++)
+                h = 31 * h + wire[offset + i];
+            offset += length + 1;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Hash of a name in the message from a given label, following pointers and ignoring case. */
+    private int hashInMessage(int at) {
+        int h = 0;
+        while (true) {
+            int length = buffer[at] & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                at = (length & 0x3F) << 8 | (buffer[at + 1] & 0xFF);
+                continue;
+            }
+            if (length == 0)
+                return h ^ (h >>> 16);
+            h = 31 * h + length;
+            for (int i = 1; i <= length; i++)
+                h = 31 * h + lowerCase(buffer[at + i]);
+            at += length + 1;
+        }
+    }
+
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    private boolean fits(int bytes) {
+        return position + bytes <= limit;
+    }
+
+    private void incrementCount(int offset) {
+        putShortAt(offset, ((buffer[offset] & 0xFF) << 8 | (buffer[offset + 1] & 0xFF)) + 1);
+    }
+
+    private void putShort(int value) {
+        buffer[position++] = (byte) (value >> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putShortAt(int at, int value) {
+        buffer[at] = (byte) (value >> 8);
+        buffer[at + 1] = (byte) value;
+    }
+
+    private void putInt(long value) {
+        putShort((int) (value >> 16));
+        putShort((int) value);
+    }
+}
@@ -0,0 +1,303 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/** A canonical domain name key. The name is kept in DNS wire format (length-prefixed labels
+ * terminated by a zero byte) with every ASCII letter in lower case, together with a precomputed
+ * hash. Two names that differ only in case, or in the presence of a final dot, are equal, and
+ * comparing names is a comparison of byte arrays.
+ *
+ * <p>Names are interned: every factory method returns the single shared instance for a given
+ * name, so identical names found in different responses and cache entries share storage. The
+ * intern pool only holds weak references and does not keep unused names alive.</p>
+ */
+public final class DNSName implements Comparable<DNSName>, Serializable {
+
+    private static final long serialVersionUID = 560677689244355888L;
+
+    public static final int MAX_LENGTH = 255; // max size of a name in wire format
+    private static final int MAX_LABEL_LENGTH = 63;
+    private static final int MAX_POINTERS = 64; // guards against compression pointer loops
+
+    private static final int POOL_STRIPES = 16;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Map<DNSName, WeakReference<DNSName>>[] pool = new Map[POOL_STRIPES];
+
+    static {
+        for (int i = 0; i < POOL_STRIPES; i++)
+            pool[i] = new WeakHashMap<>();
+    }
+
+    public static final DNSName ROOT = intern(new DNSName(new byte[]{0}));
+
+    private final byte[] wire;
+    private final int hash;
+    private transient String text; // presentation form, computed on first use
+
+    private DNSName(byte[] wire) {
+        this.wire = wire;
+        int h = 1;
+        for (byte b : wire)
+            h = 31 * h + b;
+        this.hash = h ^ (h >>> 16);
+    }
+
+    /** Returns the canonical name for a name in presentation format, such as
+     * {@code www.Example.com} or {@code www.example.com.}. The empty string and {@code "."}
+     * both denote the root.
+     *
+     * @param name Domain name, with or without a final dot.
+     * @return The interned canonical name.
+     * @throws IllegalArgumentException If the name has an empty or too long label, or is too long.
+     */
+    public static DNSName of(String name) {
+        int length = name.length();
+        if (length > 0 && name.charAt(length - 1) == '.')
+            length--;
+        if (length == 0)
+            return ROOT;
+        if (length + 2 > MAX_LENGTH)
+            throw new IllegalArgumentException("Domain name too long: " + name);
+
+        byte[] wire = new byte[length + 2];
+        int labelStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || name.charAt(i) == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH)
+                    throw new IllegalArgumentException("Invalid label in domain name: " + name);
+                wire[labelStart] = (byte) labelLength;
+                labelStart = i + 1;
+            } else {
+                wire[i + 1] = lowerCase((byte) name.charAt(i));
+            }
+        }
+        return intern(new DNSName(wire));
+    }
+
+    /** Reads a name from a DNS message, following compression pointers.
+     *
+     * @param message The DNS message.
+     * @param offset  Offset of the first byte of the name in the message.
+     * @return The interned canonical name.
+     * @throws IllegalArgumentException If the name is malformed, too long or runs past the message.
+     */
+    public static DNSName fromWire(byte[] message, int offset) {
+        return fromWire(message, offset, message.length);
+    }
+
+    /** Reads a name from a DNS message held in the first bytes of a larger buffer, following
+     * compression pointers, none of which may point past the end of the message.
+     *
+     * @param message Buffer starting with the DNS message.
+     * @param offset  Offset of the first byte of the name in the message.
+     * @param end     Length of the message; the bytes after it are ignored.
+     * @return The interned canonical name.
+     * @throws IllegalArgumentException If the name is malformed, too long or runs past the message.
+     */
+    public static DNSName fromWire(byte[] message, int offset, int end) {
+        try {
+            int length = expandedLength(message, offset, end);
+            if (length == 1)
+                return ROOT;
+            byte[] wire = new byte[length]; // sized by a first pass, so the name is copied once
+            int at = 0;
+            while (true) {
+                int labelLength = message[offset] & 0xFF;
+                if ((labelLength & 0xC0) == 0xC0) {
+                    offset = (labelLength & 0x3F) << 8 | (message[offset + 1] & 0xFF);
+                    continue;
+                }
+                wire[at++] = (byte) labelLength;
+                if (labelLength == 0)
+                    break;
+                for (int i = 1; i <= labelLength; i++)
+                    wire[at++] = lowerCase(message[offset + i]);
+                offset += labelLength + 1;
+            }
+            return intern(new DNSName(wire));
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Domain name runs past the end of the message", e);
+        }
+    }
+
+    /** Returns the size of a name of a message in wire format once its compression pointers are
+     * followed, checking its labels and pointers on the way.
+     */
+    private static int expandedLength(byte[] message, int offset, int end) {
+        int length = 0;
+        int pointers = 0;
+        while (true) {
+            if (offset >= end)
+                throw new IllegalArgumentException("Domain name runs past the end of the message");
+            int labelLength = message[offset] & 0xFF;
+            if ((labelLength & 0xC0) == 0xC0) {
+                if (offset + 1 >= end)
+                    throw new IllegalArgumentException("Domain name runs past the end of the message");
+                if (++pointers > MAX_POINTERS)
+                    throw new IllegalArgumentException("Compression pointer loop at offset " + offset);
+                offset = (labelLength & 0x3F) << 8 | (message[offset + 1] & 0xFF);
+                continue;
+            }
+            if (labelLength > MAX_LABEL_LENGTH)
+                throw new IllegalArgumentException("Invalid label length " + labelLength + " at offset " + offset);
+            if (length + labelLength + 1 > MAX_LENGTH)
+                throw new IllegalArgumentException("Domain name too long at offset " + offset);
+            if (offset + labelLength >= end)
+                throw new IllegalArgumentException("Domain name runs past the end of the message");
+            length += labelLength + 1;
+            if (labelLength == 0)
+                return length;
+            offset += labelLength + 1;
+        }
+    }
+
+    /** Returns the number of bytes a name occupies at a given position of a DNS message, without
+     * following compression pointers: the labels up to the terminating zero byte or pointer.
+     *
+     * @param message The DNS message.
+     * @param offset  Offset of the first byte of the name in the message.
+     * @return The number of bytes to skip to reach the end of the name.
+     */
+    public static int wireLength(byte[] message, int offset) {
+        return wireLength(message, offset, message.length);
+    }
+
+    /** Returns the number of bytes a name occupies at a given position of a DNS message held in
+     * the first bytes of a larger buffer, without following compression pointers.
+     *
+     * @param message Buffer starting with the DNS message.
+     * @param offset  Offset of the first byte of the name in the message.
+     * @param end     Length of the message; the bytes after it are ignored.
+     * @return The number of bytes to skip to reach the end of the name.
+     * @throws IllegalArgumentException If the name runs past the message.
+     */
+    public static int wireLength(byte[] message, int offset, int end) {
+        int start = offset;
+        while (true) {
+            if (offset >= end)
+                throw new IllegalArgumentException("Domain name runs past the end of the message");
+            int labelLength = message[offset] & 0xFF;
+            if ((labelLength & 0xC0) == 0xC0)
+                return offset + 2 - start;
+            offset += labelLength + 1;
+            if (labelLength == 0)
+                return offset - start;
+        }
+    }
+
+    /** Returns the canonical name for a name already in wire format.
+     *
+     * @param wire Labels in wire format, including the terminating zero byte. Not modified.
+     * @return The interned canonical name.
+     */
+    static DNSName ofWire(byte[] wire) {
+        return fromWire(wire, 0);
+    }
+
+    private static DNSName intern(DNSName name) {
+        Map<DNSName, WeakReference<DNSName>> stripe = pool[name.hash & (POOL_STRIPES - 1)];
+        synchronized (stripe) {
+            WeakReference<DNSName> reference = stripe.get(name);
+            DNSName existing = reference == null ? null : reference.get();
+            if (existing != null)
+                return existing;
+            stripe.put(name, new WeakReference<>(name));
+            return name;
+        }
+    }
+
+    private static byte lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    /** @return The wire format of this name. The array is shared and must not be modified. */
+    byte[] wire() {
+        return wire;
+    }
+
+    /** @return The size of this name in wire format, in bytes. */
+    public int wireLength() {
+        return wire.length;
+    }
+
+    public boolean isRoot() {
+        return wire.length == 1;
+    }
+
+    /** @return The number of labels in this name; zero for the root. */
+    public int labelCount() {
+        int count = 0;
+        for (int i = 0; wire[i] != 0; i += wire[i] + 1)
+            count++;
+        return count;
+    }
+
+    /** Returns the name obtained by removing the first label, e.g. {@code example.com} for
+     * {@code www.example.com}.
+     *
+     * @return The parent name, or the root itself for the root.
+     */
+    public DNSName parent() {
+        if (isRoot())
+            return this;
+        return ofWire(Arrays.copyOfRange(wire, wire[0] + 1, wire.length));
+    }
+
+    /** Returns true if this name is equal to or below another name, e.g. {@code www.example.com}
+     * is a subdomain of {@code example.com}, of {@code com} and of the root.
+     *
+     * @param zone The possibly enclosing name.
+     * @return true if this name ends with all the labels of {@code zone}.
+     */
+    public boolean isSubdomainOf(DNSName zone) {
+        int offset = 0;
+        while (wire.length - offset > zone.wire.length)
+            offset += wire[offset] + 1;
+        return wire.length - offset == zone.wire.length
+                && Arrays.equals(wire, offset, wire.length, zone.wire, 0, zone.wire.length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DNSName other = (DNSName) o;
+        return hash == other.hash && Arrays.equals(wire, other.wire);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(DNSName o) {
+        return this == o ? 0 : Arrays.compare(wire, o.wire);
+    }
+
+    /** @return The name in presentation format, without a final dot; the empty string for the root. */
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            StringBuilder builder = new StringBuilder(wire.length);
+            for (int i = 0; wire[i] != 0; i += wire[i] + 1) {
+                if (i > 0) builder.append('.');
+                for (int j = 1; j <= wire[i]; j++)
+                    builder.append((char) (wire[i + j] & 0xFF));
+            }
+            text = result = builder.toString();
+        }
+        return result;
+    }
+
+    private Object readResolve() {
+        return intern(this);
+    }
+}
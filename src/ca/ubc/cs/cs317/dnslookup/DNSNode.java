@@ -4,15 +4,25 @@ import java.io.Serializable;
 
 /** DNS nodes can be used to specify an individual DNS query or the key to a specific result.
  * Each node represents a fully-qualified domain name (represented by hostName) and a record
- * type. Two nodes with the same host name and type are considered equal.
+ * type. Two nodes with the same host name and type are considered equal. Host names are
+ * compared through their canonical {@link DNSName}, so the comparison ignores case and a final
+ * dot, consistently in equals, hashCode and compareTo.
  */
 public class DNSNode implements Comparable<DNSNode>, Serializable {
 
     private String hostName;
+    private DNSName name;
     private RecordType type;
 
     public DNSNode(String hostName, RecordType type) {
         this.hostName = hostName;
+        this.name = DNSName.of(hostName);
+        this.type = type;
+    }
+
+    public DNSNode(DNSName name, RecordType type) {
+        this.hostName = name.toString();
+        this.name = name;
         this.type = type;
     }
 
@@ -20,6 +30,10 @@ public class DNSNode implements Comparable<DNSNode>, Serializable {
         return hostName;
     }
 
+    public DNSName getName() {
+        return name;
+    }
+
     public RecordType getType() {
         return type;
     }
@@ -31,13 +45,13 @@ public class DNSNode implements Comparable<DNSNode>, Serializable {
 
         DNSNode dnsNode = (DNSNode) o;
 
-        if (!hostName.equals(dnsNode.hostName)) return false;
+        if (!name.equals(dnsNode.name)) return false;
         return type == dnsNode.type;
     }
 
     @Override
     public int hashCode() {
-        int result = hostName.hashCode();
+        int result = name.hashCode();
         result = 31 * result + type.hashCode();
         return result;
     }
@@ -49,8 +63,9 @@ public class DNSNode implements Comparable<DNSNode>, Serializable {
 
     @Override
     public int compareTo(DNSNode o) {
-        if (!hostName.equalsIgnoreCase(o.hostName))
-            return hostName.compareToIgnoreCase(o.hostName);
+        int result = name.compareTo(o.name);
+        if (result != 0)
+            return result;
         else
             return type.compareTo(o.type);
     }
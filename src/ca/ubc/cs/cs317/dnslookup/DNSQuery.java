@@ -1,26 +1,27 @@
 package ca.ubc.cs.cs317.dnslookup;
-import java.util.regex.Pattern;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.net.InetAddress;
-import java.nio.Buffer.*;
-import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
     * @return
   * A DNSQuery object with the following attributes <p>
-  * queryString (String): The raw hex string format of the encoded message to send to the DNS server. The queryString DOES NOT begin with 0x <p>
+  * message (byte[]): The encoded message to send to the DNS server <p>
   * DNSIA (InetAddress): The inetaddress of the DNS server the message is being sent to <p>
   * lookupName (String):  The domain name being queried <p>
   * type (String): The Question type in the string form of decimal number <p>
     * transID (String): The transaction ID <p>
 
   * @param node  a DNSNode
+  * @param recursionDesired  true to set the RD bit, asking the server to resolve the name recursively
   */
 public class DNSQuery {
- String queryString;
+ private static final int MAX_QUERY_SIZE = 512; // max number of bytes of a query
+ // each thread encodes its queries in its own reusable writer
+ private static final ThreadLocal < DNSMessageWriter > writers = ThreadLocal.withInitial(() -> new DNSMessageWriter(MAX_QUERY_SIZE));
+
+ byte[] message;
  InetAddress DNSIA; // ip address of DNS the message being sent to
  String lookupName;
  String type; // QType
@@ -28,153 +29,27 @@ public class DNSQuery {
 
 
  public DNSQuery(DNSNode node) {
-  ByteArrayOutputStream queryStream = new ByteArrayOutputStream();
+  this(node, false);
+ }
+
+ public DNSQuery(DNSNode node, boolean recursionDesired) {
   RecordType type = node.getType();
   int code = type.getCode();
-  String hostString = node.getHostName();
-  headerFormat header = new headerFormat();
-  QuestionFormat questionHeader = new QuestionFormat(hostString, code);
-  try {
-   queryStream.write(header.headerBytes);
-   queryStream.write(questionHeader.QuestionBytes);
-  } catch (IOException err) {
-    System.err.println("Error occured in DNSQuery");
-   throw new RuntimeException(err);
+  // only A, NS, CNAME and AAAA queries are supported
+  if (type != RecordType.A && type != RecordType.NS && type != RecordType.CNAME && type != RecordType.AAAA) {
+   System.err.println("Error occured in DNSQuery");
+   throw new RuntimeException("Type code not supported " + code);
   }
-  byte[] dnsQueryBytes = queryStream.toByteArray();
+  int id = ThreadLocalRandom.current().nextInt(0x10000);
+  // no recursion for iterative queries, RD for queries forwarded to a recursive resolver
+  DNSMessageWriter writer = writers.get().start(id, recursionDesired ? DNSMessageWriter.FLAG_RD : 0);
+  writer.writeQuestion(node.getName(), code);
+  this.message = Arrays.copyOf(writer.array(), writer.length());
   this.type = Integer.toString(code);
-  this.lookupName = hostString;
-  this.transID = Integer.toString(Integer.decode(header.id));
-  this.queryString = Bytehelper.bytesToHex(dnsQueryBytes);
+  this.lookupName = node.getHostName();
+  this.transID = Integer.toString(id);
  };
 
- /**
-  * @return
-  * A Class to create header object with the following attributes <p>
-  * headerBytes (byte[]): A byte[] of all the bytes corresponding to the header <p>
-  * id (String): The transaction id in hex String format <p>
-  * @param node  a DNSNode
-  */
- private static class headerFormat {
-  byte[] headerBytes;
-  private static int HEADER_SIZE = 12;
-  String id;
-  public headerFormat() {
-   createRequestHeader();
-  }
-  private void createRequestHeader() {
-   ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
-   byte[] randomID = new byte[2];
-   new Random().nextBytes(randomID);
-   this.id = "0x" + Bytehelper.bytesToHex(randomID);
-   header.put(randomID);
-   header.put((byte) 0x00); // 1st half of flags (0000 0000) (norecursion chnge right most bit to 1 if you want) HARDCODED FLAGS
-   header.put((byte) 0x00); // 2nd half of flags (0000 0000) HARDCODED FLAGS
-   header.put((byte) 0x00); // HARDCODED
-   header.put((byte) 0x01); // numbe of questions HARDCODED
-   // lines 3, 4, and 5 will be all 0s, which is what we want (ANCount, ARCOunt, NSCount)
-   this.headerBytes = header.array();
-  }
- }
- /**
-  * Class to create Question Header
-  * @return
-  * A QuestionFormat object with the following attributes <p>
-  *  QuestionBytes (byte[]): the bytes corresponding to the Question Header
-  * @param lookupString the domain name (string) you are trying to query.
-  * @param type     Record type for search.
-  */
- private static class QuestionFormat {
-  private ByteArrayOutputStream questionOutputStream = new ByteArrayOutputStream();
-  private byte[] qname;
-  private byte[] qtype; // q type 
-  private int QName_Size = 0; // TODO?
-  private static final byte[] qclass = Bytehelper.hexStringToByteArray("0001"); //internet class HARDCODED
-  byte[] QuestionBytes;
-
-  public QuestionFormat(String lookupString, int typeCode) {
-   String qString = formatQName(lookupString);
-   this.qname = Bytehelper.hexStringToByteArray(qString);
-   try {
-    questionOutputStream.write(this.qname);
-    this.qtype = getQTypeBytes(typeCode);
-    questionOutputStream.write(this.qtype);
-    // System.out.println("Qtype string: " + Bytehelper.bytesToHex(this.qtype));
-    questionOutputStream.write(this.qclass);
-    // System.out.println("QClss string: " + Bytehelper.bytesToHex(this.qclass));
-    this.QuestionBytes = questionOutputStream.toByteArray();
-    // System.out.println(Bytehelper.bytesToHex(this.QuestionBytes));
-   } catch (IOException err) {
-    System.err.println("Error occured in DNSQuery");
-    throw new RuntimeException(err);
-   }
-  }
-
-  /**
-   *  @return return a byte[] corresponding to the QType of interest (E.g typeCode of 1 produces a byte[] with byte[0] = 0x0 byte[1] = 0x1)
-   *
-   * @param typeCode the QType you want
-   */
-  private byte[] getQTypeBytes(int typeCode) {
-   byte[] qTypeBytes = new byte[2];
-   switch (typeCode) {
-    // A record
-    case 1:
-     qTypeBytes[0] = 0x0;
-     qTypeBytes[1] = 0x1;
-     break;
-     // NS Record
-    case 2:
-     qTypeBytes[0] = 0x0;
-     qTypeBytes[1] = 0x2;
-     break;
-     // CNAME record
-    case 5:
-     qTypeBytes[0] = 0x0;
-     qTypeBytes[1] = 0x5;
-     break;
-     // AAAA record
-    case 28:
-     qTypeBytes[0] = 0x0;
-     qTypeBytes[1] = 0x1C;
-     break;
-
-    default:
-     // TODO shouldnt reach here unless typeCode specified is not A, AAAA, CNAME, NS
-     System.err.println("Error occured in DNSQuery");
-     throw new RuntimeException("Type code not supported " + typeCode);
-   }
-   return qTypeBytes;
-  }
-
-  /**
-   * @return 
-   * format the domain name string to QName format. (E.g www.apple.com will be translated to the string 03 77 77 77  05 61 70 70 6C 65 03 63 6F 6D )
-   * without the spaces (spaces are shown for readability)
-   *
-   * @param lookupString  domain name being searched.
-   */
-  private String formatQName(String lookupString) {
-   String qString = "";
-   String[] strArr = lookupString.split(Pattern.quote("."));
-   for (String str: strArr) {
-    int len = str.length();
-    String hexLen = String.format("%02X", ((int) len));
-    qString += hexLen;
-    this.QName_Size++;
-    for (int j = 0; j < len; j++) {
-     char character = str.charAt(j);
-     String hexChar = String.format("%02X", (int) character);
-     qString += hexChar;
-     this.QName_Size++;
-    }
-   }
-   qString += "00"; // terminating byte
-   this.QName_Size++;
-   return qString;
-  }
- }
-
  /**
   * @return 
   * The string translation of decimal type code (E.g 1  returns "A")
@@ -0,0 +1,91 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/** Contract shared by the DNS cache backends. A cache links nodes (queries) to the resource
+ * records obtained for them, keeps each record only for the duration of its TTL, and never
+ * returns expired records to the caller. {@link DNSCache} is the default on-heap backend;
+ * {@link OffHeapDNSCache} keeps its records outside the Java heap for very large caches.
+ */
+public interface DNSRecordCache {
+
+    /** Returns a set of resource records already cached for a particular query. If no results
+     * are cached for the specified query, returns an empty set. Expired results are never
+     * returned.
+     *
+     * @param node DNS query (host name and record type) to obtain cached results.
+     * @return A potentially empty set of resources associated to the query.
+     */
+    Set<ResourceRecord> getCachedResults(DNSNode node);
+
+    /** Adds a specific resource record to the cache. If the cache already has an equivalent
+     * resource record, the existing record is replaced if the new one expires after the existing
+     * record, otherwise the existing record is maintained.
+     *
+     * @param record Resource record containing the result of a DNS query.
+     */
+    void addResult(ResourceRecord record);
+
+    /** Returns the number of records held by the cache, counting expired records that were not
+     * removed yet.
+     *
+     * @return The number of records.
+     */
+    int size();
+
+    /** Perform a specific action for each query and its set of cached, still valid records.
+     *
+     * @param consumer Action to be performed for each query and set of records.
+     */
+    void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer);
+
+    /** Perform a specific action for each query and individual cached, still valid record.
+     *
+     * @param consumer Action to be performed for each query and record.
+     */
+    void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer);
+
+    /** Returns the names equal to or enclosing a name (its label suffixes) for which records of a
+     * given type may be cached, from the deepest to the root. Callers still need to read the
+     * records, which may have expired in the meantime. The default implementation probes each
+     * suffix of the name in turn.
+     *
+     * @param name The name whose enclosing names are searched, e.g. {@code www.example.com}.
+     * @param type Record type that must be cached for the enclosing name, e.g. NS.
+     * @return A potentially empty list of names, deepest first.
+     */
+    default List<DNSName> enclosingNames(DNSName name, RecordType type) {
+        List<DNSName> names = new ArrayList<>();
+        for (DNSName zone = name; ; zone = zone.parent()) {
+            if (!getCachedResults(new DNSNode(zone, type)).isEmpty())
+                names.add(zone);
+            if (zone.isRoot())
+                return names;
+        }
+    }
+
+    /** Perform a specific action for each query equal to or below a name (e.g. every name under
+     * {@code example.com}) and its set of cached, still valid records. The default
+     * implementation scans the whole cache.
+     *
+     * @param zone     The name at the top of the subtree.
+     * @param consumer Action to be performed for each query and set of records.
+     */
+    default void forEachNodeUnder(DNSName zone, BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        forEachNode((node, records) -> {
+            if (node.getName().isSubdomainOf(zone))
+                consumer.accept(node, records);
+        });
+    }
+
+    /** Drops every cached record whose name is equal to or below a name, for instance after a
+     * zone was found to be misconfigured or was changed.
+     *
+     * @param zone The name at the top of the subtree.
+     * @return The number of records dropped.
+     */
+    int invalidateSubtree(DNSName zone);
+}
@@ -18,7 +18,7 @@ import java.util.*;
   * responseID (String): The id of the response as a hex String <p>
   * lookupName (String): The domain name being searched <p>
   * Rcode (int): The decimal value of RCode <p>
-  * serversToQueryArr (String): A list of servers to query (A records) <p>
+  * serversToQueryArr (String): A list of servers to query (A and AAAA records) <p>
   * authFlag (String): Easier for output in DNSLookupservice. The value is true or false if Authoritative <p>
   * isPacketDrooped (boolean): Flag to determine if the packet has been dropped when max reattempts reached. Look at send_udp_message <p>
   * isAuth (boolean):  boolean for Authoritative <p>
@@ -29,19 +29,24 @@ import java.util.*;
   * numAddInfo (String): number of records in Additional Info section <p>
   * numARecords (String): Number of A records in response <p>
   * numNSRecords (String): Number of NS records in response <p>
-  * <type>Records are a List of HashMaps, which represents a list of records in the <type> section, 
-  where each record is in the format of HashMap<String, String> with keys rdata, name, ttl, class, rtype <p>
-  * answerRecords (List<Map<String, String>>):  <p>
-  * nameRecords (List<Map<String, String>>): <p>
-  * addRecords (List<Map<String, String>>):  <p>
-  * aRecords (List<Map<String, String>>): <p>
-  * nsRecords (List<Map<String, String>>): <p>
+  * <type>Records are a List of the records in the <type> section, each a {@link ParsedRecord} with the name, type
+  code, class, TTL and RData of the record <p>
+  * answerRecords (List<ParsedRecord>):  <p>
+  * nameRecords (List<ParsedRecord>): <p>
+  * addRecords (List<ParsedRecord>):  <p>
+  * aRecords (List<ParsedRecord>): <p>
+  * nsRecords (List<ParsedRecord>): <p>
+  * 
+  * Only the first {@code length} bytes of the buffer are read, so a receive buffer reused across datagrams can be
+  * passed in as is. The record lists hold the records actually parsed, which may be fewer than the counts of the
+  * header if the message is truncated: parsing stops at the first record that does not fit.
   * 
   * @param responseBuffer the response buffer received from the datagram
   */
 public class DNSResponse {
  private final static int HEADER_SIZE = 12; // header size in number of bytes
  private byte[] responseBuffer;
+ private int responseLength; // number of bytes of the datagram in responseBuffer
  String responseID;
  String lookupName;
  // String queryType;
@@ -57,23 +62,39 @@ public class DNSResponse {
  int numAddInfo; // number of records in Additional Info section
  int numARecords; // number of A records in response
  int numNSRecords; // number of NS records in response
- List < Map < String, String >> answerRecords = new ArrayList < Map < String, String >> ();
- List < Map < String, String >> nameRecords = new ArrayList < Map < String, String >> ();
- List < Map < String, String >> addRecords = new ArrayList < Map < String, String >> ();
- List < Map < String, String >> aRecords = new ArrayList < > ();
- List < Map < String, String >> nsRecords = new ArrayList < > ();
-
- private final HashMap < Integer, Boolean > typesSupported = new HashMap();
+ List < ParsedRecord > answerRecords = new ArrayList < ParsedRecord > ();
+ List < ParsedRecord > nameRecords = new ArrayList < ParsedRecord > ();
+ List < ParsedRecord > addRecords = new ArrayList < ParsedRecord > ();
+ List < ParsedRecord > aRecords = new ArrayList < > ();
+ List < ParsedRecord > nsRecords = new ArrayList < > ();
+
+ private static final HashMap < Integer, Boolean > typesSupported = new HashMap < > (); // shared by every response, read only
+ static {
+  populateTypesSupported();
+ }
  private int currAddr = 0; // starting offset
  public DNSResponse(byte[] responseBuffer) {
-  if (responseBuffer.length < 1) {
+  this(responseBuffer, responseBuffer.length);
+ }
+
+ /**
+  * @param responseBuffer the buffer the datagram was received in
+  * @param length the length of the datagram, at most the length of the buffer
+  */
+ public DNSResponse(byte[] responseBuffer, int length) {
+  if (length < 1) {
    this.isPacketDropped = true;
    // if empty buffer passed in return
    return;
   }
+  if (length < HEADER_SIZE) {
+   throw new RuntimeException("Response of " + length + " bytes is shorter than a DNS header");
+  }
   this.isPacketDropped = false;
+  DNSEvents.ResponseParsed event = new DNSEvents.ResponseParsed();
+  event.begin();
   this.responseBuffer = responseBuffer;
-  populateTypesSupported();
+  this.responseLength = length;
   // System.out.println("Response buffer length: " + this.responseBuffer.length);
   byte[] headerArr = extractHeaderBytes();
   parseHeader parsedHeader = new parseHeader(headerArr);
@@ -107,6 +128,7 @@ public class DNSResponse {
   getAandNSRecords(1);
   getAandNSRecords(2);
   getAandNSRecords(3);
+  event.finish(this);
   //printRecordListVals(this.nameRecords);
   // printRecordListVals(this.addRecords);
   // System.out.println("answer record size: " + this.answerRecords.size());
@@ -156,17 +178,15 @@ public class DNSResponse {
   }
 
   private void extractTransID() {
-   byte[] IDBytes = Bytehelper.readBytes(this.headerOffset, ID_SIZE, this.headerArr); // starting offset of 0
+   this.transID = Integer.toString(Bytehelper.readUnsignedShort(this.headerOffset, this.headerArr)); // starting offset of 0
    this.headerOffset += ID_SIZE;
-   String hexTransID = "0x" + Bytehelper.bytesToHex(IDBytes);
-   this.transID = Integer.toString(Integer.decode(hexTransID));
   }
   private void extractFlags() {
-   byte[] flagBytes = Bytehelper.readBytes(this.headerOffset, FLAGS_SIZE, this.headerArr);
-   // System.out.println("Flags: " + Bytehelper.bytesToHex(flagBytes));
+   byte flags = this.headerArr[this.headerOffset];
+   byte flagsAndRCode = this.headerArr[this.headerOffset + 1];
    this.headerOffset += FLAGS_SIZE;
-   this.authBool = getBit(flagBytes[0], 2); // get the AA bit from the 1st byte of flagbytes
-   this.RCode = flagBytes[1] & 0x0F; // get the last 4 bits of the 2nd byte for RCode
+   this.authBool = getBit(flags, 2); // get the AA bit from the 1st byte of flagbytes
+   this.RCode = flagsAndRCode & 0x0F; // get the last 4 bits of the 2nd byte for RCode
    checkRCode();
   }
 
@@ -208,142 +228,32 @@ public class DNSResponse {
   }
 
   private void extractQDCount() {
-   byte[] QDCountBytes = Bytehelper.readBytes(this.headerOffset, QD_SIZE, this.headerArr);
-   this.QDCount = Integer.parseInt(Bytehelper.bytesToHex(QDCountBytes), 16);
+   this.QDCount = Bytehelper.readUnsignedShort(this.headerOffset, this.headerArr);
    this.headerOffset += QD_SIZE;
   }
 
   private void extractANCount() {
-   byte[] ANBytes = Bytehelper.readBytes(this.headerOffset, AN_SIZE, this.headerArr);
-   this.ANCount = Integer.parseInt(Bytehelper.bytesToHex(ANBytes), 16);
+   this.ANCount = Bytehelper.readUnsignedShort(this.headerOffset, this.headerArr);
    this.headerOffset += AN_SIZE;
   }
 
   private void extractNSCount() {
-   byte[] NSBytes = Bytehelper.readBytes(this.headerOffset, NS_SIZE, this.headerArr);
-   this.NSCount = Integer.parseInt(Bytehelper.bytesToHex(NSBytes), 16);
+   this.NSCount = Bytehelper.readUnsignedShort(this.headerOffset, this.headerArr);
    this.headerOffset += NS_SIZE;
   }
   private void extractARCount() {
-   byte[] ARBytes = Bytehelper.readBytes(this.headerOffset, AR_SIZE, this.headerArr);
-   this.ARCount = Integer.parseInt(Bytehelper.bytesToHex(ARBytes), 16);
-   this.headerOffset += NS_SIZE;
+   this.ARCount = Bytehelper.readUnsignedShort(this.headerOffset, this.headerArr);
+   this.headerOffset += AR_SIZE;
   }
  }
 
- /**
-  * A class that contains the method {@code extractCompressionName} for extracting a compression format name.
-  *  This class is to be extended by classes that potentially have fields following compression format
-  */
- private class CompressionFormat {
-  private final static int OFFSET_POS = 1; // posistion from RHS where offset is
-  private final static int OFFSET_SIZE = 14; // number of bits of the offset
-  private final int POINTER_SIZE = 2;
-  private int domainOffset;
-  public CompressionFormat() {
-
-  }
-  private int extractOffset(int message) {
-   int offset = bitExtracted(message, OFFSET_SIZE, OFFSET_POS);
-   return offset;
-  }
-
-  /**
-  *  get the domain offset. Usually used when a pointer has been encountered
-  @param offset The offset where you are currently at
-  */
-  public void getDomainOffset(int offset) {
-   try {
-    int curByte = responseBuffer[offset] & 0xFF;
-    boolean isPointer = isPointer(curByte);
-    if (!isPointer) {
-     // if the initial offset is not a pointer pass back current address
-     this.domainOffset = offset == currAddr ? currAddr : offset; // decimal representation
-     //   System.out.println("domain offset is: " + this.domainOffset);
-     return;
-    } else {
-     byte[] messageBytes = new byte[2];
-     messageBytes[0] = responseBuffer[offset];
-     messageBytes[1] = responseBuffer[offset + 1];
-     int convertedMessageInt = Integer.parseInt(Bytehelper.bytesToHex(messageBytes), 16);
-     int extractedOffset = extractOffset(convertedMessageInt);
-     getDomainOffset(extractedOffset);
-    }
-   } catch (ArrayIndexOutOfBoundsException err) {
-    System.err.println("Error occured in getDomainOffset");
-    System.err.println("Illegal array access based on offset");
-    throw new RuntimeException(err);
-   } catch (NumberFormatException err1) {
-    System.err.println("Error occured in getDomainOffset");
-    throw new RuntimeException(err1);
-   }
-  }
-
-  // label is defined as a non-string literal (E.g has pointer or label or combination of both)
-  /**
-   * Extract A Label, which is defined as a non-string literal (E.g is of the form pointer, label or a combination of both)
-   *  This is usually the case for NS and CNAME records, where their RData are not string-literals (unlike A and AAAA records)
-   * @param offset The offset of current address
-   */
-  public HashMap < String, String > extractCompressionName(int offset) {
-   int curByte = responseBuffer[offset] & 0xFF; // cast to int
-   HashMap < String, String > labelMap = new HashMap < String, String > ();
-   String pointerName = "";
-   boolean pointerFlag = isPointer(curByte);
-   while (curByte != 0 && !pointerFlag) {
-    int label_length = curByte;
-    byte[] label_bytes = Bytehelper.readBytes(offset + 1, label_length, responseBuffer);
-    offset += label_length + 1;
-    try {
-     String labelString = new String(label_bytes, "US-ASCII");
-     pointerName += labelString + ".";
-     // System.out.println(labelString);
-     curByte = responseBuffer[offset] & 0xFF; // cast to int
-     pointerFlag = isPointer(curByte);
-     // System.out.println("pointer flag: " + pointerFlag);
-     //   System.out.println("cur byte: " + curByte);
-    } catch (UnsupportedEncodingException err) {
-     System.err.println("Error pccured in extractCompressionName");
-     throw new RuntimeException(err);
-    } catch (ArrayIndexOutOfBoundsException err1) {
-     System.err.println("Error occured in extractCompressionName");
-     System.err.println("Ileggal offset access of responseBuffer: Should not occur: " + offset);
-     throw new RuntimeException(err1);
-    }
-   }
-   if (pointerFlag == true) {
-    // Name with terminating pointer
-    getDomainOffset(offset);
-    //System.out.println("the domain offset at terminating pointer: " + this.domainOffset);
-    HashMap < String, String > labelInfo = extractCompressionName(this.domainOffset);
-    pointerName += labelInfo.get("name");
-    labelMap.put("name", pointerName);
-    offset += POINTER_SIZE;
-    labelMap.put("offset", Integer.toString(offset));
-    return labelMap;
-   }
-   // label with terminating 0 byte
-   // System.out.println("Reached label with terminating byte");
-   offset += 1;
-   String formatString = removeLastChar(pointerName);
-   labelMap.put("name", formatString); /// remove last "." character
-   labelMap.put("offset", Integer.toString(offset));
-   return labelMap;
-  }
-
-  // determine if answer name is using compressed format (left most bits are 1 1)
-  private boolean isPointer(int firstByte) {
-   int two_left_bits = bitExtracted(firstByte, 2, 7); // if first byte is a pointer, left most 2 bits are 1 1, which is value 3
-   return two_left_bits == 3;
-  }
- }
  /**
   *  parseQuestion Object contains the following attributes <p>
   * QName (String): The domain name being queried
   * QType (String): The Question tyoe
   * QClass (String): The Question Class
   */
- private class parseQuestion extends CompressionFormat {
+ private class parseQuestion {
   private static final int QTYPE_SIZE = 2;
   private static final int QCLASS_SIZE = 2;
   String QName = "";
@@ -359,54 +269,41 @@ public class DNSResponse {
   }
 
   private void extractQName() {
-   CompressionFormat cf = new CompressionFormat();
-   // resoure name is never a literal (non label)
-   cf.getDomainOffset(currAddr);
-   // System.out.println("Current offset resource name: " + currAddr);
-   // System.out.println("Domain offset resource name: " + this.domainOffset);
-   // resource name is label
-   if (cf.domainOffset == currAddr) {
-    // if resource name is not using a pointer format  set the curaddrr to the number of bytes read for label
-    HashMap < String, String > nameMap = cf.extractCompressionName(currAddr);
-    this.QName = removeLastChar(nameMap.get("name")); // remove last "." character
-    currAddr = Integer.parseInt(nameMap.get("offset")); // set the new offset
-   } else {
-    // resource name is using pointer only read two bytes
-    currAddr += cf.POINTER_SIZE;
-    HashMap < String, String > nameMap = cf.extractCompressionName(cf.domainOffset);
-    this.QName = removeLastChar(nameMap.get("name")); // remove last "." character
+   // names are read straight into their canonical form, following compression pointers
+   this.QName = DNSName.fromWire(responseBuffer, currAddr, responseLength).toString();
+   currAddr += DNSName.wireLength(responseBuffer, currAddr, responseLength);
+   if (currAddr + QTYPE_SIZE + QCLASS_SIZE > responseLength) {
+    throw new IllegalArgumentException("Question runs past the end of the message");
    }
-   // System.out.println("Current offset after parse Name: " + currAddr);  
   }
 
   private void extractQType() {
-   String hexQType = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, QTYPE_SIZE, responseBuffer));
-   // System.out.println("QType hex: " + hexQType);
-   this.QType = convertTypeCode(Integer.parseInt(hexQType, 16));
+   this.QType = convertTypeCode(Bytehelper.readUnsignedShort(currAddr, responseBuffer));
    currAddr += QTYPE_SIZE;
   }
   private void extractQClass() {
-   this.QClass = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, QCLASS_SIZE, responseBuffer));
+   this.QClass = Integer.toString(Bytehelper.readUnsignedShort(currAddr, responseBuffer));
    currAddr += QCLASS_SIZE;
   }
  }
 
  /**
-  *  parseResourceRecord Object contains the following attributes <p>
+  *  ParsedRecord Object, a record parsed from the response at the current offset, contains the following attributes <p>
   * resourceName (String): The name of the resource
-  * resourceType (String): The resource type in decimal representation (E.g A is 1)
-  * resourceClass (String): The resouceClass 
-  * TTL (String): The TTL of the resource expressed as a hex string to have 0x infront for easier long decoding
-  * RDLength (String): The Question Class 
-  * RData (String): The Question Class
+  * typeCode (int): The resource type code (E.g A is 1)
+  * resourceClass (int): The resouceClass 
+  * TTL (long): The TTL of the resource in seconds
+  * RDLength (int): The number of bytes of RData
+  * RData (String): The RData in presentation format, or null if the type is not supported <p>
+  * The fields are read with the getters below
   */
- private class parseResourceRecord extends CompressionFormat {
-  String resourceName;
-  String resourceType;
-  String resourceClass;
-  String TTL;
-  int RDLength; // number of bytes(octets) to read for RDData
-  String RData;
+ class ParsedRecord {
+  private String resourceName;
+  private int typeCode;
+  private int resourceClass;
+  private long TTL;
+  private int RDLength; // number of bytes(octets) to read for RDData
+  private String RData;
   // private Boolean pointerFlag;
   // this works for any number of elements:
   public final static int POINTER_SIZE = 2;
@@ -419,8 +316,11 @@ public class DNSResponse {
   private final static int OFFSET_POS = 1; // posistion from RHS where offset is
   private final static int OFFSET_SIZE = 14; // number of bits of the offset
 
-  public parseResourceRecord() {
+  ParsedRecord() {
    extractResourceName();
+   if (currAddr + TYPE_SIZE + CLASS_SIZE + TTL_SIZE + RDLENGTH_SIZE > responseLength) {
+    throw new IllegalArgumentException("Record runs past the end of the message");
+   }
    extractResourceType();
    extractResourceClass();
    extractTTL();
@@ -434,48 +334,62 @@ public class DNSResponse {
    // System.out.println("RD Data: " + this.RData);
   }
 
-  private void extractResourceName() {
-   // resoure name is never a literal (non label)
-   CompressionFormat cf = new CompressionFormat();
-   cf.getDomainOffset(currAddr);
-   // System.out.println("Current offset resource name: " + currAddr);
-   // System.out.println("Domain offset resource name: " + this.domainOffset);
-   // resource name is label
-   if (cf.domainOffset == currAddr) {
-    // if resource name is not using a pointer format  set the curaddrr to the number of bytes read for label
-    HashMap < String, String > nameMap = cf.extractCompressionName(currAddr);
-    this.resourceName = nameMap.get("name");
-    currAddr = Integer.parseInt(nameMap.get("offset")); // set the new offset
-   } else {
-    // resource name is using pointer only read two bytes
-    currAddr += cf.POINTER_SIZE;
-    HashMap < String, String > nameMap = cf.extractCompressionName(cf.domainOffset);
-    this.resourceName = nameMap.get("name");
-   }
-   // System.out.println("Current offset after parse Name: " + currAddr);  
+  /**
+   * @return The name of the record, without the final dot
+   */
+  String getName() {
+   return this.resourceName;
+  }
+
+  /**
+   * @return The type code of the record (E.g A is 1)
+   */
+  int getType() {
+   return this.typeCode;
   }
 
+  /**
+   * @return The class code of the record (E.g IN is 1)
+   */
+  int getRecordClass() {
+   return this.resourceClass;
+  }
 
+  /**
+   * @return The TTL of the record in seconds
+   */
+  long getTTL() {
+   return this.TTL;
+  }
+
+  /**
+   * @return The RData in presentation format (an address for A and AAAA, a name for NS and CNAME, the seven fields
+   * of an SOA), or null if the type is not supported
+   */
+  String getRdata() {
+   return this.RData;
+  }
+
+  private void extractResourceName() {
+   this.resourceName = DNSName.fromWire(responseBuffer, currAddr, responseLength).toString();
+   currAddr += DNSName.wireLength(responseBuffer, currAddr, responseLength);
+  }
 
   private void extractRDData() {
-   int typeCode = Integer.parseInt(this.resourceType);
+   if (currAddr + this.RDLength > responseLength) {
+    throw new IllegalArgumentException("Record data runs past the end of the message");
+   }
    if (!typesSupported.containsKey(typeCode)) {
     // skip record (RData as type not supported) TODO
     currAddr += this.RDLength;
     return;
    }
    boolean isRDataLabel = typesSupported.get(typeCode);
-   CompressionFormat cf = new CompressionFormat();
-   if (isRDataLabel) {
-    // if rdata is a label handle label case
-    cf.getDomainOffset(currAddr);
-    // System.out.println("Current offset RData: " + currAddr);
-    // System.out.println("Domain offset RData: " + this.domainOffset);    // if resource name is not using a pointer format  set the curaddrr to the number of bytes read for label
-    HashMap < String, String > nameMap = cf.extractCompressionName(cf.domainOffset);
-    this.RData = nameMap.get("name");
-    // currAddr += this.RDLength;
-    //currAddr = Integer.parseInt(nameMap.get("offset")); // set the new offset
-    // System.out.println("Domain offset AFTER RData: " + currAddr);
+   if (typeCode == 6) {
+    extractSOA(currAddr);
+   } else if (isRDataLabel) {
+    // if rdata is a label handle label case (for SOA this is the primary name server)
+    this.RData = DNSName.fromWire(responseBuffer, currAddr, currAddr + this.RDLength).toString();
    } else {
     // TODO SET THE OFFSET OF RDDATA
     // resource name is a literal treat as real string (non -label case)
@@ -485,6 +399,27 @@ public class DNSResponse {
    // System.out.println("Current offset after parse Record RData: " + this.RData + " | " + currAddr);
   }
 
+  /**
+* Extract the RData of an SOA record in presentation format: the primary name server, the mailbox of the person responsible, then the serial, refresh, retry, expire and minimum fields.
+* The SOA record is what negative answers carry in their authority section.
+@param offset The offset of the RData
+  */
+  private void extractSOA(int offset) {
+   int end = offset + this.RDLength;
+   String mname = DNSName.fromWire(responseBuffer, offset, end).toString();
+   offset += DNSName.wireLength(responseBuffer, offset, end);
+   String rname = DNSName.fromWire(responseBuffer, offset, end).toString();
+   offset += DNSName.wireLength(responseBuffer, offset, end);
+   if (offset + 20 > end) {
+    throw new RuntimeException("SOA record too short");
+   }
+   StringBuilder rdata = new StringBuilder(mname).append(' ').append(rname);
+   for (int i = 0; i < 5; i++) {
+    rdata.append(' ').append(Bytehelper.readUnsignedInt(offset + 4 * i, responseBuffer));
+   }
+   this.RData = rdata.toString();
+  }
+
   // (E.g string literal, Should never encounter a pointer never terminates with null byte)
   // string literal represents ip address
   /**
@@ -495,39 +430,33 @@ public class DNSResponse {
   */
   private void extractNonLabel(int offset, int num) {
    try {
-    byte[] ipBytes = Bytehelper.readBytes(offset, num, responseBuffer);
-    InetAddress convertedAddress = InetAddress.getByAddress(ipBytes);
-    this.RData = convertedAddress.getHostAddress();
-    // currAddr += num;
-   } catch (UnknownHostException err) {
+    // formatted straight from the buffer, as InetAddress.getHostAddress would
+    this.RData = Bytehelper.addressToString(offset, num, responseBuffer);
+   } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException err) {
     System.err.println("Error occured in extractNonLabel");
     throw new RuntimeException(err);
    }
   }
 
   private void extractResourceType() {
-   String typeString = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, TYPE_SIZE, responseBuffer));
+   this.typeCode = Bytehelper.readUnsignedShort(currAddr, responseBuffer);
    currAddr += TYPE_SIZE;
-   this.resourceType = Integer.toString(Integer.parseInt(typeString, 16)); // decimal representation
-   // System.out.println("Resouce type is: " + convertTypeCode(Integer.parseInt(this.resourceType)));
+   // System.out.println("Resouce type is: " + convertTypeCode(this.typeCode));
   }
 
   private void extractResourceClass() {
-   String classString = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, CLASS_SIZE, responseBuffer));
+   this.resourceClass = Bytehelper.readUnsignedShort(currAddr, responseBuffer);
    currAddr += CLASS_SIZE;
-   this.resourceClass = Integer.toString(Integer.parseInt(classString, 16)); // decimal representation
   }
 
   private void extractTTL() {
-   String ttlString = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, TTL_SIZE, responseBuffer));
+   this.TTL = Bytehelper.readUnsignedInt(currAddr, responseBuffer);
    currAddr += TTL_SIZE;
-   this.TTL = "0x" + ttlString; // format ttl hex string to have 0x infront, easier for long decoding
   }
 
   private void extractRDLength() {
-   String rdString = Bytehelper.bytesToHex(Bytehelper.readBytes(currAddr, RDLENGTH_SIZE, responseBuffer));
+   this.RDLength = Bytehelper.readUnsignedShort(currAddr, responseBuffer);
    currAddr += RDLENGTH_SIZE;
-   this.RDLength = Integer.parseInt(rdString, 16);
   }
  }
  /**
@@ -596,12 +525,11 @@ public class DNSResponse {
  // the key are the field names and the coressponding value is the response value 
  /**
 * get all the resource records in the section {@code type}
-@return A List of all the records  in the section {@code type}. Each element in the List is a HashMap<String, String> with keys
-* rdata, name, ttl, class, rtype
+@return A List of all the records  in the section {@code type}. Each element in the List is a ParsedRecord
 @param type The section to extract records from
   */
- private List < Map < String, String >> getResourceRecordsInfo(String type) {
-  List < Map < String, String >> recordList = new ArrayList < Map < String, String >> ();
+ private List < ParsedRecord > getResourceRecordsInfo(String type) {
+  List < ParsedRecord > recordList = new ArrayList < ParsedRecord > ();
   int i = 0;
   int n;
   switch (type) {
@@ -619,20 +547,14 @@ public class DNSResponse {
     System.err.println("Opps: Should never reach here as custom code");
   }
   // System.out.println("Number of " + type + " " + n);
-  while (i < n && currAddr < responseBuffer.length) {
-   HashMap < String, String > recordInfo = new HashMap();
-   parseResourceRecord resource = new parseResourceRecord();
-   recordInfo.put("rdata", resource.RData);
-   recordInfo.put("name", resource.resourceName);
-   recordInfo.put("ttl", resource.TTL);
-   recordInfo.put("class", resource.resourceClass);
-   recordInfo.put("rtype", resource.resourceType);
-   // System.out.println("Inserting into rdata into map: " + resource.RData);
-   // System.out.println("Inserting into name into map: " + resource.resourceName);
-   // System.out.println("Inserting into ttl into map: " + resource.TTL);
-   //  System.out.println("Inserting into class into map: " + resource.resourceClass);
-   //System.out.println("Inserting into rtype into map: " + resource.resourceType);
-   recordList.add(recordInfo);
+  while (i < n && currAddr < responseLength) {
+   try {
+    recordList.add(new ParsedRecord());
+   } catch (IllegalArgumentException err) {
+    // a truncated message ends with a partial record: keep the records that fit, parse no further
+    currAddr = responseLength;
+    break;
+   }
    //System.out.println("Current offset after parse record resource: " + currAddr);
    i++;
   }
@@ -641,13 +563,13 @@ public class DNSResponse {
   return recordList;
  }
 
- private void printRecordListVals(List < Map < String, String >> recordList) {
+ private void printRecordListVals(List < ParsedRecord > recordList) {
   for (int i = 0; i < recordList.size(); i++) {
-    System.out.println("rdata val : " + recordList.get(i).get("rdata"));
-    System.out.println("ttl val: " + recordList.get(i).get("ttl"));
-    System.out.println("name val: " + recordList.get(i).get("name"));
-    System.out.println("class val: " + recordList.get(i).get("class"));
-    System.out.println("rtype val: " + recordList.get(i).get("rtype"));
+    System.out.println("rdata val : " + recordList.get(i).getRdata());
+    System.out.println("ttl val: " + recordList.get(i).getTTL());
+    System.out.println("name val: " + recordList.get(i).getName());
+    System.out.println("class val: " + recordList.get(i).getRecordClass());
+    System.out.println("rtype val: " + recordList.get(i).getType());
   }
  }
 
@@ -657,58 +579,52 @@ public class DNSResponse {
 @param sectionType The sectionType of interest
   */
  private void getAandNSRecords(int sectionType) {
-  int num;
-  List < Map < String, String >> resourceList;
+  List < ParsedRecord > resourceList;
   switch (sectionType) {
    case 1:
-    num = this.numAnswers;
     resourceList = this.answerRecords;
     break;
    case 2:
-    num = this.numNameservers;
     resourceList = this.nameRecords;
     break;
    case 3:
-    num = this.numAddInfo;
     resourceList = this.addRecords;
     break;
    default:
     throw new RuntimeException("Should not reach here, error with section type code");
   }
-  for (int i = 0; i < num; i++) {
-   Map < String, String > resourceMap = resourceList.get(i);
-   String rType = resourceMap.get("rtype");
-   int convertRTypecode = Integer.parseInt(rType);
+  for (int i = 0; i < resourceList.size(); i++) {
+   ParsedRecord resourceRecord = resourceList.get(i);
+   int convertRTypecode = resourceRecord.getType();
    // a record
    if (convertRTypecode == 1) {
     this.numARecords++;
-    this.aRecords.add(resourceMap);
+    this.aRecords.add(resourceRecord);
    } else {
     // ns record
     if (convertRTypecode == 2) {
      this.numNSRecords++;
-     this.nsRecords.add(resourceMap);
+     this.nsRecords.add(resourceRecord);
     }
    }
   }
  }
 
  /**
-  * Get a list of servers to query (based on NS and corresponding A records) <p>
+  * Get a list of servers to query (based on NS and corresponding A and AAAA records) <p>
   * Adds servers to serversToQueryArr
   */
 
  private void getServersToQuery() {
-  boolean hasNameRecords = this.numNameservers > 0;
-  boolean hasAddrecords = this.numAddInfo > 0;
+  boolean hasNameRecords = !this.nameRecords.isEmpty();
+  boolean hasAddrecords = !this.addRecords.isEmpty();
   // if not a valid authoritative answer and has name + additional records
   if (!this.isAuth && hasNameRecords && hasAddrecords) {
-   for (int i = 0; i < this.numAddInfo; i++) {
-    String rType = addRecords.get(i).get("rtype");
-    int convertRTypecode = Integer.parseInt(rType);
-    // if is an A record get the name and RData (Ip address)
-    if (convertRTypecode == 1) {
-     String ipAddress = addRecords.get(i).get("rdata");
+   for (int i = 0; i < this.addRecords.size(); i++) {
+    int convertRTypecode = addRecords.get(i).getType();
+    // if is an A or AAAA record get the name and RData (Ip address)
+    if (convertRTypecode == 1 || convertRTypecode == 28) {
+     String ipAddress = addRecords.get(i).getRdata();
      this.serversToQueryArr.add(ipAddress);
     }
    }
@@ -734,7 +650,7 @@ public class DNSResponse {
  // determine if a "dead-end "is reached. This means no A/AAAA records are present, No answers, only name servers are provided
  private void setQueryNSFlag() {
   // TODO better guard with the presence of AA records???
-  this.queryNSFlag = (numAddInfo == 0) && (numAnswers == 0) && (numNameservers > 0);
+  this.queryNSFlag = addRecords.isEmpty() && answerRecords.isEmpty() && !nameRecords.isEmpty();
  }
 
  // if AA bit is 1 and  RCode is 0 (no error) check if an answer field exists
@@ -744,7 +660,7 @@ public class DNSResponse {
  private void validateAuthResponse() {
   boolean authBool = this.authFlag == "true" ? true : false;
   boolean RCodeBool = this.RCode == 0;
-  boolean numAnswerBool = this.numAnswers > 0;
+  boolean numAnswerBool = !this.answerRecords.isEmpty();
   this.validAuthFlag = authBool && RCodeBool && numAnswerBool;
  }
 
@@ -803,20 +719,18 @@ public class DNSResponse {
  private byte[] extractHeaderBytes() {
   byte[] headerBytes = Bytehelper.readBytes(currAddr, HEADER_SIZE, responseBuffer);
   currAddr += HEADER_SIZE;
-  String hexResString = Bytehelper.bytesToHex(headerBytes);
-  // System.out.println("Response header HEXstring: " + hexResString);
   return headerBytes;
  }
 
  /**
   *  Populate typesSupported hash which is an hashset containing resource records supported along with a boolean determining if their RData is a label or literal string
   */
- private void populateTypesSupported() {
-  this.typesSupported.put(1, false); // A record not a label
-  this.typesSupported.put(2, true); // NS record is label
-  this.typesSupported.put(5, true); // CNAME is label
-  this.typesSupported.put(28, false); // AAAA not label
-  this.typesSupported.put(6, true); // SOA is label
+ private static void populateTypesSupported() {
+  typesSupported.put(1, false); // A record not a label
+  typesSupported.put(2, true); // NS record is label
+  typesSupported.put(5, true); // CNAME is label
+  typesSupported.put(28, false); // AAAA not label
+  typesSupported.put(6, true); // SOA is label
  }
 
  /**
@@ -0,0 +1,436 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A DNS server answering queries from clients over UDP, so the resolver can run as a local
+ * caching name server that applications point at.
+ *
+ * <p>Queries are received by a number of listeners, each running its own receive loop on its own
+ * thread. Where the platform supports {@code SO_REUSEPORT}, every listener has its own
+ * {@link DatagramChannel} bound to the same port, and the kernel spreads the clients over them;
+ * otherwise the listeners share one channel and take turns receiving from it. Each listener has
+ * preallocated buffers and a small cache of the answers it gave recently, which only it reads and
+ * writes, so a repeated query is answered without locking or allocating buffers, by the listener
+ * that received it. Other queries are handed to a pool of workers, which answer them through a
+ * {@link Resolver}; concurrent queries for the same name and type are resolved once, and the
+ * other clients get the same answer.</p>
+ *
+ * <p>A name that does not exist is answered with NXDOMAIN, and a negative answer carries the SOA
+ * record of its zone in the authority section when the resolver found one, so clients can cache
+ * it (RFC 2308). Answers from zones the resolver is authoritative for have the AA bit set.</p>
+ *
+ * <p>Responses use name compression and are limited to 512 bytes, as clients do not advertise a
+ * larger size without EDNS; a response that does not fit is truncated and has the TC bit set.
+ * Queries are dropped, rather than queued without bound, when every worker is busy and the queue
+ * is full.</p>
+ */
+public class DNSServer implements AutoCloseable {
+
+    public static final int MAX_UDP_SIZE = 512; // max size of a response without EDNS
+    private static final int HEADER_SIZE = 12;
+    private static final int QUEUE_PER_WORKER = 64; // queries waiting for a worker before new ones are dropped
+    private static final int LISTENER_CACHE_SIZE = 4096; // answers kept by each listener
+
+    /** Answers the questions received by a server. */
+    @FunctionalInterface
+    public interface Resolver {
+        /** Answers a question. May be called by several workers at once.
+         *
+         * @param question Host name and record type asked.
+         * @return The answer to the question, or null if the question could not be answered.
+         */
+        Result resolve(DNSNode question);
+    }
+
+    /** What a {@link Resolver} found for a question: the records answering it, or a negative
+     * answer with the SOA record of the zone that gave it. */
+    public static final class Result {
+        private final List<ResourceRecord> records;
+        private final int rcode;
+        private final ResourceRecord authority;
+        private final boolean authoritative;
+
+        /** @param records       The records answering the question, CNAME records followed first, possibly empty.
+         * @param rcode         {@link DNSMessageWriter#RCODE_NOERROR}, or {@link DNSMessageWriter#RCODE_NXDOMAIN} if the
+         *                      name does not exist.
+         * @param authority     SOA record for the authority section of a negative answer, or null.
+         * @param authoritative Whether the answer comes from a zone the resolver is authoritative for (AA bit).
+         */
+        public Result(List<ResourceRecord> records, int rcode, ResourceRecord authority, boolean authoritative) {
+            this.records = records;
+            this.rcode = rcode;
+            this.authority = authority;
+            this.authoritative = authoritative;
+        }
+
+        /** @return A non-authoritative answer with the given records. */
+        public static Result of(List<ResourceRecord> records) {
+            return new Result(records, DNSMessageWriter.RCODE_NOERROR, null, false);
+        }
+
+        public List<ResourceRecord> getRecords() {
+            return records;
+        }
+
+        public int getRcode() {
+            return rcode;
+        }
+
+        public ResourceRecord getAuthority() {
+            return authority;
+        }
+
+        public boolean isAuthoritative() {
+            return authoritative;
+        }
+    }
+
+    /** An answer given to a question, valid until the first of its records expires. */
+    private static final class Answer {
+        final DNSNode question;
+        final Result result;
+        final long expirationTime;
+
+        Answer(DNSNode question, Result result) {
+            this.question = question;
+            this.result = result;
+            long expiration = Long.MAX_VALUE;
+            for (ResourceRecord record : result.records)
+                expiration = Math.min(expiration, record.getExpirationTime());
+            this.expirationTime = expiration;
+        }
+
+        boolean isStillValid() {
+            return expirationTime > CoarseClock.currentTimeMillis();
+        }
+    }
+
+    /** A receive loop with its channel, buffers and recent answers. */
+    private final class Listener implements Runnable {
+        final DatagramChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_UDP_SIZE);
+        final DNSMessageWriter writer = new DNSMessageWriter(MAX_UDP_SIZE);
+        final Map<DNSNode, Answer> answers = new LinkedHashMap<DNSNode, Answer>(LISTENER_CACHE_SIZE * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DNSNode, Answer> eldest) {
+                return size() > LISTENER_CACHE_SIZE;
+            }
+        };
+        final Queue<Answer> resolved = new ConcurrentLinkedQueue<>(); // answers found by workers, to add to the map
+
+        Listener(DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            byte[] query = in.array();
+            while (channel.isOpen()) {
+                in.clear();
+                SocketAddress client;
+                try {
+                    client = channel.receive(in);
+                } catch (ClosedChannelException e) {
+                    return;
+                } catch (IOException e) {
+                    continue;
+                }
+                received.increment();
+                for (Answer answer; (answer = resolved.poll()) != null; )
+                    answers.put(answer.question, answer);
+                try {
+                    handle(this, query, in.position(), client);
+                } catch (IllegalArgumentException e) {
+                    malformed.increment();
+                    if (in.position() >= HEADER_SIZE)
+                        send(channel, client, errorResponse(writer, query, DNSMessageWriter.RCODE_FORMERR, -1));
+                }
+            }
+        }
+    }
+
+    private final Resolver resolver;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Thread> listenerThreads = new ArrayList<>();
+    private final ThreadPoolExecutor workers;
+    private final ThreadLocal<DNSMessageWriter> workerWriter = ThreadLocal.withInitial(() -> new DNSMessageWriter(MAX_UDP_SIZE));
+    private final Map<DNSNode, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+    private final int port;
+    private final boolean reusePort;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder listenerHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /** Binds a server with a single listener to an address and starts answering queries.
+     *
+     * @param address  Address and UDP port to listen on; port 0 picks a free port.
+     * @param threads  Number of workers resolving queries concurrently.
+     * @param resolver Source of the answers.
+     * @throws IOException If the socket cannot be bound.
+     */
+    public DNSServer(InetSocketAddress address, int threads, Resolver resolver) throws IOException {
+        this(address, 1, threads, resolver);
+    }
+
+    /** Binds a server to an address and starts answering queries.
+     *
+     * @param address   Address and UDP port to listen on; port 0 picks a free port.
+     * @param listeners Number of receive loops, typically one per core.
+     * @param threads   Number of workers resolving queries concurrently.
+     * @param resolver  Source of the answers.
+     * @throws IOException If the socket cannot be bound.
+     */
+    public DNSServer(InetSocketAddress address, int listeners, int threads, Resolver resolver) throws IOException {
+        this.resolver = resolver;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER), r -> {
+                    Thread thread = new Thread(r, "dns-server-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        DatagramChannel first = DatagramChannel.open();
+        boolean reuse = listeners > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        try {
+            if (reuse)
+                first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            first.bind(address);
+            channels.add(first);
+            this.port = ((InetSocketAddress) first.getLocalAddress()).getPort();
+            for (int i = 1; i < listeners && reuse; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(address.getAddress(), port));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.reusePort = reuse;
+
+        for (int i = 0; i < listeners; i++) {
+            // without SO_REUSEPORT, every listener receives from the one channel
+            Thread thread = new Thread(new Listener(channels.get(reuse ? i : 0)), "dns-server-listener-" + i);
+            listenerThreads.add(thread); // keeps the JVM running until closed
+            thread.start();
+        }
+    }
+
+    /** @return The UDP port the server listens on. */
+    public int getPort() {
+        return port;
+    }
+
+    /** @return The number of listeners, each with its own receive loop. */
+    public int getListenerCount() {
+        return listenerThreads.size();
+    }
+
+    /** @return true if each listener has its own socket bound with {@code SO_REUSEPORT}, false if
+     * the listeners share one socket. */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /** Stops receiving queries. Queries already handed to the workers are dropped. */
+    @Override
+    public void close() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    /** Handles one query received by a listener: answers it right away if the listener answered
+     * the same question recently, or hands it to the workers.
+     *
+     * @throws IllegalArgumentException If the query is malformed.
+     */
+    private void handle(Listener listener, byte[] query, int length, SocketAddress client) {
+        if (length < HEADER_SIZE + 5)
+            throw new IllegalArgumentException("Query too short");
+        if ((query[2] & 0x80) != 0)
+            return; // a response, never answer it
+        int opcode = (query[2] >> 3) & 0x0F;
+        int questions = (query[4] & 0xFF) << 8 | (query[5] & 0xFF);
+        if (opcode != 0 || questions != 1) {
+            send(listener.channel, client, errorResponse(listener.writer, query, DNSMessageWriter.RCODE_NOTIMP, -1));
+            return;
+        }
+
+        // the buffer is reused, so anything past this datagram is left over from an earlier one
+        DNSName name = DNSName.fromWire(query, HEADER_SIZE, length);
+        int end = HEADER_SIZE + DNSName.wireLength(query, HEADER_SIZE, length) + 4;
+        if (end > length)
+            throw new IllegalArgumentException("Question runs past the end of the query");
+        int typeCode = (query[end - 4] & 0xFF) << 8 | (query[end - 3] & 0xFF);
+        int classCode = (query[end - 2] & 0xFF) << 8 | (query[end - 1] & 0xFF);
+        RecordType type = RecordType.getByCode(typeCode);
+        if (classCode != 1 || !isSupported(type)) {
+            send(listener.channel, client, errorResponse(listener.writer, query, DNSMessageWriter.RCODE_NOTIMP, end));
+            return;
+        }
+
+        DNSNode question = new DNSNode(name, type);
+        Answer recent = listener.answers.get(question);
+        if (recent != null && recent.isStillValid()) {
+            listenerHits.increment();
+            send(listener.channel, client, encode(listener.writer, query, end, recent.result));
+            return;
+        }
+        byte[] copy = Arrays.copyOf(query, end);
+        try {
+            workers.execute(() -> resolve(listener, question, copy, client));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    private static boolean isSupported(RecordType type) {
+        return type == RecordType.A || type == RecordType.AAAA || type == RecordType.NS || type == RecordType.CNAME;
+    }
+
+    /** Resolves a query on a worker, sends the response through the listener's channel and hands
+     * the answer back to the listener.
+     */
+    private void resolve(Listener listener, DNSNode question, byte[] query, SocketAddress client) {
+        DNSMessageWriter writer = workerWriter.get();
+        Result result = resolveOnce(question);
+        if (result == null) {
+            failed.increment();
+            send(listener.channel, client, errorResponse(writer, query, DNSMessageWriter.RCODE_SERVFAIL, query.length));
+            return;
+        }
+        send(listener.channel, client, encode(writer, query, query.length, result));
+        if (!result.records.isEmpty())
+            listener.resolved.add(new Answer(question, result));
+    }
+
+    /** Resolves a question, or waits for the resolution of the same question by another worker. */
+    private Result resolveOnce(DNSNode question) {
+        CompletableFuture<Result> mine = new CompletableFuture<>();
+        CompletableFuture<Result> running = inFlight.putIfAbsent(question, mine);
+        if (running != null) {
+            coalesced.increment();
+            return running.join();
+        }
+        try {
+            Result result = resolver.resolve(question);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.complete(null);
+            return null;
+        } finally {
+            inFlight.remove(question, mine);
+        }
+    }
+
+    private void send(DatagramChannel channel, SocketAddress client, ByteBuffer response) {
+        try {
+            channel.send(response, client);
+            answered.increment();
+        } catch (IOException e) {
+            // client gone or channel closed, nothing to do
+        }
+    }
+
+    /** Writes a response with the question of the query and the answer records of a result, as
+     * many as fit, then the SOA record of a negative answer.
+     *
+     * @return The response, ready to be sent.
+     */
+    private static ByteBuffer encode(DNSMessageWriter writer, byte[] query, int questionEnd, Result result) {
+        start(writer, query, result.rcode | (result.authoritative ? DNSMessageWriter.FLAG_AA : 0));
+        writer.copyQuestion(query, HEADER_SIZE, questionEnd - HEADER_SIZE);
+        for (ResourceRecord record : result.records) {
+            if (!writer.writeRecord(DNSMessageWriter.Section.ANSWER, record)) {
+                writer.setTruncated(); // the client should retry over TCP
+                return writer.toByteBuffer();
+            }
+        }
+        if (result.authority != null && !writer.writeRecord(DNSMessageWriter.Section.AUTHORITY, result.authority))
+            writer.setTruncated();
+        return writer.toByteBuffer();
+    }
+
+    /** Writes an error response to a query, with the question of the query if its end is known.
+     *
+     * @param questionEnd Offset of the end of the question in the query, or -1 to leave it out.
+     * @return The response, ready to be sent.
+     */
+    private static ByteBuffer errorResponse(DNSMessageWriter writer, byte[] query, int rcode, int questionEnd) {
+        start(writer, query, rcode);
+        if (questionEnd >= 0)
+            writer.copyQuestion(query, HEADER_SIZE, questionEnd - HEADER_SIZE);
+        return writer.toByteBuffer();
+    }
+
+    /** Starts a response to a query: same ID, opcode and RD bit, QR and RA set, and the given
+     * response code and other flags. */
+    private static void start(DNSMessageWriter writer, byte[] query, int flags) {
+        int copied = (query[2] & 0x79) << 8; // opcode, RD
+        writer.start((query[0] & 0xFF) << 8 | (query[1] & 0xFF),
+                DNSMessageWriter.FLAG_QR | DNSMessageWriter.FLAG_RA | copied | flags);
+    }
+
+    /** @return The number of queries received. */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /** @return The number of responses sent, errors included. */
+    public long getAnswered() {
+        return answered.sum();
+    }
+
+    /** @return The number of queries answered by a listener from the answers it gave recently. */
+    public long getListenerHits() {
+        return listenerHits.sum();
+    }
+
+    /** @return The number of queries answered by waiting for the same question asked by another client. */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /** @return The number of queries answered with a server failure. */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /** @return The number of malformed queries received. */
+    public long getMalformed() {
+        return malformed.sum();
+    }
+
+    /** @return The number of queries dropped because every worker was busy. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("received=%d answered=%d listenerHits=%d coalesced=%d failed=%d malformed=%d dropped=%d",
+                getReceived(), getAnswered(), getListenerHits(), getCoalesced(), getFailed(), getMalformed(), getDropped());
+    }
+}
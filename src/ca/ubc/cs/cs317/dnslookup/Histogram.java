@@ -0,0 +1,135 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A histogram of non-negative values spanning many orders of magnitude, e.g. latencies in
+ * nanoseconds, in the manner of HdrHistogram. Values below 128 are counted exactly; larger values
+ * fall in buckets whose width doubles with every power of two, each power of two being split in 64
+ * buckets, so any value is reported within 1/64 (about 1.6%) of its true value, with a fixed
+ * footprint of about 30 KB per stripe (see below).
+ *
+ * <p>Recording a value is an increment of one bucket counter plus two {@link LongAdder}s, without
+ * locks or allocation, so it can be done on every lookup by many threads at once. So that threads
+ * recording similar values do not all increment the same bucket, the buckets are striped: there
+ * are as many sets of buckets as cores, rounded down to a power of two and at most
+ * {@value #MAX_STRIPES}, and a thread always uses the set picked by its ID. The maximum is only
+ * written when it grows, which soon becomes rare.
+ * Percentiles are computed from the sum of the stripes when asked, and values recorded meanwhile
+ * may or may not be included.</p>
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6; // 64 buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int MAX_STRIPES = 8;
+    private static final int STRIPES = Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram() {
+        for (int i = 0; i < STRIPES; i++)
+            counts[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    /** Records a value; negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(index(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /** @return The number of values recorded. */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return The sum of the values recorded. */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /** @return The largest value recorded, exactly, or 0 if there is none. */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** @return The mean of the values recorded, or 0 if there is none. */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /** Returns the value below which a given percentage of the recorded values fall, e.g. 99.9 for
+     * the 99.9th percentile. The value is the upper bound of the bucket it falls in, so it is never
+     * below the true percentile by more than the width of the bucket.
+     *
+     * @param percentile A percentage, between 0 and 100.
+     * @return The value at the percentile, or 0 if no value was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (AtomicLongArray stripe : counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                snapshot[i] += c;
+                n += c;
+            }
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /** Clears the histogram. Values recorded while it is being cleared may be lost. */
+    public void reset() {
+        for (AtomicLongArray stripe : counts)
+            for (int i = 0; i < BUCKETS; i++)
+                stripe.set(i, 0);
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /** Returns the p50, p99 and p99.9 values and the maximum, in the unit of the values divided by
+     * a scale, e.g. 1e6 to show nanoseconds as milliseconds.
+     *
+     * @param scale The divisor of the values.
+     * @return A one line summary.
+     */
+    public String summary(double scale) {
+        return String.format("count=%d mean=%.3f p50=%.3f p99=%.3f p999=%.3f max=%.3f", getCount(), getMean() / scale,
+                getValueAtPercentile(50) / scale, getValueAtPercentile(99) / scale,
+                getValueAtPercentile(99.9) / scale, getMax() / scale);
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS; // value >>> shift is in [64, 128)
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
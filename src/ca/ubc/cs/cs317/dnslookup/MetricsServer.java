@@ -0,0 +1,181 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/** A small HTTP endpoint serving the metrics of the resolver in the Prometheus text exposition
+ * format (version 0.0.4) on {@value #PATH}, for a Prometheus server or {@code curl} to scrape.
+ *
+ * <p>The counters, the in-flight queries and the latency histograms come from
+ * {@link ResolverMetrics}, whose counters are updated without locks by the resolutions; nothing is
+ * added to the hot path to serve them. The histograms are exported as summaries (p50, p90, p99 and
+ * p99.9, with their sum and count). The only lock taken by a scrape is that of the cache, once, to
+ * read its size.</p>
+ *
+ * <p>Scrapes are answered one at a time by the thread of the HTTP server, which is meant to be
+ * reached locally and is bound to the loopback address by default.</p>
+ */
+public class MetricsServer implements AutoCloseable {
+
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final HttpServer server;
+    private final ResolverMetrics metrics;
+    private final DNSRecordCache cache;
+
+    private MetricsServer(HttpServer server, ResolverMetrics metrics, DNSRecordCache cache) {
+        this.server = server;
+        this.metrics = metrics;
+        this.cache = cache;
+    }
+
+    /** Starts serving metrics.
+     *
+     * @param address Address and port to listen on; port 0 picks a free port.
+     * @param metrics Metrics of the resolver.
+     * @param cache   Cache whose size is exported, or null.
+     * @return The running server.
+     * @throws IOException If the server cannot listen on the address.
+     */
+    public static MetricsServer start(InetSocketAddress address, ResolverMetrics metrics, DNSRecordCache cache)
+            throws IOException {
+        HttpServer http = HttpServer.create(address, 0);
+        MetricsServer server = new MetricsServer(http, metrics, cache);
+        http.createContext(PATH, server::handle);
+        http.start();
+        return server;
+    }
+
+    /** @return The port the server listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stops the server, without waiting for a scrape in progress. */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** @return The current value of every metric, in the Prometheus text format. */
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "dnslookup_lookups_total", "Resolutions started, including those answered from the cache.",
+                metrics.getLookups());
+        counter(out, "dnslookup_lookups_failed_total", "Resolutions that failed, for any reason.",
+                metrics.getFailedLookups());
+        counter(out, "dnslookup_queries_total", "Queries handed out by resolutions, retries included.",
+                metrics.getQueriesSent());
+        counter(out, "dnslookup_retries_total", "Queries sent again to the same server after a timeout.",
+                metrics.getRetries());
+        counter(out, "dnslookup_timeouts_total", "Queries that got no response in time.", metrics.getTimeouts());
+        counter(out, "dnslookup_truncated_responses_total",
+                "Responses with the TC bit set; without a TCP transport, the records that fit are used.",
+                metrics.getTruncatedResponses());
+        counter(out, "dnslookup_loops_total", "Referrals ignored because they led back to a zone and server already tried.",
+                metrics.getLoopsDetected());
+        header(out, "dnslookup_budget_exceeded_total", "Resolutions stopped for exceeding their budget.", "counter");
+        sample(out, "dnslookup_budget_exceeded_total", "budget", "queries", metrics.getQueryBudgetExceeded());
+        sample(out, "dnslookup_budget_exceeded_total", "budget", "time", metrics.getTimeBudgetExceeded());
+        sample(out, "dnslookup_budget_exceeded_total", "budget", "depth", metrics.getDepthBudgetExceeded());
+        gauge(out, "dnslookup_queries_in_flight", "Queries sent upstream still waiting for their response.",
+                metrics.getInFlightQueries());
+
+        header(out, "dnslookup_cache_hits_total", "Cache reads that found what a lookup looked for, by stage.", "counter");
+        for (ResolverMetrics.CacheStage stage : ResolverMetrics.CacheStage.values())
+            sample(out, "dnslookup_cache_hits_total", "stage", stage.name().toLowerCase(), metrics.getCacheHits(stage));
+        header(out, "dnslookup_cache_misses_total", "Cache reads that did not find what a lookup looked for, by stage.",
+                "counter");
+        for (ResolverMetrics.CacheStage stage : ResolverMetrics.CacheStage.values())
+            sample(out, "dnslookup_cache_misses_total", "stage", stage.name().toLowerCase(), metrics.getCacheMisses(stage));
+        if (cache != null)
+            gauge(out, "dnslookup_cache_records", "Records held by the cache, expired records not removed yet included.",
+                    cache.size());
+        counter(out, "dnslookup_cache_expired_total", "Cached records removed once their TTL ran out.",
+                metrics.getRecordsExpired());
+        counter(out, "dnslookup_cache_evicted_total", "Cached records dropped before they expired.",
+                metrics.getRecordsEvicted());
+
+        Map<InetAddress, ResolverMetrics.ServerCounters> servers = metrics.getServers();
+        header(out, "dnslookup_upstream_queries_total", "Queries sent to each upstream server.", "counter");
+        for (Map.Entry<InetAddress, ResolverMetrics.ServerCounters> server : servers.entrySet())
+            sample(out, "dnslookup_upstream_queries_total", "server", server.getKey().getHostAddress(),
+                    server.getValue().getQueries());
+        sample(out, "dnslookup_upstream_queries_total", "server", "other", metrics.getOtherServers().getQueries());
+        header(out, "dnslookup_upstream_timeouts_total", "Queries to each upstream server that got no response in time.",
+                "counter");
+        for (Map.Entry<InetAddress, ResolverMetrics.ServerCounters> server : servers.entrySet())
+            sample(out, "dnslookup_upstream_timeouts_total", "server", server.getKey().getHostAddress(),
+                    server.getValue().getTimeouts());
+        sample(out, "dnslookup_upstream_timeouts_total", "server", "other", metrics.getOtherServers().getTimeouts());
+
+        summary(out, "dnslookup_lookup_duration_seconds", "Time from the start to the end of each lookup.",
+                metrics.getLookupLatency(), 1e9);
+        summary(out, "dnslookup_hop_duration_seconds",
+                "Time from the first query to a server to its response, retries included.", metrics.getHopLatency(), 1e9);
+        summary(out, "dnslookup_lookup_queries", "Queries sent by each lookup, retries included.",
+                metrics.getQueriesPerLookup(), 1);
+        summary(out, "dnslookup_lookup_retries", "Queries sent again to the same server by each lookup.",
+                metrics.getRetriesPerLookup(), 1);
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, long sample) {
+        out.append(name).append('{').append(label).append("=\"").append(value).append("\"} ").append(sample).append('\n');
+    }
+
+    /** Writes a histogram as a summary, its values divided by a scale (e.g. 1e9 from nanoseconds to seconds). */
+    private static void summary(StringBuilder out, String name, String help, Histogram histogram, double scale) {
+        header(out, name, help, "summary");
+        for (double quantile : QUANTILES)
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getValueAtPercentile(quantile * 100) / scale).append('\n');
+        out.append(name).append("_sum ").append(histogram.getTotal() / scale).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+}
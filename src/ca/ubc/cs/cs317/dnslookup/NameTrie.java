@@ -0,0 +1,253 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/** A concurrent, compressed trie of domain names indexed by their labels in reverse order
+ * (e.g. {@code www.example.com} is stored under {@code com}, then {@code example}, then
+ * {@code www}), together with the record types known for each name. It answers suffix questions
+ * about a set of names, such as "what is the deepest indexed ancestor of this name?" or "which
+ * names exist under example.com?", in time proportional to the length of the name rather than
+ * to the number of names indexed.
+ *
+ * <p>Chains of nodes with a single child and no name of their own are compressed into one edge
+ * holding several labels. Readers never lock: edges are immutable and children are held in
+ * concurrent maps, so a lookup sees either the trie before or after a concurrent change. Writers
+ * are serialized on the trie.</p>
+ */
+public class NameTrie {
+
+    private static final class Node {
+        final String[] edge; // labels leading to this node from its parent, closest to the root first
+        final Map<String, Node> children;
+        final Set<RecordType> types;
+        volatile DNSName name; // set when this node is an indexed name, null otherwise
+
+        Node(String[] edge, Map<String, Node> children, Set<RecordType> types, DNSName name) {
+            this.edge = edge;
+            this.children = children;
+            this.types = types;
+            this.name = name;
+        }
+
+        Node(String[] edge) {
+            this(edge, new ConcurrentHashMap<>(), ConcurrentHashMap.newKeySet(), null);
+        }
+    }
+
+    private final Node root = new Node(new String[0]);
+
+    /** Adds a node (name and record type) to the index.
+     *
+     * @param node The DNS node to index.
+     */
+    public synchronized void add(DNSNode node) {
+        String[] labels = reversedLabels(node.getName());
+        Node current = root;
+        int depth = 0;
+        while (depth < labels.length) {
+            Node child = current.children.get(labels[depth]);
+            if (child == null) {
+                Node leaf = new Node(Arrays.copyOfRange(labels, depth, labels.length));
+                leaf.name = node.getName();
+                leaf.types.add(node.getType());
+                current.children.put(labels[depth], leaf);
+                return;
+            }
+            int common = commonPrefix(child.edge, labels, depth);
+            if (common < child.edge.length) {
+                child = split(current, child, common);
+            }
+            current = child;
+            depth += common;
+        }
+        current.types.add(node.getType());
+        current.name = node.getName();
+    }
+
+    /** Removes a node (name and record type) from the index. The name itself stays indexed as
+     * long as other record types are known for it.
+     *
+     * @param node The DNS node to remove.
+     */
+    public synchronized void remove(DNSNode node) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node current = find(node.getName(), path);
+        if (current == null || current.name == null) return;
+        current.types.remove(node.getType());
+        if (current.types.isEmpty()) {
+            current.name = null;
+            prune(current, path);
+        }
+    }
+
+    /** Returns the deepest indexed name that is equal to or an ancestor of a name and has a given
+     * record type, e.g. {@code example.com} for {@code www.example.com} and NS if the index holds
+     * example.com (NS) but not www.example.com (NS).
+     *
+     * @param name The name whose ancestors are searched.
+     * @param type The record type the ancestor must have.
+     * @return The deepest matching ancestor, or null if there is none.
+     */
+    public DNSName longestSuffixMatch(DNSName name, RecordType type) {
+        List<DNSName> matches = enclosingNames(name, type);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /** Returns every indexed name that is equal to or an ancestor of a name and has a given
+     * record type, from the deepest to the closest to the root.
+     *
+     * @param name The name whose ancestors are searched.
+     * @param type The record type the ancestors must have.
+     * @return A potentially empty list of names, deepest first.
+     */
+    public List<DNSName> enclosingNames(DNSName name, RecordType type) {
+        String[] labels = reversedLabels(name);
+        List<DNSName> matches = new ArrayList<>();
+        Node current = root;
+        int depth = 0;
+        while (true) {
+            DNSName found = current.name;
+            if (found != null && current.types.contains(type))
+                matches.add(found);
+            if (depth == labels.length) break;
+            Node child = current.children.get(labels[depth]);
+            if (child == null || commonPrefix(child.edge, labels, depth) < child.edge.length) break;
+            current = child;
+            depth += child.edge.length;
+        }
+        Collections.reverse(matches);
+        return matches;
+    }
+
+    /** Performs an action for every indexed node (name and type) equal to or below a name.
+     *
+     * @param zone     The name at the top of the subtree, e.g. {@code example.com}.
+     * @param consumer Action performed for each node of the subtree.
+     */
+    public void forEachUnder(DNSName zone, Consumer<DNSNode> consumer) {
+        Node top = findSubtree(zone, null);
+        if (top == null) return;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(top);
+        while (!stack.isEmpty()) {
+            Node current = stack.pop();
+            DNSName name = current.name;
+            if (name != null)
+                for (RecordType type : current.types)
+                    consumer.accept(new DNSNode(name, type));
+            for (Node child : current.children.values())
+                stack.push(child);
+        }
+    }
+
+    /** Removes every indexed node equal to or below a name, and returns them so the caller can
+     * drop the corresponding records.
+     *
+     * @param zone The name at the top of the subtree to remove.
+     * @return The nodes removed from the index.
+     */
+    public synchronized List<DNSNode> removeSubtree(DNSName zone) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node top = findSubtree(zone, path);
+        List<DNSNode> removed = new ArrayList<>();
+        if (top == null) return removed;
+        forEachUnder(zone, removed::add);
+        if (path.isEmpty()) {
+            root.children.clear();
+            root.types.clear();
+            root.name = null;
+        } else {
+            Node parent = path.pop();
+            parent.children.remove(top.edge[0]);
+            prune(parent, path);
+        }
+        return removed;
+    }
+
+    /** Finds the node at exactly the given name, pushing the nodes above it onto path. */
+    private Node find(DNSName name, Deque<Node> path) {
+        String[] labels = reversedLabels(name);
+        Node current = root;
+        int depth = 0;
+        while (depth < labels.length) {
+            Node child = current.children.get(labels[depth]);
+            if (child == null || child.edge.length > labels.length - depth
+                    || commonPrefix(child.edge, labels, depth) < child.edge.length)
+                return null;
+            if (path != null) path.push(current);
+            current = child;
+            depth += child.edge.length;
+        }
+        return current;
+    }
+
+    /** Finds the highest node whose names are all equal to or below the given name. This is the
+     * node at the name itself, or a node whose compressed edge extends past it.
+     */
+    private Node findSubtree(DNSName name, Deque<Node> path) {
+        String[] labels = reversedLabels(name);
+        Node current = root;
+        int depth = 0;
+        while (depth < labels.length) {
+            Node child = current.children.get(labels[depth]);
+            if (child == null) return null;
+            int common = commonPrefix(child.edge, labels, depth);
+            if (common < child.edge.length && depth + common < labels.length) return null;
+            if (path != null) path.push(current);
+            current = child;
+            depth += child.edge.length;
+        }
+        return current;
+    }
+
+    /** Splits a compressed edge so that a node exists after its first {@code length} labels. */
+    private Node split(Node parent, Node child, int length) {
+        Node middle = new Node(Arrays.copyOfRange(child.edge, 0, length));
+        Node tail = new Node(Arrays.copyOfRange(child.edge, length, child.edge.length),
+                child.children, child.types, child.name);
+        middle.children.put(tail.edge[0], tail);
+        parent.children.put(middle.edge[0], middle);
+        return middle;
+    }
+
+    /** Removes nodes that no longer index a name nor lead to one, and merges a nameless node
+     * with its only child, starting at {@code node} and walking up the path.
+     */
+    private void prune(Node node, Deque<Node> path) {
+        Node current = node;
+        while (current != root && current.name == null) {
+            Node parent = path.pop();
+            if (current.children.isEmpty()) {
+                parent.children.remove(current.edge[0]);
+            } else if (current.children.size() == 1) {
+                Node only = current.children.values().iterator().next();
+                String[] edge = Arrays.copyOf(current.edge, current.edge.length + only.edge.length);
+                System.arraycopy(only.edge, 0, edge, current.edge.length, only.edge.length);
+                parent.children.put(edge[0], new Node(edge, only.children, only.types, only.name));
+                return;
+            } else {
+                return;
+            }
+            current = parent;
+        }
+    }
+
+    private static int commonPrefix(String[] edge, String[] labels, int depth) {
+        int i = 0;
+        while (i < edge.length && depth + i < labels.length && edge[i].equals(labels[depth + i]))
+            i++;
+        return i;
+    }
+
+    private static String[] reversedLabels(DNSName name) {
+        byte[] wire = name.wire();
+        String[] labels = new String[name.labelCount()];
+        int index = labels.length;
+        for (int i = 0; wire[i] != 0; i += wire[i] + 1)
+            labels[--index] = new String(wire, i + 1, wire[i], StandardCharsets.ISO_8859_1);
+        return labels;
+    }
+}
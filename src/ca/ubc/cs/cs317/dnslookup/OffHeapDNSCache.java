@@ -0,0 +1,420 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/** A cache backend that keeps records outside the Java heap, for caches holding tens of millions
+ * of records. Every record is stored as a single entry in direct byte buffers ("chunks"):
+ *
+ * <pre>
+ *   i64 next | i64 expiration (ms) | u16 type | u8 kind | u8 name length | u16 rdata length | name | rdata
+ * </pre>
+ *
+ * where name is the canonical wire format of the host name (see {@link DNSName}), and
+ * kind is 1 when rdata holds the raw bytes of an address and 0 when it holds ASCII text.
+ * Entries for the same node are chained through their next field, and the chain heads are found
+ * through an open-addressing (linear probing) index made of two primitive arrays. The heap
+ * therefore only holds a handful of large objects whatever the number of cached records, so
+ * garbage collection cost does not grow with the cache. {@link ResourceRecord} objects are only
+ * created, short-lived, when results are returned to the caller.
+ *
+ * <p>Expired entries are unlinked when they are found on a lookup, and the space they used is
+ * reclaimed by {@link #compact()}, which runs automatically when dead entries take up more space
+ * than live ones. All operations are synchronized on the cache instance.</p>
+ */
+public class OffHeapDNSCache implements DNSRecordCache {
+
+    private static final int DEFAULT_CHUNK_BITS = 26; // 64MB per chunk
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private static final int NEXT = 0;
+    private static final int EXPIRATION = 8;
+    private static final int TYPE = 16;
+    private static final int KIND = 18;
+    private static final int NAME_LENGTH = 19;
+    private static final int RDATA_LENGTH = 20;
+    private static final int ENTRY_HEADER = 22;
+
+    private static final byte KIND_TEXT = 0;
+    private static final byte KIND_ADDRESS = 1;
+
+    private final int chunkBits;
+    private final int chunkSize;
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private long top; // next free address in the chunks
+
+    // Index: slots hold (address + 1) of the first entry of a chain, 0 for an empty slot.
+    private long[] slots = new long[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int used;
+
+    private int records;
+    private long liveBytes;
+    private long deadBytes;
+
+    /** Creates an empty off-heap cache using 64MB chunks.
+     */
+    public OffHeapDNSCache() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    /** Creates an empty off-heap cache.
+     *
+     * @param chunkBits Base two logarithm of the size of each direct buffer chunk.
+     */
+    public OffHeapDNSCache(int chunkBits) {
+        this.chunkBits = chunkBits;
+        this.chunkSize = 1 << chunkBits;
+    }
+
+    @Override
+    public synchronized Set<ResourceRecord> getCachedResults(DNSNode node) {
+        byte[] name = node.getName().wire();
+        int type = node.getType().getCode();
+        int slot = findSlot(name, type, hash(name, type));
+        if (slots[slot] == 0)
+            return Collections.emptySet();
+
+        long now = CoarseClock.currentTimeMillis();
+        Set<ResourceRecord> results = new HashSet<>();
+        long previous = -1;
+        long entry = slots[slot] - 1;
+        int expired = 0;
+        while (entry >= 0) {
+            long next = getLong(entry + NEXT) - 1;
+            if (getLong(entry + EXPIRATION) > now) {
+                results.add(readRecord(entry, node, now));
+                previous = entry;
+            } else {
+                if (getLong(entry + EXPIRATION) != 0) { // 0: already counted as evicted, and as dead
+                    expired++;
+                    deadBytes += entrySize(entry);
+                    liveBytes -= entrySize(entry);
+                }
+                unlink(slot, previous, next);
+            }
+            entry = next;
+        }
+        if (expired > 0) {
+            records -= expired;
+            ResolverMetrics.getInstance().recordsExpired(expired);
+            DNSEvents.cacheExpire(node, expired);
+        }
+        return Collections.unmodifiableSet(results);
+    }
+
+    @Override
+    public synchronized void addResult(ResourceRecord record) {
+        if (!record.isStillValid()) return;
+        if (deadBytes > liveBytes && deadBytes > chunkSize / 2)
+            compact();
+
+        byte[] name = record.getNode().getName().wire();
+        int type = record.getType().getCode();
+        byte[] rdata = record.getAddress();
+        byte kind = rdata != null ? KIND_ADDRESS : KIND_TEXT;
+        if (rdata == null)
+            rdata = record.getTextResult().getBytes(StandardCharsets.US_ASCII);
+        long expiration = record.getExpirationTime();
+
+        int hash = hash(name, type);
+        int slot = findSlot(name, type, hash);
+        for (long entry = slots[slot] - 1; entry >= 0; entry = getLong(entry + NEXT) - 1) {
+            // an entry dropped by invalidateSubtree is dead space, left for the lookups to unlink
+            if (getLong(entry + EXPIRATION) != 0 && sameRdata(entry, kind, rdata)) {
+                boolean extended = getLong(entry + EXPIRATION) < expiration;
+                if (extended)
+                    putLong(entry + EXPIRATION, expiration);
+                DNSEvents.cacheAdd(record, extended ? "extended" : "kept");
+                return;
+            }
+        }
+
+        int size = ENTRY_HEADER + name.length + rdata.length;
+        long entry = allocate(size);
+        putLong(entry + NEXT, slots[slot]);
+        putLong(entry + EXPIRATION, expiration);
+        putShort(entry + TYPE, type);
+        putByte(entry + KIND, kind);
+        putByte(entry + NAME_LENGTH, name.length);
+        putShort(entry + RDATA_LENGTH, rdata.length);
+        putBytes(entry + ENTRY_HEADER, name);
+        putBytes(entry + ENTRY_HEADER + name.length, rdata);
+        liveBytes += size;
+        records++;
+
+        if (slots[slot] == 0) {
+            hashes[slot] = hash;
+            used++;
+        }
+        slots[slot] = entry + 1;
+        if (used * 2 > slots.length)
+            resize(slots.length * 2);
+        DNSEvents.cacheAdd(record, "added");
+    }
+
+    @Override
+    public synchronized void forEachNode(BiConsumer<DNSNode, Set<ResourceRecord>> consumer) {
+        long now = CoarseClock.currentTimeMillis();
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] == 0) continue;
+            DNSNode node = readNode(slots[slot] - 1);
+            Set<ResourceRecord> records = new HashSet<>();
+            for (long entry = slots[slot] - 1; entry >= 0; entry = getLong(entry + NEXT) - 1)
+                if (getLong(entry + EXPIRATION) > now)
+                    records.add(readRecord(entry, node, now));
+            if (!records.isEmpty())
+                consumer.accept(node, Collections.unmodifiableSet(records));
+        }
+    }
+
+    @Override
+    public synchronized void forEachRecord(BiConsumer<DNSNode, ResourceRecord> consumer) {
+        forEachNode((node, records) -> records.forEach(record -> consumer.accept(node, record)));
+    }
+
+    /** Drops every record whose name is equal to or below a name. The off-heap store has no name
+     * index, so this scans the whole index; the entries are marked as expired and their space is
+     * reclaimed by the next compaction.
+     *
+     * @param zone The name at the top of the subtree.
+     * @return The number of records dropped.
+     */
+    @Override
+    public synchronized int invalidateSubtree(DNSName zone) {
+        int dropped = 0;
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] == 0 || !readNode(slots[slot] - 1).getName().isSubdomainOf(zone)) continue;
+            for (long entry = slots[slot] - 1; entry >= 0; entry = getLong(entry + NEXT) - 1) {
+                if (getLong(entry + EXPIRATION) == 0) continue;
+                putLong(entry + EXPIRATION, 0);
+                deadBytes += entrySize(entry);
+                liveBytes -= entrySize(entry);
+                dropped++;
+            }
+        }
+        records -= dropped;
+        ResolverMetrics.getInstance().recordsEvicted(dropped);
+        DNSEvents.cacheEvict(zone, dropped);
+        return dropped;
+    }
+
+    @Override
+    public synchronized int size() {
+        return records;
+    }
+
+    /** Returns the number of bytes of off-heap memory currently reserved by the cache.
+     *
+     * @return The total size of the allocated chunks, in bytes.
+     */
+    public synchronized long getOffHeapBytes() {
+        return (long) chunks.size() * chunkSize;
+    }
+
+    /** Copies every still valid entry into fresh chunks and rebuilds the index, releasing the
+     * space used by expired entries. The old chunks are only released once the copy is complete,
+     * so compaction temporarily needs room for the live entries twice.
+     */
+    public synchronized void compact() {
+        List<ByteBuffer> oldChunks = chunks;
+        long[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        long now = CoarseClock.currentTimeMillis();
+
+        int expired = 0;
+        OffHeapDNSCache target = new OffHeapDNSCache(chunkBits);
+        target.resize(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, used)) * 4));
+        for (int slot = 0; slot < oldSlots.length; slot++) {
+            long head = 0;
+            for (long entry = oldSlots[slot] - 1; entry >= 0; entry = getLong(entry + NEXT) - 1) {
+                long expiration = getLong(entry + EXPIRATION);
+                if (expiration <= now) {
+                    if (expiration != 0) expired++;
+                    continue;
+                }
+                int size = entrySize(entry);
+                long copy = target.allocate(size);
+                target.putBytes(copy, getBytes(entry, size));
+                target.putLong(copy + NEXT, head);
+                target.liveBytes += size;
+                target.records++;
+                head = copy + 1;
+            }
+            if (head != 0) {
+                int targetSlot = oldHashes[slot] & (target.slots.length - 1);
+                while (target.slots[targetSlot] != 0)
+                    targetSlot = (targetSlot + 1) & (target.slots.length - 1);
+                target.slots[targetSlot] = head;
+                target.hashes[targetSlot] = oldHashes[slot];
+                target.used++;
+            }
+        }
+        this.chunks = target.chunks;
+        this.top = target.top;
+        this.slots = target.slots;
+        this.hashes = target.hashes;
+        this.used = target.used;
+        this.liveBytes = target.liveBytes;
+        this.deadBytes = 0;
+        this.records = target.records;
+        ResolverMetrics.getInstance().recordsExpired(expired);
+        oldChunks.clear();
+    }
+
+    /** Returns the index slot holding the chain for a name and type, or the empty slot where
+     * that chain would be inserted.
+     */
+    private int findSlot(byte[] name, int type, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            if (hashes[slot] == hash && sameKey(slots[slot] - 1, name, type))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        slots = new long[capacity];
+        hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = oldHashes[i] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = oldSlots[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    /** Removes an entry from its chain. When the chain becomes empty the slot is cleared and the
+     * following entries of the probe sequence are reinserted, so lookups never stop early.
+     */
+    private void unlink(int slot, long previous, long next) {
+        if (previous >= 0) {
+            putLong(previous + NEXT, next + 1);
+            return;
+        }
+        slots[slot] = next + 1;
+        if (next >= 0) return;
+
+        used--;
+        int mask = slots.length - 1;
+        for (int i = (slot + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            long head = slots[i];
+            int hash = hashes[i];
+            slots[i] = 0;
+            int target = hash & mask;
+            while (slots[target] != 0)
+                target = (target + 1) & mask;
+            slots[target] = head;
+            hashes[target] = hash;
+        }
+    }
+
+    private long allocate(int size) {
+        if (top + size > (long) chunks.size() << chunkBits) {
+            chunks.add(ByteBuffer.allocateDirect(chunkSize));
+            top = (long) (chunks.size() - 1) << chunkBits;
+        }
+        long address = top;
+        top += size;
+        return address;
+    }
+
+    private ResourceRecord readRecord(long entry, DNSNode node, long now) {
+        long ttl = (getLong(entry + EXPIRATION) - now + 999) / 1000; // rounded up: a live record never has TTL 0
+        int nameLength = getByte(entry + NAME_LENGTH) & 0xFF;
+        byte[] rdata = getBytes(entry + ENTRY_HEADER + nameLength, getShort(entry + RDATA_LENGTH));
+        if (getByte(entry + KIND) == KIND_ADDRESS)
+            return new ResourceRecord(node.getHostName(), node.getType(), ttl, rdata);
+        return new ResourceRecord(node.getHostName(), node.getType(), ttl, new String(rdata, StandardCharsets.US_ASCII));
+    }
+
+    private DNSNode readNode(long entry) {
+        byte[] name = getBytes(entry + ENTRY_HEADER, getByte(entry + NAME_LENGTH) & 0xFF);
+        return new DNSNode(DNSName.ofWire(name), RecordType.getByCode(getShort(entry + TYPE)));
+    }
+
+    private boolean sameKey(long entry, byte[] name, int type) {
+        if (getShort(entry + TYPE) != type || (getByte(entry + NAME_LENGTH) & 0xFF) != name.length)
+            return false;
+        for (int i = 0; i < name.length; i++)
+            if (getByte(entry + ENTRY_HEADER + i) != name[i])
+                return false;
+        return true;
+    }
+
+    private boolean sameRdata(long entry, byte kind, byte[] rdata) {
+        if (getByte(entry + KIND) != kind || getShort(entry + RDATA_LENGTH) != rdata.length)
+            return false;
+        long start = entry + ENTRY_HEADER + (getByte(entry + NAME_LENGTH) & 0xFF);
+        for (int i = 0; i < rdata.length; i++)
+            if (getByte(start + i) != rdata[i])
+                return false;
+        return true;
+    }
+
+    private int entrySize(long entry) {
+        return ENTRY_HEADER + (getByte(entry + NAME_LENGTH) & 0xFF) + getShort(entry + RDATA_LENGTH);
+    }
+
+    private static int hash(byte[] name, int type) {
+        int h = 1;
+        for (byte b : name)
+            h = 31 * h + b;
+        h = 31 * h + type;
+        return h ^ (h >>> 16);
+    }
+
+    //------------------------------------------------- Chunk access -----------------------------------------------------//
+
+    private ByteBuffer chunk(long address) {
+        return chunks.get((int) (address >>> chunkBits));
+    }
+
+    private int offset(long address) {
+        return (int) (address & (chunkSize - 1));
+    }
+
+    private long getLong(long address) {
+        return chunk(address).getLong(offset(address));
+    }
+
+    private int getShort(long address) {
+        return chunk(address).getShort(offset(address)) & 0xFFFF;
+    }
+
+    private byte getByte(long address) {
+        return chunk(address).get(offset(address));
+    }
+
+    private byte[] getBytes(long address, int length) {
+        byte[] bytes = new byte[length];
+        chunk(address).get(offset(address), bytes);
+        return bytes;
+    }
+
+    private void putLong(long address, long value) {
+        chunk(address).putLong(offset(address), value);
+    }
+
+    private void putShort(long address, int value) {
+        chunk(address).putShort(offset(address), (short) value);
+    }
+
+    private void putByte(long address, int value) {
+        chunk(address).put(offset(address), (byte) value);
+    }
+
+    private void putBytes(long address, byte[] bytes) {
+        chunk(address).put(offset(address), bytes);
+    }
+}
@@ -0,0 +1,656 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/** The state of one iterative resolution, advanced one query at a time. Instead of calling itself
+ * for every referral, retry and CNAME hop, the resolution keeps an explicit stack of frames: the
+ * bottom frame resolves the current target name, and frames above it resolve the addresses of
+ * name servers that were delegated to without glue. Each frame holds the servers still to try,
+ * deepest referral first.
+ *
+ * <p>A driver asks for the next query with {@link #nextQuery()}, sends it however it likes, and
+ * reports the outcome with {@link #onResponse(DNSResponse)}, {@link #onTimeout()} or
+ * {@link #onError(String)}, until {@link #nextQuery()} returns null. Responses must be added to the
+ * cache before they are reported, as the resolution reads its answers back from the cache. The
+ * resolution can be suspended between two queries and resumed by any thread, but it must only be
+ * advanced by one thread at a time.</p>
+ *
+ * <p>The work of a resolution is bounded by a {@link ResolutionBudget}, and referrals that lead
+ * back to a zone and server already tried for the same name, or up instead of down the tree, are
+ * ignored, so lame or circular delegations cannot make it send an unbounded number of queries.</p>
+ *
+ * <p>Name servers are contacted over the address families allowed by an {@link AddressFamily}; A
+ * and AAAA glue are both used. When both families are allowed and a zone has servers of each, a
+ * query names an IPv6 server and an IPv4 {@linkplain Query#getAlternate() alternate} of the same
+ * zone, for the driver to race. A name server delegated to without glue is resolved to its
+ * {@linkplain AddressFamily#addressType() first address type}, and to its AAAA records when it has
+ * no A record and both families are allowed.</p>
+ *
+ * <p>A {@linkplain #forwarding forwarding} resolution asks recursive resolvers instead: its queries
+ * have the RD bit set, each resolver is asked only once before the next one is tried, and the first
+ * usable response is final, whether or not it is authoritative.</p>
+ *
+ * <p>Names of the {@link AuthoritativeZone}s answered locally are looked up in them, before the
+ * cache and the network, including names reached through CNAME records.</p>
+ *
+ * <p>A resolution that finds no record tells a name that does not exist (NXDOMAIN) from a name
+ * without records of the type asked, and keeps the SOA record of the zone that said so, for a
+ * server to pass both on to its clients.</p>
+ */
+public class Resolution {
+
+    public static final int MAX_RETRIES = 2; // max number of times a query is sent to the same server
+    public static final int MAX_INDIRECTION_LEVEL = 10; // max number of CNAME records followed
+
+    public enum Status { RUNNING, DONE, FAILED }
+
+    /** A query to send: the node asked, the server to ask and how many times it was already sent. */
+    public static final class Query {
+        private final DNSNode node;
+        private final InetAddress server;
+        private final InetAddress alternate;
+        private final int attempt;
+        private final boolean recursionDesired;
+
+        Query(DNSNode node, InetAddress server, InetAddress alternate, int attempt, boolean recursionDesired) {
+            this.node = node;
+            this.server = server;
+            this.alternate = alternate;
+            this.attempt = attempt;
+            this.recursionDesired = recursionDesired;
+        }
+
+        public DNSNode getNode() {
+            return node;
+        }
+
+        public InetAddress getServer() {
+            return server;
+        }
+
+        /** @return A server of the same zone in the other address family, to be raced against
+         * {@link #getServer()}, or null if there is none. */
+        public InetAddress getAlternate() {
+            return alternate;
+        }
+
+        /** @return 1 for the first time the query is sent to this server, 2 for the first retry, etc. */
+        public int getAttempt() {
+            return attempt;
+        }
+
+        /** @return true if the query goes to a recursive resolver and must have the RD bit set. */
+        public boolean isRecursionDesired() {
+            return recursionDesired;
+        }
+    }
+
+    /** A server to ask, with the zone it was given as a server for. */
+    private static final class Candidate {
+        final InetAddress server;
+        final DNSName zone;
+
+        Candidate(InetAddress server, DNSName zone) {
+            this.server = server;
+            this.zone = zone;
+        }
+    }
+
+    /** A name being resolved by iterating over servers. */
+    private static final class Frame {
+        final DNSNode node;
+        final Deque<Candidate> servers = new ArrayDeque<>(); // servers still to try, next first
+        final Set<String> tried = new HashSet<>(); // zone and server pairs already added to this frame
+        final List<String> nameServers; // for a name server frame, the NS names to try in turn
+        final int nameServerIndex; // for a name server frame, the NS name resolved by this frame
+        final DNSName referralZone; // for a name server frame, the zone the NS names are servers for
+        Candidate current; // server being asked, null when the next server must be picked
+        Candidate alternate; // server of the same zone in the other family raced with current, or null
+        int attempts;
+        long hopStart; // when current was first asked, in System.nanoTime()
+
+        Frame(DNSNode node, List<ZoneCut> cuts, AddressFamily family, List<String> nameServers, int nameServerIndex,
+              DNSName referralZone) {
+            this.node = node;
+            this.nameServers = nameServers;
+            this.nameServerIndex = nameServerIndex;
+            this.referralZone = referralZone;
+            for (ZoneCut cut : cuts)
+                for (InetAddress server : cut.getServers())
+                    if (family.accepts(server))
+                        addLast(server, DNSName.of(cut.getZone()));
+        }
+
+        /** Picks the next server to ask and, when racing, the first server of the same zone in the
+         * other family, preferring IPv6 as the primary.
+         */
+        void next(boolean race) {
+            current = servers.poll();
+            alternate = null;
+            attempts = 0;
+            if (!race || current == null) return;
+            boolean v6 = current.server instanceof Inet6Address;
+            for (Iterator<Candidate> it = servers.iterator(); it.hasNext(); ) {
+                Candidate candidate = it.next();
+                if (!candidate.zone.equals(current.zone)) break; // servers of deeper zones come first
+                if (candidate.server instanceof Inet6Address != v6) {
+                    it.remove();
+                    alternate = v6 ? candidate : current;
+                    if (!v6) current = candidate;
+                    return;
+                }
+            }
+        }
+
+        /** Adds a server, unless it was already added for the same zone. */
+        boolean addLast(InetAddress server, DNSName zone) {
+            if (!tried.add(zone + "@" + server.getHostAddress())) return false;
+            servers.addLast(new Candidate(server, zone));
+            return true;
+        }
+
+        /** Adds servers to be tried next, in order, skipping those already added for the same zone.
+         *
+         * @return The number of servers added.
+         */
+        int addFirst(List<InetAddress> next, DNSName zone) {
+            int added = 0;
+            for (int i = next.size() - 1; i >= 0; i--) {
+                if (!tried.add(zone + "@" + next.get(i).getHostAddress())) continue;
+                servers.addFirst(new Candidate(next.get(i), zone));
+                added++;
+            }
+            return added;
+        }
+
+        boolean isNameServerFrame() {
+            return nameServers != null;
+        }
+    }
+
+    private final DNSNode question;
+    private final DNSRecordCache cache;
+    private final CNAMEChainCache chainCache;
+    private final Function<DNSName, AuthoritativeZone> localZones;
+    private final Function<String, List<ZoneCut>> startServers;
+    private final ResolutionBudget budget;
+    private final AddressFamily family;
+    private final boolean forwarding; // true if the servers are recursive resolvers
+    private final ResolverMetrics metrics = ResolverMetrics.getInstance();
+    private final long startTime = System.nanoTime();
+
+    private final List<ResourceRecord> cnames = new ArrayList<>();
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private Set<ResourceRecord> answers = Collections.emptySet();
+    private int responseCode = DNSMessageWriter.RCODE_NOERROR;
+    private ResourceRecord authority; // SOA record of a negative answer, if known
+    private boolean authoritative = true; // until anything is read from the cache or the network
+    private Status status = Status.RUNNING;
+    private String failure;
+    private String lastError; // last error reported by a server, for the failure message
+    private String firstLoop; // first referral loop found, for the failure message
+    private int queries;
+    private int retries;
+
+    /** Starts the resolution of a query, answering it right away if the cache already can.
+     *
+     * @param question     Host name and record type being resolved.
+     * @param cache        Cache the responses are added to and answers are read from.
+     * @param chainCache   Cache of resolved CNAME chains.
+     * @param startServers Zones and servers to start an iterative search at for a host name, deepest zone first.
+     * @param budget       Limits on the work done by this resolution.
+     * @param family       Address families name servers may be contacted over.
+     */
+    public Resolution(DNSNode question, DNSRecordCache cache, CNAMEChainCache chainCache,
+                      Function<String, List<ZoneCut>> startServers, ResolutionBudget budget, AddressFamily family) {
+        this(question, cache, chainCache, name -> null, startServers, budget, family, false);
+    }
+
+    /** Starts the resolution of a query, answering it right away if local zones or the cache already can.
+     *
+     * @param question     Host name and record type being resolved.
+     * @param cache        Cache the responses are added to and answers are read from.
+     * @param chainCache   Cache of resolved CNAME chains.
+     * @param localZones   The zone answering a name locally, or null for a name that is not answered locally.
+     * @param startServers Zones and servers to start an iterative search at for a host name, deepest zone first.
+     * @param budget       Limits on the work done by this resolution.
+     * @param family       Address families name servers may be contacted over.
+     */
+    public Resolution(DNSNode question, DNSRecordCache cache, CNAMEChainCache chainCache,
+                      Function<DNSName, AuthoritativeZone> localZones,
+                      Function<String, List<ZoneCut>> startServers, ResolutionBudget budget, AddressFamily family) {
+        this(question, cache, chainCache, localZones, startServers, budget, family, false);
+    }
+
+    private Resolution(DNSNode question, DNSRecordCache cache, CNAMEChainCache chainCache,
+                       Function<DNSName, AuthoritativeZone> localZones,
+                       Function<String, List<ZoneCut>> startServers, ResolutionBudget budget, AddressFamily family,
+                       boolean forwarding) {
+        this.question = question;
+        this.cache = cache;
+        this.chainCache = chainCache;
+        this.localZones = localZones;
+        this.startServers = startServers;
+        this.budget = budget;
+        this.family = family;
+        this.forwarding = forwarding;
+        metrics.lookupStarted();
+        resolve(question);
+    }
+
+    /** Starts the resolution of a query by forwarding it to recursive resolvers, answering it right
+     * away if the cache already can.
+     *
+     * @param question     Host name and record type being resolved.
+     * @param cache        Cache the responses are added to and answers are read from.
+     * @param chainCache   Cache of resolved CNAME chains.
+     * @param localZones   The zone answering a name locally, as for an iterative resolution.
+     * @param upstreams    The recursive resolvers to ask for each name, in the order they should be tried.
+     * @param budget       Limits on the work done by this resolution.
+     * @return The resolution.
+     */
+    public static Resolution forwarding(DNSNode question, DNSRecordCache cache, CNAMEChainCache chainCache,
+                                        Function<DNSName, AuthoritativeZone> localZones,
+                                        Supplier<List<InetAddress>> upstreams, ResolutionBudget budget) {
+        return new Resolution(question, cache, chainCache, localZones,
+                hostName -> Collections.singletonList(new ZoneCut("", upstreams.get())), budget, AddressFamily.ANY, true);
+    }
+
+    /** Returns the next query to send, or null once the resolution is over.
+     *
+     * @return The next query, or null if the resolution is done or failed.
+     */
+    public Query nextQuery() {
+        while (status == Status.RUNNING) {
+            Frame frame = frames.peek();
+            if (frame == null) {
+                finish(cache.getCachedResults(question));
+                break;
+            }
+            if (frame.current == null || frame.attempts >= (forwarding ? 1 : MAX_RETRIES)) {
+                frame.next(family == AddressFamily.ANY && !forwarding);
+                if (frame.current == null) {
+                    exhausted(frame);
+                    continue;
+                }
+            }
+            if (queries >= budget.getMaxQueries()) {
+                metrics.queryBudgetExceeded();
+                fail("Query budget of " + budget.getMaxQueries() + " queries exceeded for " + question.getHostName());
+                break;
+            }
+            if (getRemainingMillis() <= 0) {
+                metrics.timeBudgetExceeded();
+                fail("Time budget of " + budget.getMaxMillis() + " ms exceeded for " + question.getHostName());
+                break;
+            }
+            if (frame.attempts++ == 0) {
+                frame.hopStart = System.nanoTime();
+            } else {
+                retries++;
+                metrics.retrySent();
+            }
+            queries++;
+            metrics.querySent();
+            return new Query(frame.node, frame.current.server,
+                    frame.alternate != null ? frame.alternate.server : null, frame.attempts, forwarding);
+        }
+        return null;
+    }
+
+    /** Reports the response to the last query. The records of the response must already be in the cache.
+     *
+     * @param response The response received.
+     */
+    public void onResponse(DNSResponse response) {
+        Frame frame = frames.peek();
+        if (status != Status.RUNNING || frame == null) return;
+        metrics.hopCompleted(System.nanoTime() - frame.hopStart);
+        frame.attempts = MAX_RETRIES; // whatever happens next, this server is done with
+        if (forwarding && response.RCode == DNSMessageWriter.RCODE_REFUSED) {
+            lastError = "Refused by " + frame.current.server.getHostAddress(); // e.g. recursion not allowed
+            return;
+        }
+
+        if (frame.isNameServerFrame()) {
+            List<InetAddress> addresses = nameServerAddresses(frame.node.getHostName());
+            if (!addresses.isEmpty()) {
+                frames.pop();
+                useNameServers(frames.peek(), addresses, frame.referralZone);
+            } else if (response.isAuth) {
+                frames.pop();
+                DNSNode v6 = new DNSNode(frame.node.getName(), RecordType.AAAA);
+                if (family == AddressFamily.ANY && frame.node.getType() == RecordType.A
+                        && response.RCode != DNSMessageWriter.RCODE_NXDOMAIN && !isBeingResolved(v6)) {
+                    // no IPv4 address, the name server may still have an IPv6 one
+                    DNSEvents.step(question, "nameserver", v6, frame.referralZone, null, null);
+                    frames.push(new Frame(v6, startServers.apply(v6.getHostName()), family, frame.nameServers,
+                            frame.nameServerIndex, frame.referralZone));
+                } else {
+                    // this name server has no address, try the next one
+                    resolveNameServers(frames.peek(), frame.nameServers, frame.nameServerIndex + 1, frame.referralZone);
+                }
+            } else {
+                referral(frame, response);
+            }
+            return;
+        }
+        Set<ResourceRecord> results = cache.getCachedResults(frame.node);
+        if (!results.isEmpty()) {
+            frames.pop();
+            finish(results);
+        } else if (frame.node.getType() != RecordType.CNAME
+                && !cache.getCachedResults(new DNSNode(frame.node.getName(), RecordType.CNAME)).isEmpty()) {
+            frames.pop();
+            resolve(frame.node); // the name is an alias, follow it
+        } else if (response.isAuth || forwarding) {
+            frames.pop();
+            // no such name, or no record of this type
+            negative(response.RCode == DNSMessageWriter.RCODE_NXDOMAIN, authority(response));
+            finish(Collections.emptySet());
+        } else {
+            referral(frame, response);
+        }
+    }
+
+    /** Reports that no response was received for the last query. The same server is asked again
+     * by the next query, up to {@link #MAX_RETRIES} times, before moving on to the next server; a
+     * recursive resolver is not asked again.
+     */
+    public void onTimeout() {
+        metrics.queryTimedOut();
+    }
+
+    /** Reports that the response to the last query could not be used, e.g. a server failure.
+     *
+     * @param reason Description of the error.
+     */
+    public void onError(String reason) {
+        lastError = reason;
+        Frame frame = frames.peek();
+        if (frame != null) frame.attempts = MAX_RETRIES;
+    }
+
+    public DNSNode getQuestion() {
+        return question;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /** @return The records found for the question; empty until the resolution is done. */
+    public Set<ResourceRecord> getAnswers() {
+        return answers;
+    }
+
+    /** @return {@link DNSMessageWriter#RCODE_NXDOMAIN} if the name asked, or the target of its CNAME
+     * records, does not exist, otherwise {@link DNSMessageWriter#RCODE_NOERROR}. */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /** @return The SOA record of the zone that gave a negative answer (NXDOMAIN, or no record of the
+     * type asked), with its TTL capped by the SOA minimum field as for negative caching (RFC 2308);
+     * or null if the answer is not negative or came without it. */
+    public ResourceRecord getAuthority() {
+        return authority;
+    }
+
+    /** @return true if the answer, positive or negative, was found in the local zones alone. */
+    public boolean isAuthoritative() {
+        return authoritative && status == Status.DONE;
+    }
+
+    /** @return Why the resolution failed, or null if it did not. */
+    public String getFailure() {
+        return failure;
+    }
+
+    /** @return The CNAME records followed so far, starting with the one for the question. */
+    public List<ResourceRecord> getCNAMEs() {
+        return Collections.unmodifiableList(cnames);
+    }
+
+    /** @return The number of queries handed out so far, retries included. */
+    public int getQueryCount() {
+        return queries;
+    }
+
+    /** @return The number of queries sent again to the same server so far. */
+    public int getRetryCount() {
+        return retries;
+    }
+
+    /** @return The time left before the time budget is exceeded, in milliseconds. A driver should
+     * not wait longer than this for a response. */
+    public long getRemainingMillis() {
+        return budget.getMaxMillis() - (System.nanoTime() - startTime) / 1000000;
+    }
+
+    /** Resolves a node from the local zones and the cache as far as possible, following CNAME
+     * records, and pushes a frame to query the servers for whatever is missing.
+     */
+    private void resolve(DNSNode node) {
+        while (true) {
+            ResourceRecord alias;
+            AuthoritativeZone zone = localZones.apply(node.getName());
+            List<ResourceRecord> local = zone != null ? zone.lookup(node) : null;
+            if (local != null) {
+                // a name answered locally is answered from there only, even if it does not exist
+                if (local.isEmpty() || local.get(0).getType() != RecordType.CNAME || node.getType() == RecordType.CNAME) {
+                    if (local.isEmpty())
+                        negative(!zone.contains(node.getName()), soa(zone.getSOA()));
+                    finish(new HashSet<>(local));
+                    return;
+                }
+                alias = local.get(0);
+            } else {
+                authoritative = false;
+                Set<ResourceRecord> results = cache.getCachedResults(node);
+                metrics.cacheRead(ResolverMetrics.CacheStage.ANSWER, !results.isEmpty());
+                if (!results.isEmpty()) {
+                    finish(results);
+                    return;
+                }
+                CNAMEChainCache.Chain chain = chainCache.getChain(node);
+                metrics.cacheRead(ResolverMetrics.CacheStage.CNAME_CHAIN, chain != null);
+                if (chain != null) {
+                    cnames.addAll(chain.getCNAMEs()); // answered with the same records as when it was resolved
+                    finish(chain.getAnswers());
+                    return;
+                }
+                if (node.getType() == RecordType.CNAME) break;
+                Set<ResourceRecord> aliases = cache.getCachedResults(new DNSNode(node.getName(), RecordType.CNAME));
+                metrics.cacheRead(ResolverMetrics.CacheStage.ALIAS, !aliases.isEmpty());
+                if (aliases.isEmpty()) break;
+                alias = aliases.iterator().next();
+            }
+            cnames.add(alias);
+            DNSEvents.step(question, "alias", node, null, null, alias.getTextResult());
+            if (cnames.size() > MAX_INDIRECTION_LEVEL) {
+                fail("Maximum number of indirection levels reached.");
+                return;
+            }
+            node = new DNSNode(alias.getTextResult().trim(), node.getType());
+        }
+        frames.push(new Frame(node, startServers.apply(node.getHostName()), family, null, 0, null));
+    }
+
+    /** Handles a referral: its glue addresses are tried before the other servers of the frame,
+     * and a referral without glue starts the resolution of the addresses of its name servers.
+     */
+    private void referral(Frame frame, DNSResponse response) {
+        DNSName zone = null;
+        List<String> nameServers = new ArrayList<>();
+        for (DNSResponse.ParsedRecord record : response.nameRecords) {
+            if (record.getType() != RecordType.NS.getCode()) continue;
+            zone = DNSName.of(record.getName().trim());
+            nameServers.add(record.getRdata().trim());
+        }
+        Candidate from = frame.current;
+        frame.current = null;
+        if (zone == null) return; // not a referral, go on with the next server
+        if (zone.equals(from.zone) || !zone.isSubdomainOf(from.zone)
+                || !frame.node.getName().isSubdomainOf(zone)) {
+            loop("referral from " + zone(from.zone) + " to " + zone(zone));
+            return;
+        }
+
+        List<InetAddress> glue = new ArrayList<>();
+        for (String address : response.serversToQueryArr) {
+            try {
+                InetAddress server = InetAddress.getByName(address);
+                if (family.accepts(server)) glue.add(server);
+            } catch (UnknownHostException e) {
+                // not an address literal, skip it
+            }
+        }
+        DNSEvents.step(question, "referral", frame.node, zone, from.server,
+                glue.isEmpty() ? "glueless" : glue.size() + " glue addresses");
+        if (!glue.isEmpty()) {
+            if (frame.addFirst(glue, zone) == 0)
+                loop("servers of " + zone(zone) + " already tried");
+            return;
+        }
+        resolveNameServers(frame, nameServers, 0, zone);
+    }
+
+    /** Finds the addresses of the name servers of a referral without glue, starting at a given
+     * name server: from the cache if any of them is known, otherwise by pushing a frame resolving
+     * the first one that is not already being resolved. Once no name server is left, the referring
+     * frame goes on with its next server.
+     */
+    private void resolveNameServers(Frame parent, List<String> nameServers, int index, DNSName zone) {
+        for (int i = index; i < nameServers.size(); i++) {
+            List<InetAddress> addresses = nameServerAddresses(nameServers.get(i));
+            metrics.cacheRead(ResolverMetrics.CacheStage.NAME_SERVER, !addresses.isEmpty());
+            if (!addresses.isEmpty()) {
+                useNameServers(parent, addresses, zone);
+                return;
+            }
+        }
+        for (int i = index; i < nameServers.size(); i++) {
+            DNSNode node = new DNSNode(nameServers.get(i), family.addressType());
+            if (isBeingResolved(node)) {
+                loop("name server " + node.getHostName() + " of " + zone(zone) + " depends on itself");
+                continue;
+            }
+            if (frames.size() > budget.getMaxNameServerDepth()) {
+                metrics.depthBudgetExceeded();
+                fail("Name server depth budget of " + budget.getMaxNameServerDepth() + " exceeded for "
+                        + question.getHostName() + " at " + node.getHostName());
+                return;
+            }
+            DNSEvents.step(question, "nameserver", node, zone, null, null);
+            frames.push(new Frame(node, startServers.apply(node.getHostName()), family, nameServers, i, zone));
+            return;
+        }
+        parent.current = null;
+    }
+
+    private boolean isBeingResolved(DNSNode node) {
+        for (Frame frame : frames)
+            if (frame.node.equals(node))
+                return true;
+        return false;
+    }
+
+    /** @return The cached A and AAAA addresses of a name server that can be contacted. */
+    private List<InetAddress> nameServerAddresses(String nameServer) {
+        List<InetAddress> servers = new ArrayList<>();
+        for (RecordType type : new RecordType[] { RecordType.A, RecordType.AAAA })
+            for (ResourceRecord record : cache.getCachedResults(new DNSNode(nameServer, type)))
+                if (record.getInetResult() != null && family.accepts(record.getInetResult()))
+                    servers.add(record.getInetResult());
+        return servers;
+    }
+
+    /** Continues a frame with the addresses found for the name servers of a zone it was referred to. */
+    private void useNameServers(Frame parent, List<InetAddress> servers, DNSName zone) {
+        if (parent.addFirst(servers, zone) == 0)
+            loop("servers of " + zone(zone) + " already tried");
+        parent.current = null;
+    }
+
+    /** Called when every server of a frame was tried without success. */
+    private void exhausted(Frame frame) {
+        frames.pop();
+        if (frame.isNameServerFrame()) {
+            resolveNameServers(frames.peek(), frame.nameServers, frame.nameServerIndex + 1, frame.referralZone);
+        } else {
+            String reason = firstLoop != null ? "referral loop: " + firstLoop : lastError;
+            fail("No server could answer for " + frame.node.getHostName() + (reason != null ? " (" + reason + ")" : ""));
+        }
+    }
+
+    /** Records a referral ignored because it leads back to a zone and server already tried. */
+    private void loop(String description) {
+        metrics.loopDetected();
+        DNSEvents.step(question, "loop", null, null, null, description);
+        if (firstLoop == null) firstLoop = description;
+    }
+
+    /** Records a negative answer: the name does not exist, or has no record of the type asked. */
+    private void negative(boolean nameError, ResourceRecord soa) {
+        responseCode = nameError ? DNSMessageWriter.RCODE_NXDOMAIN : DNSMessageWriter.RCODE_NOERROR;
+        authority = soa;
+    }
+
+    /** @return The SOA record in the authority section of a negative answer, or null if there is none. */
+    private static ResourceRecord authority(DNSResponse response) {
+        for (DNSResponse.ParsedRecord record : response.nameRecords) {
+            if (record.getType() == RecordType.SOA.getCode())
+                return soa(new ResourceRecord(new DNSNode(record.getName(), RecordType.SOA),
+                        record.getTTL(), record.getRdata()));
+        }
+        return null;
+    }
+
+    /** Caps the TTL of an SOA record by its minimum field, the TTL of the negative answers of its
+     * zone; returns null if the rdata is not that of an SOA record, which cannot be passed on. */
+    private static ResourceRecord soa(ResourceRecord record) {
+        String[] fields = record.getTextResult().trim().split("\\s+");
+        try {
+            if (fields.length == 7) {
+                long minimum = Long.parseLong(fields[6]);
+                return record.getTTL() <= minimum ? record
+                        : new ResourceRecord(record.getNode(), minimum, record.getTextResult());
+            }
+        } catch (NumberFormatException e) {
+            // not a number, the record is unusable
+        }
+        return null;
+    }
+
+    private static String zone(DNSName zone) {
+        return zone.isRoot() ? "." : zone.toString();
+    }
+
+    private void finish(Set<ResourceRecord> results) {
+        answers = results;
+        status = Status.DONE;
+        frames.clear();
+        chainCache.addChain(question, cnames, results);
+        completed();
+    }
+
+    private void fail(String reason) {
+        metrics.lookupFailed();
+        failure = reason;
+        status = Status.FAILED;
+        frames.clear();
+        completed();
+    }
+
+    private void completed() {
+        long latency = System.nanoTime() - startTime;
+        metrics.lookupCompleted(latency, queries, retries);
+        DNSEvents.lookup(this, latency);
+    }
+}
@@ -0,0 +1,55 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+/** Limits on the work a single {@link Resolution} may do before it gives up: the number of queries
+ * sent (retries included), the time elapsed since it started, and how deeply the resolutions of
+ * name servers delegated to without glue may nest. A resolution exceeding any of them fails right
+ * away with a message naming the limit.
+ */
+public class ResolutionBudget {
+
+    public static final int DEFAULT_MAX_QUERIES = 64;
+    public static final long DEFAULT_MAX_MILLIS = 30000;
+    public static final int DEFAULT_MAX_NS_DEPTH = 4;
+
+    private final int maxQueries;
+    private final long maxMillis;
+    private final int maxNameServerDepth;
+
+    public ResolutionBudget(int maxQueries, long maxMillis, int maxNameServerDepth) {
+        this.maxQueries = maxQueries;
+        this.maxMillis = maxMillis;
+        this.maxNameServerDepth = maxNameServerDepth;
+    }
+
+    /** Returns the budget set by the {@code dnslookup.maxQueries}, {@code dnslookup.maxLookupTime}
+     * (in milliseconds) and {@code dnslookup.maxNSDepth} system properties, using the defaults for
+     * the properties that are not set.
+     *
+     * @return The configured budget.
+     */
+    public static ResolutionBudget fromSystemProperties() {
+        return new ResolutionBudget(Integer.getInteger("dnslookup.maxQueries", DEFAULT_MAX_QUERIES),
+                Long.getLong("dnslookup.maxLookupTime", DEFAULT_MAX_MILLIS),
+                Integer.getInteger("dnslookup.maxNSDepth", DEFAULT_MAX_NS_DEPTH));
+    }
+
+    /** @return The maximum number of queries sent for one resolution, retries included. */
+    public int getMaxQueries() {
+        return maxQueries;
+    }
+
+    /** @return The maximum time a resolution may take, in milliseconds. */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /** @return The maximum nesting of glueless name server resolutions. */
+    public int getMaxNameServerDepth() {
+        return maxNameServerDepth;
+    }
+
+    @Override
+    public String toString() {
+        return maxQueries + " queries, " + maxMillis + " ms, NS depth " + maxNameServerDepth;
+    }
+}
@@ -0,0 +1,303 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters describing the work of the resolver since it started. Counters are {@link LongAdder}s,
+ * so many resolutions updating them at once spread over several cells instead of contending on
+ * one. The {@link Histogram}s are striped in a similar way.
+ *
+ * <p>Each lookup also records its total latency, the number of queries it sent and how many of
+ * them were retries in {@link Histogram}s, as well as the time taken by each server it got a
+ * response from (a referral hop, or the final answer). Cache hits and misses are counted at each
+ * stage of a lookup they happen at.</p>
+ *
+ * <p>Queries and timeouts are also counted for each upstream server, for up to
+ * {@link #MAX_SERVERS} servers; the servers seen after that are counted together. The counters of
+ * a server are created once, on its first query, and read without locking afterwards. They are
+ * exported in the Prometheus text format by {@link MetricsServer}.</p>
+ */
+public class ResolverMetrics {
+
+    /** Where a lookup reads the cache. */
+    public enum CacheStage {
+        ANSWER,      // the records asked for
+        CNAME_CHAIN, // a resolved chain of aliases
+        ALIAS,       // a CNAME record of the name asked for
+        NAME_SERVER  // the addresses of name servers referred to without glue
+    }
+
+    /** Counters of the queries sent to one upstream server. */
+    public static final class ServerCounters {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        /** @return The number of queries sent to the server, retries and raced queries included. */
+        public long getQueries() {
+            return queries.sum();
+        }
+
+        /** @return The number of queries to the server that got no response in time. */
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+    }
+
+    /** Number of upstream servers counted separately. */
+    public static final int MAX_SERVERS = 1024;
+
+    private static ResolverMetrics instance = new ResolverMetrics();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder failedLookups = new LongAdder();
+    private final LongAdder queriesSent = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder queryBudgetExceeded = new LongAdder();
+    private final LongAdder timeBudgetExceeded = new LongAdder();
+    private final LongAdder depthBudgetExceeded = new LongAdder();
+    private final LongAdder loopsDetected = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder truncatedResponses = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder recordsExpired = new LongAdder();
+    private final LongAdder recordsEvicted = new LongAdder();
+    private final Map<InetAddress, ServerCounters> servers = new ConcurrentHashMap<>();
+    private final ServerCounters otherServers = new ServerCounters();
+    private final LongAdder[] cacheHits = adders();
+    private final LongAdder[] cacheMisses = adders();
+    private final Histogram lookupNanos = new Histogram();
+    private final Histogram queriesPerLookup = new Histogram();
+    private final Histogram retriesPerLookup = new Histogram();
+    private final Histogram hopNanos = new Histogram();
+
+    private ResolverMetrics() {}
+
+    public static ResolverMetrics getInstance() {
+        return instance;
+    }
+
+    void lookupStarted() {
+        lookups.increment();
+    }
+
+    void lookupFailed() {
+        failedLookups.increment();
+    }
+
+    void querySent() {
+        queriesSent.increment();
+    }
+
+    void queryTimedOut() {
+        timeouts.increment();
+    }
+
+    void retrySent() {
+        retries.increment();
+    }
+
+    void upstreamQueryStarted() {
+        inFlight.increment();
+    }
+
+    void upstreamQueryEnded() {
+        inFlight.decrement();
+    }
+
+    void upstreamQuerySent(InetAddress server) {
+        server(server).queries.increment();
+    }
+
+    void upstreamQueryTimedOut(InetAddress server) {
+        server(server).timeouts.increment();
+    }
+
+    void truncatedResponse() {
+        truncatedResponses.increment();
+    }
+
+    void recordsExpired(int records) {
+        recordsExpired.add(records);
+    }
+
+    void recordsEvicted(int records) {
+        recordsEvicted.add(records);
+    }
+
+    void queryBudgetExceeded() {
+        queryBudgetExceeded.increment();
+    }
+
+    void timeBudgetExceeded() {
+        timeBudgetExceeded.increment();
+    }
+
+    void depthBudgetExceeded() {
+        depthBudgetExceeded.increment();
+    }
+
+    void loopDetected() {
+        loopsDetected.increment();
+    }
+
+    void cacheRead(CacheStage stage, boolean hit) {
+        (hit ? cacheHits : cacheMisses)[stage.ordinal()].increment();
+    }
+
+    void hopCompleted(long nanos) {
+        hopNanos.record(nanos);
+    }
+
+    void lookupCompleted(long nanos, int queries, int retries) {
+        lookupNanos.record(nanos);
+        queriesPerLookup.record(queries);
+        retriesPerLookup.record(retries);
+    }
+
+    /** @return The number of resolutions started, including those answered from the cache. */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /** @return The number of resolutions that failed, for any reason. */
+    public long getFailedLookups() {
+        return failedLookups.sum();
+    }
+
+    /** @return The number of queries sent to servers, retries included. */
+    public long getQueriesSent() {
+        return queriesSent.sum();
+    }
+
+    /** @return The number of queries that got no response in time. */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /** @return The number of resolutions stopped for sending too many queries. */
+    public long getQueryBudgetExceeded() {
+        return queryBudgetExceeded.sum();
+    }
+
+    /** @return The number of resolutions stopped for taking too long. */
+    public long getTimeBudgetExceeded() {
+        return timeBudgetExceeded.sum();
+    }
+
+    /** @return The number of resolutions stopped for nesting glueless name server resolutions too deeply. */
+    public long getDepthBudgetExceeded() {
+        return depthBudgetExceeded.sum();
+    }
+
+    /** @return The number of referrals ignored because they led back to a zone and server already tried. */
+    public long getLoopsDetected() {
+        return loopsDetected.sum();
+    }
+
+    /** @return The number of queries sent again to the same server, after a timeout. */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /** @return The number of responses received with the TC bit set. The resolver has no TCP
+     * transport to fall back to, so it uses the records that fit in the response. */
+    public long getTruncatedResponses() {
+        return truncatedResponses.sum();
+    }
+
+    /** @return The number of queries sent upstream still waiting for their response. */
+    public long getInFlightQueries() {
+        return inFlight.sum();
+    }
+
+    /** @return The number of cached records removed once their TTL ran out. */
+    public long getRecordsExpired() {
+        return recordsExpired.sum();
+    }
+
+    /** @return The number of cached records dropped before they expired. */
+    public long getRecordsEvicted() {
+        return recordsEvicted.sum();
+    }
+
+    /** @return The counters of each upstream server queried, up to {@link #MAX_SERVERS} of them. */
+    public Map<InetAddress, ServerCounters> getServers() {
+        return Collections.unmodifiableMap(servers);
+    }
+
+    /** @return The counters of the servers queried once {@link #MAX_SERVERS} servers were already counted. */
+    public ServerCounters getOtherServers() {
+        return otherServers;
+    }
+
+    /** @return The number of times the cache had what a lookup looked for at a stage. */
+    public long getCacheHits(CacheStage stage) {
+        return cacheHits[stage.ordinal()].sum();
+    }
+
+    /** @return The number of times the cache did not have what a lookup looked for at a stage. */
+    public long getCacheMisses(CacheStage stage) {
+        return cacheMisses[stage.ordinal()].sum();
+    }
+
+    /** @return The time from the start to the end of each lookup, done or failed, in nanoseconds. */
+    public Histogram getLookupLatency() {
+        return lookupNanos;
+    }
+
+    /** @return The number of queries sent by each lookup, retries included. */
+    public Histogram getQueriesPerLookup() {
+        return queriesPerLookup;
+    }
+
+    /** @return The number of queries sent again to the same server by each lookup. */
+    public Histogram getRetriesPerLookup() {
+        return retriesPerLookup;
+    }
+
+    /** @return The time from the first query to a server to its response, retries included, for
+     * every server that responded, in nanoseconds. */
+    public Histogram getHopLatency() {
+        return hopNanos;
+    }
+
+    /** @return The counters and the percentiles of the histograms, one per line, times in milliseconds. */
+    public String report() {
+        StringBuilder report = new StringBuilder(toString()).append('\n');
+        report.append("lookup latency (ms):   ").append(lookupNanos.summary(1e6)).append('\n');
+        report.append("referral hop (ms):     ").append(hopNanos.summary(1e6)).append('\n');
+        report.append("queries per lookup:    ").append(queriesPerLookup.summary(1)).append('\n');
+        report.append("retries per lookup:    ").append(retriesPerLookup.summary(1)).append('\n');
+        report.append("cache hits/misses:    ");
+        for (CacheStage stage : CacheStage.values())
+            report.append(' ').append(stage.name().toLowerCase()).append('=')
+                    .append(getCacheHits(stage)).append('/').append(getCacheMisses(stage));
+        return report.toString();
+    }
+
+    private ServerCounters server(InetAddress server) {
+        ServerCounters counters = servers.get(server);
+        if (counters != null) return counters;
+        if (servers.size() >= MAX_SERVERS) return otherServers;
+        return servers.computeIfAbsent(server, key -> new ServerCounters());
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[CacheStage.values().length];
+        for (int i = 0; i < adders.length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lookups=%d failed=%d queries=%d retries=%d timeouts=%d truncated=%d loops=%d"
+                        + " budgetExceeded(queries=%d time=%d depth=%d)",
+                getLookups(), getFailedLookups(), getQueriesSent(), getRetries(), getTimeouts(), getTruncatedResponses(),
+                getLoopsDetected(),
+                getQueryBudgetExceeded(), getTimeBudgetExceeded(), getDepthBudgetExceeded());
+    }
+}
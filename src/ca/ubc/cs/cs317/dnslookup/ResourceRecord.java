@@ -2,30 +2,75 @@ package ca.ubc.cs.cs317.dnslookup;
 
 import java.io.Serializable;
 import java.net.InetAddress;
-import java.util.Date;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 
 /** A resource record corresponds to each individual result returned by a DNS response. It links
  * a DNS node (host name and record type) to either an IP address (e.g., A or AAAA records) or
  * a textual response (e.g., CNAME or NS records). A TTL (time-to-live) field is also specified,
  * and is represented by an expiration time calculated as a delta from the current time.
+ *
+ * <p>Records are kept compact, as caches may hold millions of them: the expiration time is a
+ * primitive timestamp read against the shared {@link CoarseClock}, so validity checks do not
+ * allocate, and addresses are kept as raw bits (an int for IPv4, 16 bytes for IPv6) rather than
+ * as an {@link InetAddress} plus its textual form. Both are rebuilt on demand.</p>
  */
 public class ResourceRecord implements Serializable {
 
     private DNSNode node;
-    private Date expirationTime;
-    private String textResult;
-    private InetAddress inetResult;
+    private long expirationTime; // in milliseconds since the epoch
+    private String textResult;   // null for address records
+    private int ipv4Result;      // IPv4 address, if textResult and ipv6Result are both null
+    private byte[] ipv6Result;
+    private transient DNSName targetName; // textResult as a name, parsed on first use
 
     public ResourceRecord(String hostName, RecordType type, long ttl, String result) {
-        this.node = new DNSNode(hostName, type);
-        this.expirationTime = new Date(System.currentTimeMillis() + (ttl * 1000));
+        this(new DNSNode(hostName, type), ttl, result);
+    }
+
+    /** Creates a textual record (e.g., NS or CNAME) for a node whose name is already canonical.
+     *
+     * @param node   Host name and record type the record belongs to.
+     * @param ttl    Time-to-live of the record, in seconds.
+     * @param result The rdata in presentation format.
+     */
+    public ResourceRecord(DNSNode node, long ttl, String result) {
+        this.node = node;
+        this.expirationTime = CoarseClock.currentTimeMillis() + (ttl * 1000);
         this.textResult = result;
-        this.inetResult = null;
     }
 
     public ResourceRecord(String hostName, RecordType type, long ttl, InetAddress result) {
-        this(hostName, type, ttl, result.getHostAddress());
-        this.inetResult = result;
+        this(hostName, type, ttl, result.getAddress());
+    }
+
+    /** Creates an address record (e.g., A or AAAA) from the raw bytes of the address.
+     *
+     * @param hostName Host name the record belongs to.
+     * @param type     Record type.
+     * @param ttl      Time-to-live of the record, in seconds.
+     * @param address  The 4 (IPv4) or 16 (IPv6) bytes of the address, in network order.
+     */
+    public ResourceRecord(String hostName, RecordType type, long ttl, byte[] address) {
+        this(new DNSNode(hostName, type), ttl, address);
+    }
+
+    /** Creates an address record for a node whose name is already canonical.
+     *
+     * @param node    Host name and record type the record belongs to.
+     * @param ttl     Time-to-live of the record, in seconds.
+     * @param address The 4 (IPv4) or 16 (IPv6) bytes of the address, in network order.
+     */
+    public ResourceRecord(DNSNode node, long ttl, byte[] address) {
+        this.node = node;
+        this.expirationTime = CoarseClock.currentTimeMillis() + (ttl * 1000);
+        if (address.length == 4)
+            this.ipv4Result = (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16
+                    | (address[2] & 0xFF) << 8 | (address[3] & 0xFF);
+        else if (address.length == 16)
+            this.ipv6Result = address.clone();
+        else
+            throw new IllegalArgumentException("Invalid address length " + address.length);
     }
 
     public DNSNode getNode() {
@@ -48,7 +93,15 @@ public class ResourceRecord implements Serializable {
      * @return The number of seconds, rounded up, until this record expires.
      */
     public long getTTL() {
-        return (expirationTime.getTime() - System.currentTimeMillis() + 999) / 1000;
+        return (expirationTime - CoarseClock.currentTimeMillis() + 999) / 1000;
+    }
+
+    /** The time at which this record expires.
+     *
+     * @return The expiration time, in milliseconds since the epoch.
+     */
+    long getExpirationTime() {
+        return expirationTime;
     }
 
     /** Returns true if this record has not expired yet, and false otherwise. An expired record
@@ -58,7 +111,7 @@ public class ResourceRecord implements Serializable {
      * @return true if this record has not expired yet, and false otherwise.
      */
     public boolean isStillValid() {
-        return expirationTime.after(new Date());
+        return expirationTime > CoarseClock.currentTimeMillis();
     }
 
     /** Returns true if this record expires before another record. This method may be used to
@@ -70,15 +123,86 @@ public class ResourceRecord implements Serializable {
      * @return true if this record expires before the parameter record, or false otherwise.
      */
     public boolean expiresBefore(ResourceRecord record) {
-        return this.expirationTime.before(record.expirationTime);
+        return this.expirationTime < record.expirationTime;
     }
 
+    /** The textual result of this record: the text itself for records such as CNAME or NS, or
+     * the address in its usual textual form for address records.
+     *
+     * @return The textual form of the result.
+     */
     public String getTextResult() {
-        return textResult;
+        if (textResult != null)
+            return textResult;
+        if (ipv6Result != null)
+            return getInetResult().getHostAddress();
+        return (ipv4Result >>> 24) + "." + (ipv4Result >>> 16 & 0xFF) + "."
+                + (ipv4Result >>> 8 & 0xFF) + "." + (ipv4Result & 0xFF);
+    }
+
+    /** The name held by a record such as NS or CNAME, parsed from its textual result on first
+     * use and kept, so that writing the record again does not parse it again.
+     *
+     * @return The target name of the record, or null if this is an address record.
+     * @throws IllegalArgumentException If the textual result is not a valid host name.
+     */
+    public DNSName getTargetName() {
+        if (textResult == null)
+            return null;
+        DNSName name = targetName;
+        if (name == null)
+            targetName = name = DNSName.of(textResult.trim());
+        return name;
     }
 
+    /** The address result of this record, or null if this is not an address record.
+     *
+     * @return The address, or null.
+     */
     public InetAddress getInetResult() {
-        return inetResult;
+        byte[] address = getAddress();
+        if (address == null)
+            return null;
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // never happens, the length is always valid
+        }
+    }
+
+    /** The raw bytes of the address result of this record, or null if this is not an address
+     * record.
+     *
+     * @return A new array with the 4 or 16 bytes of the address, or null.
+     */
+    public byte[] getAddress() {
+        if (textResult != null)
+            return null;
+        if (ipv6Result != null)
+            return ipv6Result.clone();
+        return new byte[]{(byte) (ipv4Result >>> 24), (byte) (ipv4Result >>> 16),
+                (byte) (ipv4Result >>> 8), (byte) ipv4Result};
+    }
+
+    /** @return 4 for an IPv4 address record, 16 for an IPv6 address record, 0 otherwise. */
+    int getAddressLength() {
+        return textResult != null ? 0 : ipv6Result != null ? 16 : 4;
+    }
+
+    /** Copies the raw bytes of the address result of this record, without allocating.
+     *
+     * @param destination Array receiving the {@link #getAddressLength()} bytes of the address.
+     * @param offset      Index in the array of the first byte.
+     */
+    void copyAddress(byte[] destination, int offset) {
+        if (ipv6Result != null) {
+            System.arraycopy(ipv6Result, 0, destination, offset, 16);
+            return;
+        }
+        destination[offset] = (byte) (ipv4Result >>> 24);
+        destination[offset + 1] = (byte) (ipv4Result >>> 16);
+        destination[offset + 2] = (byte) (ipv4Result >>> 8);
+        destination[offset + 3] = (byte) ipv4Result;
     }
 
     @Override
@@ -89,14 +213,15 @@ public class ResourceRecord implements Serializable {
         ResourceRecord record = (ResourceRecord) o;
 
         if (!node.equals(record.node)) return false;
-        if (!textResult.equals(record.textResult)) return false;
-        return inetResult != null ? inetResult.equals(record.inetResult) : record.inetResult == null;
+        if (textResult != null ? !textResult.equals(record.textResult) : record.textResult != null) return false;
+        if (ipv4Result != record.ipv4Result) return false;
+        return Arrays.equals(ipv6Result, record.ipv6Result);
     }
 
     @Override
     public int hashCode() {
         int result = node.hashCode();
-        result = 31 * result + textResult.hashCode();
+        result = 31 * result + (textResult != null ? textResult.hashCode() : ipv4Result ^ Arrays.hashCode(ipv6Result));
         return result;
     }
 }
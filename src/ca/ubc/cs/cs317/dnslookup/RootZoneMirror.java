@@ -0,0 +1,181 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** A local copy of the root zone (RFC 8806), loaded from a root zone file such as
+ * {@code https://www.internic.net/domain/root.zone}. Instead of asking a root server which servers
+ * handle a top-level domain, the resolver reads the delegation from this mirror and sends its
+ * first query straight to the TLD servers.
+ *
+ * <p>Only the delegations are kept: the sorted names of the top-level domains, and for each of
+ * them the IPv4 and IPv6 glue addresses of its name servers, in flat arrays. A loaded mirror is immutable;
+ * {@link #reloadIfChanged()} builds a new one from the file and publishes it with a single
+ * volatile write, so lookups never lock and never see a half-loaded zone.</p>
+ */
+public class RootZoneMirror {
+
+    private static final class Delegations {
+        final DNSName[] zones; // sorted top-level domains
+        final int[] firstServer; // servers of zones[i] are servers[firstServer[i]] to servers[firstServer[i + 1] - 1]
+        final InetAddress[] servers;
+        final FileTime modified;
+
+        Delegations(DNSName[] zones, int[] firstServer, InetAddress[] servers, FileTime modified) {
+            this.zones = zones;
+            this.firstServer = firstServer;
+            this.servers = servers;
+            this.modified = modified;
+        }
+    }
+
+    private final Path file;
+    private volatile Delegations delegations;
+
+    private RootZoneMirror(Path file, Delegations delegations) {
+        this.file = file;
+        this.delegations = delegations;
+    }
+
+    /** Loads a root zone file.
+     *
+     * @param file The root zone file, in master file format.
+     * @return The mirror of the zone.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public static RootZoneMirror load(Path file) throws IOException {
+        return new RootZoneMirror(file, read(file));
+    }
+
+    /** Reloads the zone file if it was modified since it was last loaded. If the new file cannot
+     * be parsed the current delegations are kept.
+     *
+     * @return true if the file was reloaded.
+     * @throws IOException If the modified file cannot be read or parsed.
+     */
+    public boolean reloadIfChanged() throws IOException {
+        if (Files.getLastModifiedTime(file).equals(delegations.modified))
+            return false;
+        delegations = read(file);
+        return true;
+    }
+
+    /** Checks the zone file for changes every {@code intervalSeconds} seconds on a daemon thread,
+     * reloading it when it changes.
+     *
+     * @param intervalSeconds Delay between two checks.
+     * @return The executor running the checks, to be shut down when no longer needed.
+     */
+    public ScheduledExecutorService watch(long intervalSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dns-root-mirror");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                if (reloadIfChanged())
+                    System.out.println("Reloaded root zone from " + file + " (" + getZoneCount() + " TLDs)");
+            } catch (IOException e) {
+                System.err.println("Could not reload root zone (" + e.getMessage() + ").");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return executor;
+    }
+
+    /** Returns the referral a root server would give for a name: the top-level domain enclosing
+     * the name and the addresses of its name servers.
+     *
+     * @param hostName Fully qualified domain name being resolved, with or without a final dot.
+     * @return The delegation of the name's TLD, or null for the root itself, for a TLD that is
+     * not in the zone, or for a TLD without glue.
+     */
+    public ZoneCut findReferral(String hostName) {
+        DNSName name = DNSName.of(hostName);
+        if (name.isRoot()) return null;
+        Delegations current = delegations;
+        int index = indexOfTLD(current.zones, name);
+        if (index < 0) return null;
+        int from = current.firstServer[index];
+        int to = current.firstServer[index + 1];
+        if (from == to) return null;
+        return new ZoneCut(current.zones[index].toString(), Arrays.asList(Arrays.copyOfRange(current.servers, from, to)));
+    }
+
+    /** @return The number of top-level domains delegated by the loaded zone. */
+    public int getZoneCount() {
+        return delegations.zones.length;
+    }
+
+    /** @return The number of name server addresses kept for all the top-level domains. */
+    public int getServerCount() {
+        return delegations.servers.length;
+    }
+
+    /** Binary search of the last label of a name among the sorted TLDs, comparing wire formats in
+     * place so a lookup allocates nothing.
+     */
+    private static int indexOfTLD(DNSName[] zones, DNSName name) {
+        byte[] wire = name.wire();
+        int offset = 0;
+        while (wire[offset + wire[offset] + 1] != 0)
+            offset += wire[offset] + 1;
+        int low = 0;
+        int high = zones.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] zone = zones[mid].wire();
+            int cmp = Arrays.compare(zone, 0, zone.length, wire, offset, wire.length);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private static Delegations read(Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        SortedMap<DNSName, List<DNSName>> nameServers = new TreeMap<>();
+        Map<DNSName, List<byte[]>> glue = new HashMap<>();
+        ZoneFileParser.parse(file, DNSName.ROOT, entry -> {
+            DNSName owner = entry.getOwner();
+            if (entry.getType() == RecordType.NS && owner.labelCount() == 1)
+                nameServers.computeIfAbsent(owner, k -> new ArrayList<>()).add(DNSName.of(entry.getText()));
+            else if (entry.getType() == RecordType.A || entry.getType() == RecordType.AAAA)
+                glue.computeIfAbsent(owner, k -> new ArrayList<>()).add(entry.getAddress());
+        });
+        if (nameServers.isEmpty())
+            throw new IOException(file + ": no top-level delegations found");
+
+        DNSName[] zones = nameServers.keySet().toArray(new DNSName[0]);
+        int[] firstServer = new int[zones.length + 1];
+        List<InetAddress> servers = new ArrayList<>();
+        for (int i = 0; i < zones.length; i++) {
+            firstServer[i] = servers.size();
+            for (DNSName ns : nameServers.get(zones[i]))
+                for (byte[] address : glue.getOrDefault(ns, Collections.emptyList()))
+                    servers.add(toInetAddress(ns, address));
+        }
+        firstServer[zones.length] = servers.size();
+        return new Delegations(zones, firstServer, servers.toArray(new InetAddress[0]), modified);
+    }
+
+    private static InetAddress toInetAddress(DNSName host, byte[] address) {
+        try {
+            return InetAddress.getByAddress(host.toString(), address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e); // only thrown for addresses of invalid length
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Static names answered without any network resolution, loaded either from a hosts file
+ * ({@code address name [aliases...]} per line) or from a zone file in master file format. The
+ * format is detected from the first entry of the file: a hosts file starts with an address.
+ *
+ * <p>A name present in the overlay is answered only from the overlay: querying a type it has no
+ * record for gives an empty result instead of going out to the network, so internal names are
+ * never leaked to external servers.</p>
+ *
+ * <p>The records are held in an immutable table of flat arrays, sorted by canonical name and
+ * searched with a binary search on {@link DNSName}, which makes a lookup a handful of byte array
+ * comparisons. {@link #reloadIfChanged()} builds a new table from the file and publishes it with a
+ * single volatile write, so lookups never lock and always see either the old or the new file.</p>
+ */
+public class StaticOverlay {
+
+    private static final long HOSTS_TTL = 3600; // TTL reported for names from a hosts file
+
+    private static final class Table {
+        final DNSName[] names; // sorted canonical names
+        final int[] firstRecord; // records of names[i] are at firstRecord[i] to firstRecord[i + 1] - 1
+        final RecordType[] types;
+        final long[] ttls;
+        final String[] texts; // rdata of textual records, null for addresses
+        final byte[][] addresses; // rdata of address records, null for textual records
+        final ResourceRecord[] records; // records handed out, rebuilt once half of their TTL has elapsed
+        final FileTime modified;
+
+        Table(int nameCount, int recordCount, FileTime modified) {
+            this.names = new DNSName[nameCount];
+            this.firstRecord = new int[nameCount + 1];
+            this.types = new RecordType[recordCount];
+            this.ttls = new long[recordCount];
+            this.texts = new String[recordCount];
+            this.addresses = new byte[recordCount][];
+            this.records = new ResourceRecord[recordCount];
+            this.modified = modified;
+        }
+    }
+
+    private final Path file;
+    private volatile Table table;
+
+    private StaticOverlay(Path file, Table table) {
+        this.file = file;
+        this.table = table;
+    }
+
+    /** Loads a hosts file or zone file.
+     *
+     * @param file The hosts or zone file.
+     * @return The overlay holding the names of the file.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public static StaticOverlay load(Path file) throws IOException {
+        return new StaticOverlay(file, read(file));
+    }
+
+    /** Reloads the file if it was modified since it was last loaded. If the new file cannot be
+     * parsed the current names are kept.
+     *
+     * @return true if the file was reloaded.
+     * @throws IOException If the modified file cannot be read or parsed.
+     */
+    public boolean reloadIfChanged() throws IOException {
+        if (Files.getLastModifiedTime(file).equals(table.modified))
+            return false;
+        table = read(file);
+        return true;
+    }
+
+    /** Checks the file for changes every {@code intervalSeconds} seconds on a daemon thread,
+     * reloading it when it changes.
+     *
+     * @param intervalSeconds Delay between two checks.
+     * @return The executor running the checks, to be shut down when no longer needed.
+     */
+    public ScheduledExecutorService watch(long intervalSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dns-static-overlay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                if (reloadIfChanged())
+                    System.out.println("Reloaded static names from " + file + " (" + getNameCount() + " names)");
+            } catch (IOException e) {
+                System.err.println("Could not reload static names (" + e.getMessage() + ").");
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return executor;
+    }
+
+    /** Returns the static records for a query.
+     *
+     * @param node DNS query (host name and record type).
+     * @return The records of the query's type, possibly empty if the name only has records of other
+     * types, or null if the name is not in the overlay.
+     */
+    public Set<ResourceRecord> lookup(DNSNode node) {
+        Table current = table;
+        int index = Arrays.binarySearch(current.names, node.getName());
+        if (index < 0) return null;
+        Set<ResourceRecord> results = new HashSet<>();
+        for (int i = current.firstRecord[index]; i < current.firstRecord[index + 1]; i++) {
+            if (current.types[i] != node.getType()) continue;
+            ResourceRecord record = current.records[i];
+            if (record.getTTL() * 2 < current.ttls[i]) {
+                // racing threads may both rebuild the record, which is harmless
+                record = newRecord(current, index, i);
+                current.records[i] = record;
+            }
+            results.add(record);
+        }
+        return results;
+    }
+
+    private static ResourceRecord newRecord(Table table, int name, int i) {
+        String hostName = table.names[name].toString();
+        if (table.addresses[i] != null)
+            return new ResourceRecord(hostName, table.types[i], table.ttls[i], table.addresses[i]);
+        return new ResourceRecord(hostName, table.types[i], table.ttls[i], table.texts[i]);
+    }
+
+    /** @return The number of distinct names in the overlay. */
+    public int getNameCount() {
+        return table.names.length;
+    }
+
+    /** @return The number of records in the overlay. */
+    public int getRecordCount() {
+        return table.types.length;
+    }
+
+    private static Table read(Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        SortedMap<DNSName, List<ZoneFileParser.Entry>> entries = new TreeMap<>();
+        if (isHostsFile(file))
+            readHosts(file, entries);
+        else
+            ZoneFileParser.parse(file, DNSName.ROOT, entry -> {
+                if (entry.getType() != RecordType.OTHER)
+                    entries.computeIfAbsent(entry.getOwner(), k -> new ArrayList<>()).add(entry);
+            });
+
+        int recordCount = 0;
+        for (List<ZoneFileParser.Entry> records : entries.values())
+            recordCount += records.size();
+        Table table = new Table(entries.size(), recordCount, modified);
+        int name = 0;
+        int record = 0;
+        for (Map.Entry<DNSName, List<ZoneFileParser.Entry>> e : entries.entrySet()) {
+            table.names[name] = e.getKey();
+            table.firstRecord[name] = record;
+            for (ZoneFileParser.Entry entry : e.getValue()) {
+                RecordType type = entry.getType();
+                table.types[record] = type;
+                table.ttls[record] = entry.getTTL();
+                if (type == RecordType.A || type == RecordType.AAAA)
+                    table.addresses[record] = entry.getAddress();
+                else
+                    table.texts[record] = String.join(" ", entry.getRdata());
+                table.records[record] = newRecord(table, name, record);
+                record++;
+            }
+            name++;
+        }
+        table.firstRecord[name] = record;
+        return table;
+    }
+
+    /** Returns true if the first entry of the file starts with an IPv4 or IPv6 address. */
+    private static boolean isHostsFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = fields(line);
+                if (fields.length > 0)
+                    return parseAddress(fields[0]) != null;
+            }
+        }
+        return false;
+    }
+
+    private static void readHosts(Path file, SortedMap<DNSName, List<ZoneFileParser.Entry>> entries) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] fields = fields(line);
+                if (fields.length == 0) continue;
+                byte[] address = parseAddress(fields[0]);
+                if (address == null || fields.length < 2)
+                    throw new IOException(file + ":" + lineNumber + ": expected an address followed by host names");
+                int typeCode = address.length == 4 ? RecordType.A.getCode() : RecordType.AAAA.getCode();
+                for (int i = 1; i < fields.length; i++) {
+                    DNSName name;
+                    try {
+                        name = DNSName.of(fields[i]);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+                    }
+                    entries.computeIfAbsent(name, k -> new ArrayList<>())
+                            .add(new ZoneFileParser.Entry(name, HOSTS_TTL, typeCode, new String[]{fields[0]}));
+                }
+            }
+        }
+    }
+
+    private static String[] fields(String line) {
+        String content = line.split("#", 2)[0].trim();
+        return content.isEmpty() ? new String[0] : content.split("\\s+");
+    }
+
+    /** Parses an IPv4 or IPv6 address literal without any name lookup, or returns null. */
+    private static byte[] parseAddress(String text) {
+        if (!text.matches("\\d{1,3}(\\.\\d{1,3}){3}") && !text.matches("[0-9A-Fa-f:.]*:[0-9A-Fa-f:.]*"))
+            return null;
+        try {
+            return InetAddress.getByName(text).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
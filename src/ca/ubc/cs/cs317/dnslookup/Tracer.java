@@ -0,0 +1,436 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/** Traces the queries sent and the responses received, without slowing the resolution down: the
+ * resolving threads only copy references into a fixed ring of entries, and a background thread
+ * formats them and writes them to a {@link Sink}. When the ring is full, entries are dropped
+ * (and counted) rather than making a resolution wait. Queries can be sampled, so that tracing can
+ * stay on under load.
+ *
+ * <p>The ring has any number of producers and one consumer. A producer claims the next sequence
+ * number with a compare-and-set, fills the entry of the sequence and publishes it; the consumer
+ * takes the entries in sequence order, once published, and frees them by advancing its own
+ * sequence. Entries only hold references to the query and response objects, which are not
+ * modified once sent or parsed.</p>
+ */
+public class Tracer {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final long IDLE_NANOS = 1000000; // consumer sleep when the ring is empty
+
+    /** What an entry records. */
+    public enum Kind { QUERY, RESPONSE, TIMEOUT, MESSAGE }
+
+    /** One traced event. Entries are reused, so sinks must not keep them. */
+    public static final class Entry {
+        private Kind kind;
+        private long timeMillis;
+        private InetAddress server;
+        private DNSQuery query;
+        private DNSResponse response;
+        private byte[] message;
+        private int length;
+        private int attempt;
+        private long elapsedNanos;
+        private String text;
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** @return When the event happened, in milliseconds since the epoch. */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        /** @return The server queried or responding, or null for a message. */
+        public InetAddress getServer() {
+            return server;
+        }
+
+        /** @return The query sent, or for a timeout the query not answered; null otherwise. */
+        public DNSQuery getQuery() {
+            return query;
+        }
+
+        /** @return The response received, or null. */
+        public DNSResponse getResponse() {
+            return response;
+        }
+
+        /** @return The bytes of the query sent or of the response received, in the first
+         * {@link #getLength()} bytes, or null for a message. */
+        public byte[] getMessage() {
+            return message;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /** @return 1 for the first time the query was sent to the server, 2 for the first retry, etc. */
+        public int getAttempt() {
+            return attempt;
+        }
+
+        /** @return For a response or timeout, the time since the query was sent, in nanoseconds. */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** @return The text of a message, or null. */
+        public String getText() {
+            return text;
+        }
+
+        private void clear() {
+            server = null;
+            query = null;
+            response = null;
+            message = null;
+            text = null;
+        }
+    }
+
+    /** Where the entries are written, by the background thread only. */
+    public interface Sink extends Closeable {
+        void write(Entry entry) throws IOException;
+
+        /** Called when the ring is empty, e.g. to flush buffered output. */
+        default void flush() throws IOException {
+        }
+
+        @Override
+        default void close() throws IOException {
+            flush();
+        }
+    }
+
+    /** Writes the entries as text, in the format of the {@code trace on} command. */
+    public static class TextSink implements Sink {
+        private final PrintWriter out;
+        private final boolean closeable;
+
+        /** @param out Where to write; standard output is flushed but never closed. */
+        public TextSink(OutputStream out) {
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            this.closeable = out != System.out && out != System.err;
+        }
+
+        @Override
+        public void write(Entry entry) {
+            switch (entry.kind) {
+                case QUERY:
+                    DNSQuery query = entry.query;
+                    out.print("\n\n"); // begin with two blank lines
+                    out.printf("Query ID     %s %s  %s --> %s%n", query.transID, query.lookupName,
+                            query.convertType(Integer.parseInt(query.type)), entry.server.getHostAddress());
+                    break;
+                case RESPONSE:
+                    DNSResponse response = entry.response;
+                    out.println("Response received after " + entry.elapsedNanos / 1000000 / 1000. + " seconds ("
+                            + (entry.attempt - 1) + " retries)");
+                    out.printf("Response ID: %s Authoritative = %s%n", response.responseID, response.authFlag);
+                    section("Answers", response.answerRecords);
+                    section("Nameservers", response.nameRecords);
+                    section("Additional Information", response.addRecords);
+                    break;
+                case TIMEOUT:
+                    out.println("No response from " + entry.server.getHostAddress() + " after "
+                            + entry.elapsedNanos / 1000000 / 1000. + " seconds (" + (entry.attempt - 1) + " retries)");
+                    break;
+                default:
+                    out.println(entry.text);
+            }
+        }
+
+        private void section(String title, List<DNSResponse.ParsedRecord> records) {
+            out.printf("  %s (%d)%n", title, records.size());
+            for (DNSResponse.ParsedRecord record : records) {
+                int code = record.getType();
+                RecordType type = RecordType.getByCode(code);
+                out.printf("       %-30s %-10d %-4s %s%n", record.getName(), record.getTTL(),
+                        type == RecordType.OTHER ? code : type, record.getRdata());
+            }
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (closeable) out.close();
+            else out.flush();
+        }
+    }
+
+    /** Writes the entries in a compact binary form, for tools to read back: per entry, the kind
+     * (one byte, its ordinal), the time in milliseconds (8 bytes), the server address (its length
+     * in one byte, 0 if none, then its bytes), the attempt (4 bytes), the elapsed time in
+     * nanoseconds (8 bytes), then the message (its length in 4 bytes, then the DNS message as
+     * sent or received, or the UTF-8 text of a message entry). Numbers are big-endian.
+     */
+    public static class BinarySink implements Sink {
+        private final DataOutputStream out;
+
+        public BinarySink(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        @Override
+        public void write(Entry entry) throws IOException {
+            out.writeByte(entry.kind.ordinal());
+            out.writeLong(entry.timeMillis);
+            byte[] address = entry.server != null ? entry.server.getAddress() : new byte[0];
+            out.writeByte(address.length);
+            out.write(address);
+            out.writeInt(entry.attempt);
+            out.writeLong(entry.elapsedNanos);
+            if (entry.kind == Kind.MESSAGE) {
+                byte[] text = entry.text.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(text.length);
+                out.write(text);
+            } else {
+                out.writeInt(entry.length);
+                out.write(entry.message, 0, entry.length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private final Entry[] entries;
+    private final AtomicLongArray published; // sequence + 1 of the entry last published in each slot
+    private final AtomicLong head = new AtomicLong(); // next sequence to claim
+    private volatile long tail; // next sequence to write, advanced by the consumer only
+    private final LongAdder dropped = new LongAdder();
+    private final double sampleRate;
+    private volatile Sink sink;
+    private volatile Thread consumer;
+
+    /** Creates a tracer, off until a sink is set.
+     *
+     * @param capacity   Number of entries the ring holds, rounded up to a power of two.
+     * @param sampleRate Fraction of the queries traced, with their response, between 0 and 1.
+     */
+    public Tracer(int capacity, double sampleRate) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new Entry[size];
+        for (int i = 0; i < size; i++)
+            entries[i] = new Entry();
+        this.published = new AtomicLongArray(size);
+        this.sampleRate = sampleRate;
+    }
+
+    /** Creates a tracer configured by system properties: {@code dnslookup.traceSample} (fraction
+     * of queries traced, 1 by default) and {@code dnslookup.traceBuffer} (entries in the ring).
+     *
+     * @return The tracer, off until a sink is set.
+     */
+    public static Tracer fromProperties() {
+        String sample = System.getProperty("dnslookup.traceSample", "1");
+        return new Tracer(Integer.getInteger("dnslookup.traceBuffer", DEFAULT_CAPACITY), Double.parseDouble(sample));
+    }
+
+    /** Opens the sink described by a {@code dnslookup.trace} value: {@code console},
+     * {@code file:path} (text) or {@code binary:path}.
+     *
+     * @param description The description.
+     * @return The sink.
+     * @throws IOException If the file cannot be created.
+     * @throws IllegalArgumentException If the description is not one of the above.
+     */
+    public static Sink openSink(String description) throws IOException {
+        if (description.equals("console")) return new TextSink(System.out);
+        if (description.startsWith("file:")) return new TextSink(new FileOutputStream(description.substring(5)));
+        if (description.startsWith("binary:")) return new BinarySink(new FileOutputStream(description.substring(7)));
+        throw new IllegalArgumentException("Expected console, file:path or binary:path");
+    }
+
+    /** Starts writing the entries to a sink, or stops tracing. The previous sink, if any, gets
+     * the entries already recorded and is then closed.
+     *
+     * @param newSink The sink, or null to turn tracing off.
+     */
+    public synchronized void setSink(Sink newSink) {
+        Sink old = sink;
+        sink = null; // no more entries for the old sink
+        if (old != null) {
+            awaitDrained(); // the consumer writes the last entries to the old sink
+            stopConsumer();
+            try {
+                old.close();
+            } catch (IOException e) {
+                System.err.println("Closing the trace failed (" + e.getMessage() + ").");
+            }
+        }
+        if (newSink == null) return;
+        Thread thread = new Thread(() -> consume(newSink), "dns-trace");
+        thread.setDaemon(true);
+        consumer = thread;
+        sink = newSink;
+        thread.start();
+    }
+
+    /** @return true if entries are being recorded. */
+    public boolean isEnabled() {
+        return sink != null;
+    }
+
+    /** Decides whether to trace the next query and its outcome, as given by the sampling rate.
+     *
+     * @return true if the query should be traced.
+     */
+    public boolean sample() {
+        return sink != null && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /** Records a query sent. */
+    public void query(DNSQuery query, InetAddress server, int attempt) {
+        long sequence = claim();
+        if (sequence < 0) return;
+        Entry entry = entries[(int) sequence & (entries.length - 1)];
+        fill(entry, Kind.QUERY, server, attempt, 0);
+        entry.query = query;
+        entry.message = query.message;
+        entry.length = query.message.length;
+        publish(sequence);
+    }
+
+    /** Records a response received.
+     *
+     * @param message The bytes received, in the first {@code length} bytes.
+     */
+    public void response(DNSResponse response, byte[] message, int length, InetAddress server, int attempt,
+                         long elapsedNanos) {
+        long sequence = claim();
+        if (sequence < 0) return;
+        Entry entry = entries[(int) sequence & (entries.length - 1)];
+        fill(entry, Kind.RESPONSE, server, attempt, elapsedNanos);
+        entry.response = response;
+        entry.message = message;
+        entry.length = length;
+        publish(sequence);
+    }
+
+    /** Records a query that got no response. */
+    public void timeout(DNSQuery query, InetAddress server, int attempt, long elapsedNanos) {
+        long sequence = claim();
+        if (sequence < 0) return;
+        Entry entry = entries[(int) sequence & (entries.length - 1)];
+        fill(entry, Kind.TIMEOUT, server, attempt, elapsedNanos);
+        entry.query = query;
+        entry.message = query.message;
+        entry.length = query.message.length;
+        publish(sequence);
+    }
+
+    /** Records a line of text. Callers should check {@link #isEnabled()} before building it. */
+    public void message(String text) {
+        long sequence = claim();
+        if (sequence < 0) return;
+        Entry entry = entries[(int) sequence & (entries.length - 1)];
+        fill(entry, Kind.MESSAGE, null, 0, 0);
+        entry.text = text;
+        publish(sequence);
+    }
+
+    /** Waits until every entry recorded so far is written, e.g. before printing the results of a
+     * lookup after its trace. Returns right away when tracing is off. */
+    public void awaitDrained() {
+        long target = head.get();
+        while (tail < target && consumer != null && consumer.isAlive())
+            LockSupport.parkNanos(IDLE_NANOS / 10);
+    }
+
+    /** @return The number of entries dropped because the ring was full. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private static void fill(Entry entry, Kind kind, InetAddress server, int attempt, long elapsedNanos) {
+        entry.kind = kind;
+        entry.timeMillis = System.currentTimeMillis();
+        entry.server = server;
+        entry.attempt = attempt;
+        entry.elapsedNanos = elapsedNanos;
+    }
+
+    /** Claims the next entry, or returns -1 if tracing is off or the ring is full. */
+    private long claim() {
+        if (sink == null) return -1;
+        while (true) {
+            long sequence = head.get();
+            if (sequence - tail >= entries.length) {
+                dropped.increment();
+                return -1;
+            }
+            if (head.compareAndSet(sequence, sequence + 1))
+                return sequence;
+        }
+    }
+
+    private void publish(long sequence) {
+        published.lazySet((int) sequence & (entries.length - 1), sequence + 1);
+    }
+
+    private void consume(Sink target) {
+        long next = tail;
+        boolean dirty = false;
+        while (true) {
+            int slot = (int) next & (entries.length - 1);
+            if (published.get(slot) == next + 1) {
+                Entry entry = entries[slot];
+                try {
+                    target.write(entry);
+                } catch (IOException | RuntimeException e) {
+                    dropped.increment(); // e.g. a full disk: the entry is lost, tracing goes on
+                }
+                entry.clear();
+                tail = ++next;
+                dirty = true;
+                continue;
+            }
+            if (dirty) {
+                try {
+                    target.flush();
+                } catch (IOException e) {
+                    // reported by the next write, if it fails too
+                }
+                dirty = false;
+            }
+            if (Thread.currentThread().isInterrupted()) return;
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    private void stopConsumer() {
+        if (consumer == null) return;
+        consumer.interrupt();
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        consumer = null;
+    }
+}
@@ -0,0 +1,217 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** The recursive resolvers queries are forwarded to, when the resolver runs in forwarding mode
+ * instead of iterating from the root. Each upstream has a weight and a smoothed round trip time
+ * (an exponentially weighted moving average of its response times), which are used to pick the
+ * upstream asked first: two upstreams are drawn at random in proportion to their weights, and the
+ * faster of the two is used. Load is thus spread by weight, while slow upstreams are avoided and
+ * still probed now and then, so their times stay current.
+ *
+ * <p>A timeout counts as a very slow response, which moves the upstream to the back of the line
+ * until it answers again. The time to wait for an upstream is derived from its smoothed round
+ * trip time, so a lost query fails over to the next upstream quickly.</p>
+ */
+public class UpstreamPool {
+
+    private static final double ALPHA = 0.3; // weight of the newest sample in the moving average
+    private static final long MIN_TIMEOUT = 100; // ms
+    private static final long INITIAL_TIMEOUT = 1000; // ms, for an upstream that never answered yet
+    private static final double TIMEOUT_FACTOR = 4; // multiple of the round trip time waited for
+
+    /** One upstream resolver with its weight and statistics. */
+    public static final class Upstream {
+        private final InetAddress address;
+        private final int weight;
+        private double rttMillis; // smoothed round trip time, 0 until the first response
+        private long responses;
+        private long timeouts;
+
+        Upstream(InetAddress address, int weight) {
+            this.address = address;
+            this.weight = weight;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /** @return The smoothed round trip time, in milliseconds; 0 if the upstream never answered. */
+        public synchronized double getRttMillis() {
+            return rttMillis;
+        }
+
+        public synchronized long getResponses() {
+            return responses;
+        }
+
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        synchronized void sample(double millis) {
+            rttMillis = responses == 0 && timeouts == 0 ? millis : ALPHA * millis + (1 - ALPHA) * rttMillis;
+            responses++;
+        }
+
+        synchronized void timedOut(long waitedMillis) {
+            rttMillis = Math.max(rttMillis * 2, waitedMillis);
+            timeouts++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s (weight %d, rtt %.1f ms, %d responses, %d timeouts)",
+                    address.getHostAddress(), weight, rttMillis, responses, timeouts);
+        }
+    }
+
+    private final List<Upstream> upstreams;
+    private final int totalWeight;
+    private final long maxTimeout;
+
+    /** Creates a pool.
+     *
+     * @param upstreams  The upstream resolvers; at least one.
+     * @param maxTimeout Longest time to wait for any upstream, in milliseconds.
+     */
+    public UpstreamPool(List<Upstream> upstreams, long maxTimeout) {
+        if (upstreams.isEmpty())
+            throw new IllegalArgumentException("No upstream resolvers");
+        this.upstreams = Collections.unmodifiableList(new ArrayList<>(upstreams));
+        int total = 0;
+        for (Upstream upstream : upstreams)
+            total += upstream.weight;
+        this.totalWeight = total;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /** Parses a list of upstreams such as {@code 10.0.0.53=3,10.0.1.53,2001:db8::53}: addresses
+     * separated by commas, each with an optional weight (1 by default).
+     *
+     * @param spec       The list of upstreams.
+     * @param maxTimeout Longest time to wait for any upstream, in milliseconds.
+     * @return The pool.
+     * @throws IllegalArgumentException If an address or weight is invalid.
+     */
+    public static UpstreamPool parse(String spec, long maxTimeout) {
+        List<Upstream> upstreams = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int equals = entry.indexOf('=');
+            String address = equals < 0 ? entry : entry.substring(0, equals);
+            int weight = 1;
+            try {
+                if (equals >= 0) weight = Integer.parseInt(entry.substring(equals + 1));
+                if (weight < 1) throw new NumberFormatException();
+                upstreams.add(new Upstream(InetAddress.getByName(address), weight));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight for upstream " + address);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid upstream address " + address);
+            }
+        }
+        return new UpstreamPool(upstreams, maxTimeout);
+    }
+
+    /** Returns the upstreams in the order they should be asked for a new query: the upstream
+     * picked for the query first, then the others from the fastest to the slowest. The round
+     * trip times are read once, before sorting, as other queries keep updating them.
+     *
+     * @return The addresses of every upstream.
+     */
+    public List<InetAddress> order() {
+        int count = upstreams.size();
+        double[] rtts = new double[count];
+        Integer[] sorted = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            rtts[i] = upstreams.get(i).getRttMillis();
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Double.compare(rtts[a], rtts[b]));
+        int first = pick(rtts);
+        List<InetAddress> order = new ArrayList<>(count);
+        order.add(upstreams.get(first).address);
+        for (int i : sorted)
+            if (i != first)
+                order.add(upstreams.get(i).address);
+        return order;
+    }
+
+    /** Draws two upstreams in proportion to their weights and returns the index of the faster one. */
+    private int pick(double[] rtts) {
+        if (upstreams.size() == 1) return 0;
+        int a = draw();
+        int b = draw();
+        for (int i = 0; b == a && i < 4; i++)
+            b = draw();
+        return rtts[b] < rtts[a] ? b : a;
+    }
+
+    private int draw() {
+        int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < upstreams.size(); i++) {
+            ticket -= upstreams.get(i).weight;
+            if (ticket < 0) return i;
+        }
+        return upstreams.size() - 1;
+    }
+
+    /** Returns how long to wait for a response from an upstream before failing over.
+     *
+     * @param address The upstream asked.
+     * @return The timeout, in milliseconds.
+     */
+    public long timeoutFor(InetAddress address) {
+        Upstream upstream = find(address);
+        if (upstream == null) return maxTimeout;
+        double rtt = upstream.getRttMillis();
+        if (rtt == 0) return Math.min(INITIAL_TIMEOUT, maxTimeout);
+        return Math.max(MIN_TIMEOUT, Math.min(maxTimeout, (long) (rtt * TIMEOUT_FACTOR)));
+    }
+
+    /** Records the round trip time of a response from an upstream. */
+    public void onResponse(InetAddress address, long nanos) {
+        Upstream upstream = find(address);
+        if (upstream != null) upstream.sample(nanos / 1e6);
+    }
+
+    /** Records that an upstream did not answer in time. */
+    public void onTimeout(InetAddress address, long waitedMillis) {
+        Upstream upstream = find(address);
+        if (upstream != null) upstream.timedOut(waitedMillis);
+    }
+
+    /** @return true if the address is one of the upstreams. */
+    public boolean contains(InetAddress address) {
+        return find(address) != null;
+    }
+
+    public List<Upstream> getUpstreams() {
+        return upstreams;
+    }
+
+    private Upstream find(InetAddress address) {
+        for (Upstream upstream : upstreams)
+            if (upstream.address.equals(address))
+                return upstream;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return upstreams.toString();
+    }
+}
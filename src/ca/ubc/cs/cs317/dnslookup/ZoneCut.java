@@ -0,0 +1,67 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A zone cut already known from the cache: the name of a zone together with the addresses of
+ * its name servers. Iterative resolution can start at the closest known zone cut of a name
+ * instead of at the root server, which skips the referrals it has already seen.
+ */
+public class ZoneCut {
+
+    private final String zone;
+    private final List<InetAddress> servers;
+
+    public ZoneCut(String zone, List<InetAddress> servers) {
+        this.zone = zone;
+        this.servers = Collections.unmodifiableList(servers);
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public List<InetAddress> getServers() {
+        return servers;
+    }
+
+    /** Finds the deepest zone enclosing a host name for which the cache holds still valid NS
+     * records and an address (A or AAAA) for at least one of those name servers. The label suffixes of the
+     * host name are tried from the longest (the name itself) to the shortest (the top-level
+     * domain); the root zone is never returned, as the root server is always known.
+     *
+     * @param cache    Cache holding the NS and address records.
+     * @param hostName Fully qualified domain name being resolved, with or without a final dot.
+     * @return The closest zone cut, or null if the cache knows no delegation for the name.
+     */
+    public static ZoneCut findClosest(DNSRecordCache cache, String hostName) {
+        for (DNSName zone : cache.enclosingNames(DNSName.of(hostName), RecordType.NS)) {
+            if (zone.isRoot()) break;
+            ZoneCut cut = fromCache(cache, zone);
+            if (cut != null) return cut;
+        }
+        return null;
+    }
+
+    private static ZoneCut fromCache(DNSRecordCache cache, DNSName zone) {
+        List<InetAddress> servers = new ArrayList<>();
+        for (ResourceRecord ns : cache.getCachedResults(new DNSNode(zone, RecordType.NS))) {
+            addAddresses(cache, new DNSNode(ns.getTextResult(), RecordType.A), servers);
+            addAddresses(cache, new DNSNode(ns.getTextResult(), RecordType.AAAA), servers);
+        }
+        return servers.isEmpty() ? null : new ZoneCut(zone.toString(), servers);
+    }
+
+    private static void addAddresses(DNSRecordCache cache, DNSNode node, List<InetAddress> servers) {
+        for (ResourceRecord glue : cache.getCachedResults(node))
+            if (glue.getInetResult() != null)
+                servers.add(glue.getInetResult());
+    }
+
+    @Override
+    public String toString() {
+        return zone + " " + servers;
+    }
+}
@@ -0,0 +1,339 @@
+package ca.ubc.cs.cs317.dnslookup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** A streaming parser for RFC 1035 master (zone) files. The file is memory-mapped and read one
+ * logical line at a time, so even very large zones are parsed without holding the text in the
+ * heap. Each resource record found is handed to a consumer as an {@link Entry}.
+ *
+ * <p>Supported syntax: {@code $ORIGIN} and {@code $TTL} directives, {@code @} for the origin,
+ * relative names, a blank owner repeating the previous owner, optional TTL and class fields in
+ * either order, TTLs with units (e.g. {@code 1h30m}), {@code ;} comments, quoted strings and
+ * parentheses spanning several lines. {@code $INCLUDE} is not supported.</p>
+ */
+public class ZoneFileParser {
+
+    private static final long DEFAULT_TTL = 3600;
+
+    /** A resource record read from a zone file. Names appearing in the rdata of NS, CNAME, PTR,
+     * MX and SOA records are made absolute and canonical (see {@link DNSName}), and the times of
+     * SOA records are converted to seconds.
+     */
+    public static class Entry {
+
+        private final DNSName owner;
+        private final long ttl;
+        private final int typeCode;
+        private final String[] rdata;
+
+        Entry(DNSName owner, long ttl, int typeCode, String[] rdata) {
+            this.owner = owner;
+            this.ttl = ttl;
+            this.typeCode = typeCode;
+            this.rdata = rdata;
+        }
+
+        public DNSName getOwner() {
+            return owner;
+        }
+
+        public long getTTL() {
+            return ttl;
+        }
+
+        public RecordType getType() {
+            return RecordType.getByCode(typeCode);
+        }
+
+        /** @return The numeric type, also for types not listed in {@link RecordType}. */
+        public int getTypeCode() {
+            return typeCode;
+        }
+
+        /** @return The rdata fields in presentation format. */
+        public String[] getRdata() {
+            return rdata;
+        }
+
+        /** @return The first rdata field, e.g. the address of an A record or the target of a CNAME. */
+        public String getText() {
+            return rdata.length > 0 ? rdata[0] : "";
+        }
+
+        /** Returns the raw bytes of the address of an A or AAAA record.
+         *
+         * @return The 4 or 16 bytes of the address.
+         * @throws IllegalArgumentException If the rdata is not an address literal.
+         */
+        public byte[] getAddress() {
+            String text = getText();
+            boolean literal = typeCode == 28 ? text.indexOf(':') >= 0 : text.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+            if (!literal)
+                throw new IllegalArgumentException("Invalid address " + text + " for " + owner);
+            try {
+                return InetAddress.getByName(text).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid address " + text + " for " + owner, e);
+            }
+        }
+
+        /** Creates a cacheable record for this entry, for the supported record types.
+         *
+         * @return A resource record with this entry's TTL.
+         */
+        public ResourceRecord toResourceRecord() {
+            RecordType type = getType();
+            if (type == RecordType.A || type == RecordType.AAAA)
+                return new ResourceRecord(owner.toString(), type, ttl, getAddress());
+            return new ResourceRecord(owner.toString(), type, ttl, getText());
+        }
+
+        @Override
+        public String toString() {
+            return owner + " " + ttl + " " + getType() + " " + String.join(" ", rdata);
+        }
+    }
+
+    private final ByteBuffer data;
+    private final String source;
+    private DNSName origin;
+    private DNSName lastOwner;
+    private long defaultTTL = -1;
+    private long lastTTL = DEFAULT_TTL;
+    private int line = 1;
+
+    private ZoneFileParser(ByteBuffer data, DNSName origin, String source) {
+        this.data = data;
+        this.origin = origin;
+        this.lastOwner = origin;
+        this.source = source;
+    }
+
+    /** Parses a zone file, memory-mapping it.
+     *
+     * @param file     The zone file.
+     * @param origin   Initial origin, used for relative names until a {@code $ORIGIN} directive.
+     * @param consumer Action performed for each record of the file, in order.
+     * @throws IOException If the file cannot be read or has a syntax error.
+     */
+    public static void parse(Path file, DNSName origin, Consumer<Entry> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = channel.size() == 0 ? ByteBuffer.allocate(0)
+                    : channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            parse(data, origin, file.toString(), consumer);
+        }
+    }
+
+    /** Parses zone file contents already in memory.
+     *
+     * @param data     The zone file contents, read from the current position to the limit.
+     * @param origin   Initial origin, used for relative names until a {@code $ORIGIN} directive.
+     * @param source   Name of the data for error messages, e.g. the file name.
+     * @param consumer Action performed for each record, in order.
+     * @throws IOException If the data has a syntax error.
+     */
+    public static void parse(ByteBuffer data, DNSName origin, String source, Consumer<Entry> consumer) throws IOException {
+        ZoneFileParser parser = new ZoneFileParser(data, origin, source);
+        List<String> tokens = new ArrayList<>();
+        boolean[] blankOwner = new boolean[1];
+        while (parser.readLine(tokens, blankOwner)) {
+            if (tokens.isEmpty()) continue;
+            try {
+                Entry entry = parser.parseLine(tokens, blankOwner[0]);
+                if (entry != null)
+                    consumer.accept(entry);
+            } catch (IllegalArgumentException e) {
+                throw parser.error(e.getMessage());
+            }
+        }
+    }
+
+    /** Reads the tokens of the next logical line (joining lines inside parentheses). Returns
+     * false at the end of the data.
+     */
+    private boolean readLine(List<String> tokens, boolean[] blankOwner) throws IOException {
+        tokens.clear();
+        if (!data.hasRemaining()) return false;
+        blankOwner[0] = data.get(data.position()) == ' ' || data.get(data.position()) == '\t';
+        int depth = 0;
+        StringBuilder token = new StringBuilder();
+        while (data.hasRemaining()) {
+            char c = (char) (data.get() & 0xFF);
+            if (c == '"') {
+                while (data.hasRemaining() && (c = (char) (data.get() & 0xFF)) != '"') {
+                    if (c == '\n') line++;
+                    token.append(c);
+                }
+                tokens.add(token.toString());
+                token.setLength(0);
+                continue;
+            }
+            if (c == ';') {
+                while (data.hasRemaining() && data.get(data.position()) != '\n')
+                    data.get();
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '(' || c == ')') {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                if (c == '(') depth++;
+                if (c == ')' && --depth < 0) throw error("Unbalanced parenthesis");
+                if (c == '\n') {
+                    line++;
+                    if (depth == 0) return true;
+                }
+                continue;
+            }
+            token.append(c);
+        }
+        if (depth != 0) throw error("Unbalanced parenthesis");
+        if (token.length() > 0) tokens.add(token.toString());
+        return true;
+    }
+
+    private Entry parseLine(List<String> tokens, boolean blank) throws IOException {
+        String first = tokens.get(0);
+        if (first.startsWith("$")) {
+            if (first.equalsIgnoreCase("$ORIGIN") && tokens.size() >= 2) {
+                origin = absolute(tokens.get(1));
+            } else if (first.equalsIgnoreCase("$TTL") && tokens.size() >= 2) {
+                defaultTTL = parseTTL(tokens.get(1));
+            } else {
+                throw error("Unsupported directive " + first);
+            }
+            return null;
+        }
+
+        int index = 0;
+        DNSName owner = lastOwner;
+        if (!blank) {
+            owner = absolute(first);
+            index++;
+        }
+        long ttl = defaultTTL >= 0 ? defaultTTL : lastTTL;
+        for (int fields = 0; fields < 2 && index < tokens.size(); fields++) {
+            String token = tokens.get(index);
+            if (Character.isDigit(token.charAt(0))) {
+                ttl = parseTTL(token);
+                lastTTL = ttl;
+                index++;
+            } else if (token.equalsIgnoreCase("IN") || token.equalsIgnoreCase("CH") || token.equalsIgnoreCase("HS")) {
+                index++;
+            }
+        }
+        if (index >= tokens.size())
+            throw error("Missing record type");
+        int typeCode = parseType(tokens.get(index++));
+        String[] rdata = tokens.subList(index, tokens.size()).toArray(new String[0]);
+        switch (typeCode) {
+            case 2: // NS
+            case 5: // CNAME
+            case 12: // PTR
+                absoluteAt(rdata, 0);
+                break;
+            case 15: // MX
+                absoluteAt(rdata, 1);
+                break;
+            case 6: // SOA
+                absoluteAt(rdata, 0);
+                absoluteAt(rdata, 1);
+                for (int i = 2; i < rdata.length; i++)
+                    rdata[i] = Long.toString(parseTTL(rdata[i])); // times may have units too
+                if (defaultTTL < 0 && rdata.length >= 7)
+                    lastTTL = Long.parseLong(rdata[6]);
+                break;
+            default:
+                break;
+        }
+        lastOwner = owner;
+        return new Entry(owner, ttl, typeCode, rdata);
+    }
+
+    private void absoluteAt(String[] rdata, int index) {
+        if (index < rdata.length)
+            rdata[index] = absolute(rdata[index]).toString();
+    }
+
+    /** Makes a name from the file absolute: names ending with a dot are already absolute, others
+     * are relative to the current origin.
+     */
+    private DNSName absolute(String name) {
+        if (name.equals("@"))
+            return origin;
+        if (name.endsWith("."))
+            return DNSName.of(name);
+        return origin.isRoot() ? DNSName.of(name) : DNSName.of(name + "." + origin);
+    }
+
+    private static int parseType(String token) {
+        String upper = token.toUpperCase();
+        if (upper.startsWith("TYPE"))
+            return Integer.parseInt(upper.substring(4));
+        switch (upper) {
+            case "PTR":
+                return 12;
+            case "TXT":
+                return 16;
+            case "SRV":
+                return 33;
+            case "DS":
+                return 43;
+            case "RRSIG":
+                return 46;
+            case "NSEC":
+                return 47;
+            case "DNSKEY":
+                return 48;
+            case "NSEC3":
+                return 50;
+            case "ZONEMD":
+                return 63;
+            default:
+                try {
+                    return RecordType.valueOf(upper).getCode();
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown record type " + token);
+                }
+        }
+    }
+
+    /** Parses a TTL, either a plain number of seconds or a sequence such as {@code 1h30m}. */
+    static long parseTTL(String token) {
+        long total = 0;
+        long value = -1;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                continue;
+            }
+            if (value < 0)
+                throw new IllegalArgumentException("Invalid TTL " + token);
+            switch (Character.toLowerCase(c)) {
+                case 's': total += value; break;
+                case 'm': total += value * 60; break;
+                case 'h': total += value * 3600; break;
+                case 'd': total += value * 86400; break;
+                case 'w': total += value * 604800; break;
+                default: throw new IllegalArgumentException("Invalid TTL " + token);
+            }
+            value = -1;
+        }
+        return value < 0 ? total : total + value;
+    }
+
+    private IOException error(String message) {
+        return new IOException(source + ":" + line + ": " + message);
+    }
+}